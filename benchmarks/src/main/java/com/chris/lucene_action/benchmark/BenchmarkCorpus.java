@@ -0,0 +1,82 @@
+package com.chris.lucene_action.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+/**
+ * Benchmark corpora generated by {@link BookCorpusGenerator} with a fixed
+ * seed, so every run and every machine measures the same books.
+ */
+public class BenchmarkCorpus {
+	public static final long SEED = 42;
+
+	public static BookCorpusGenerator generator() {
+		return new BookCorpusGenerator(SEED);
+	}
+
+	/**
+	 * Writes books .properties files into a new temporary directory.
+	 */
+	public static File createDataDir(int books) throws IOException {
+		File target = File.createTempFile("books", "");
+		target.delete();
+		generator().writeTo(target, books);
+		return target;
+	}
+
+	/**
+	 * Indexes generated books into a RAMDirectory with the book analyzer.
+	 */
+	public static Directory createIndex(int books) throws IOException {
+		return createIndex(books, 1);
+	}
+
+	/**
+	 * Indexes generated books into at most the given number of segments.
+	 */
+	public static Directory createIndex(int books, int segments) throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setRAMBufferSizeMB(64);
+		generator().index(writer, books, Runtime.getRuntime().availableProcessors());
+		writer.optimize(segments);
+		writer.close();
+		return dir;
+	}
+
+	public static List<File> findBooks(File dir) {
+		List<File> result = new ArrayList<File>();
+		findBooks(result, dir);
+		return result;
+	}
+
+	private static void findBooks(List<File> result, File dir) {
+		for (File file : dir.listFiles()) {
+			if (file.getName().endsWith(".properties")) {
+				result.add(file);
+			} else if (file.isDirectory()) {
+				findBooks(result, file);
+			}
+		}
+	}
+
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
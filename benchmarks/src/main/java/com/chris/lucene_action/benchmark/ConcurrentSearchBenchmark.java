@@ -0,0 +1,82 @@
+package com.chris.lucene_action.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chris.lucene_action.search.ConcurrentIndexSearcher;
+
+/**
+ * Latency of SearchTest.testBooleanQuery's query on an index of several
+ * segments, scored by one thread or by up to threadsPerQuery threads with
+ * {@link ConcurrentIndexSearcher}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentSearchBenchmark {
+
+	@Param({"1000000"})
+	public int books;
+
+	@Param({"8"})
+	public int segments;
+
+	@Param({"1", "2", "4", "8"})
+	public int threadsPerQuery;
+
+	private Directory directory;
+	private IndexReader reader;
+	private ExecutorService executor;
+	private ConcurrentIndexSearcher searcher;
+	private BooleanQuery query;
+
+	@Setup(Level.Trial)
+	public void createIndex() throws IOException {
+		directory = BenchmarkCorpus.createIndex(books, segments);
+		reader = IndexReader.open(directory, true);
+		executor = Executors.newFixedThreadPool(threadsPerQuery);
+		searcher = new ConcurrentIndexSearcher(reader, executor, threadsPerQuery);
+		query = new BooleanQuery();
+		query.add(new TermQuery(new Term("subject", "search")), BooleanClause.Occur.MUST);
+		query.add(NumericRangeQuery.newIntRange("pubmonth", 199001, 201012, true, true), BooleanClause.Occur.MUST);
+	}
+
+	@TearDown(Level.Trial)
+	public void closeIndex() throws IOException {
+		executor.shutdown();
+		reader.close();
+		directory.close();
+	}
+
+	@Benchmark
+	public TopDocs booleanQuery() throws IOException {
+		return searcher.search(query, 10);
+	}
+}
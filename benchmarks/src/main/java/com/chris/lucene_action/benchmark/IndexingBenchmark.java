@@ -0,0 +1,109 @@
+package com.chris.lucene_action.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.CreateTestIndex;
+
+/**
+ * Documents per second through CreateTestIndex.getDocument, with and without
+ * handing the document to an IndexWriter. Run with -prof gc to see the
+ * allocation per document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexingBenchmark {
+
+	/**
+	 * number of generated books on disk
+	 */
+	@Param({"1000", "100000"})
+	public int books;
+
+	private File dataDir;
+	private String rootDir;
+	private List<File> files;
+	private int next;
+	private IndexWriter writer;
+
+	@Setup(Level.Trial)
+	public void createCorpus() throws IOException {
+		dataDir = BenchmarkCorpus.createDataDir(books);
+		rootDir = dataDir.getPath();
+		files = BenchmarkCorpus.findBooks(dataDir);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteCorpus() {
+		BenchmarkCorpus.delete(dataDir);
+	}
+
+	@Setup(Level.Iteration)
+	public void openWriter() throws IOException {
+		writer = new IndexWriter(new RAMDirectory(), CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeWriter() throws IOException {
+		writer.close();
+	}
+
+	private File nextBook() {
+		File book = files.get(next);
+		next = (next + 1) % files.size();
+		return book;
+	}
+
+	@Benchmark
+	public Document getDocument() throws IOException {
+		return CreateTestIndex.getDocument(rootDir, nextBook());
+	}
+
+	@Benchmark
+	public Document getReusableDocument() throws IOException {
+		File book = nextBook();
+		InputStream in = new FileInputStream(book);
+		try {
+			return CreateTestIndex.getReusableDocument(rootDir, book, in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public void addDocument() throws IOException {
+		File book = nextBook();
+		InputStream in = new FileInputStream(book);
+		try {
+			writer.addDocument(CreateTestIndex.getReusableDocument(rootDir, book, in));
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package com.chris.lucene_action.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chris.lucene_action.search.AggregationCollector;
+import com.chris.lucene_action.search.BKTreeIndex;
+import com.chris.lucene_action.search.BatchSearcher;
+import com.chris.lucene_action.search.FacetCollector;
+import com.chris.lucene_action.search.FacetIndex;
+import com.chris.lucene_action.search.FastFuzzyQuery;
+import com.chris.lucene_action.search.FilterCache;
+import com.chris.lucene_action.search.HitCounter;
+import com.chris.lucene_action.search.IntColumnCache;
+import com.chris.lucene_action.search.NGramIndex;
+import com.chris.lucene_action.search.NGramWildcardQuery;
+
+/**
+ * Throughput and latency distribution of the query types exercised by
+ * SearchTest, PhraseQueryTest and WildcardQueryTest, each against several
+ * corpus sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+	/**
+	 * number of generated books in the index
+	 */
+	@Param({"10000", "100000", "1000000"})
+	public int books;
+
+	private Directory directory;
+	private IndexSearcher searcher;
+	private FilterCache filters;
+
+	@Setup(Level.Trial)
+	public void createIndex() throws IOException {
+		directory = BenchmarkCorpus.createIndex(books);
+		searcher = new IndexSearcher(directory);
+		filters = new FilterCache(10);
+	}
+
+	@TearDown(Level.Trial)
+	public void closeIndex() throws IOException {
+		searcher.close();
+		directory.close();
+	}
+
+	// the per-segment structures below are only built for the benchmarks that take them
+
+	@State(Scope.Benchmark)
+	public static class Grams {
+		NGramIndex grams;
+
+		@Setup(Level.Trial)
+		public void warm(QueryBenchmark benchmark) throws IOException {
+			grams = new NGramIndex("contents");
+			grams.warm(benchmark.searcher);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class BKTrees {
+		BKTreeIndex bkTrees;
+
+		@Setup(Level.Trial)
+		public void warm(QueryBenchmark benchmark) throws IOException {
+			bkTrees = new BKTreeIndex("contents");
+			bkTrees.warm(benchmark.searcher);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Facets {
+		FacetIndex facets;
+
+		@Setup(Level.Trial)
+		public void warm(QueryBenchmark benchmark) throws IOException {
+			facets = FacetIndex.forBooks();
+			facets.warm(benchmark.searcher);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class IntColumns {
+		IntColumnCache intColumns;
+
+		@Setup(Level.Trial)
+		public void warm(QueryBenchmark benchmark) throws IOException {
+			intColumns = new IntColumnCache("pubmonth");
+			intColumns.warm(benchmark.searcher);
+		}
+	}
+
+	/**
+	 * every category path of the index and its ancestors, the values FacetCollector counts
+	 */
+	@State(Scope.Benchmark)
+	public static class CategoryPaths {
+		List<String> paths;
+
+		@Setup(Level.Trial)
+		public void read(QueryBenchmark benchmark) throws IOException {
+			Set<String> all = new TreeSet<String>();
+			TermEnum terms = benchmark.searcher.getIndexReader().terms(new Term("category", ""));
+			for (; terms.term() != null && terms.term().field().equals("category"); terms.next()) {
+				for (String path = terms.term().text(); path.length() > 0; path = FacetIndex.parent(path)) {
+					all.add(path);
+				}
+			}
+			terms.close();
+			paths = new ArrayList<String>(all);
+		}
+	}
+
+	/**
+	 * a count per pubmonth and per subject word, as sent by reporting jobs
+	 */
+	@State(Scope.Benchmark)
+	public static class ReportQueries {
+		List<Query> queries;
+
+		@Setup(Level.Trial)
+		public void create(QueryBenchmark benchmark) throws IOException {
+			queries = new ArrayList<Query>();
+			for (int year = 1970; year <= 2020; year++) {
+				for (int month = 1; month <= 12; month++) {
+					int pubmonth = year * 100 + month;
+					queries.add(NumericRangeQuery.newIntRange("pubmonth", pubmonth, pubmonth, true, true));
+				}
+			}
+			TermEnum terms = benchmark.searcher.getIndexReader().terms(new Term("subject", ""));
+			for (int i = 0; i < 500 && terms.term() != null && terms.term().field().equals("subject"); i++) {
+				queries.add(new TermQuery(terms.term()));
+				terms.next();
+			}
+			terms.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Slop {
+		@Param({"0", "2", "10"})
+		public int slop;
+	}
+
+	@Benchmark
+	public TopDocs termQuery() throws IOException {
+		return searcher.search(new TermQuery(new Term("subject", "junit")), 10);
+	}
+
+	@Benchmark
+	public TopDocs queryParserBoolean() throws IOException, ParseException {
+		QueryParser parser = new QueryParser(Version.LUCENE_30, "contents", new SimpleAnalyzer());
+		return searcher.search(parser.parse("+JUNIT +ANT -MOCK"), 10);
+	}
+
+	@Benchmark
+	public TopDocs phraseQuery(Slop slop) throws IOException {
+		PhraseQuery query = new PhraseQuery();
+		query.setSlop(slop.slop);
+		query.add(new Term("contents", "lucene"));
+		query.add(new Term("contents", "action"));
+		return searcher.search(query, 10);
+	}
+
+	@Benchmark
+	public TopDocs wildcardQuery() throws IOException {
+		return searcher.search(new WildcardQuery(new Term("contents", "?ild*")), 10);
+	}
+
+	@Benchmark
+	public TopDocs ngramWildcardQuery(Grams grams) throws IOException {
+		return searcher.search(new NGramWildcardQuery(new Term("contents", "?ild*"), grams.grams), 10);
+	}
+
+	@Benchmark
+	public TopDocs fuzzyQuery() throws IOException {
+		return searcher.search(new FuzzyQuery(new Term("contents", "lucine")), 10);
+	}
+
+	@Benchmark
+	public TopDocs fastFuzzyQuery(BKTrees bkTrees) throws IOException {
+		return searcher.search(new FastFuzzyQuery(new Term("contents", "lucine"), bkTrees.bkTrees), 10);
+	}
+
+	@Benchmark
+	public TopDocs numericRangeQuery() throws IOException {
+		Query query = NumericRangeQuery.newIntRange("pubmonth", 200605, 200609, true, true);
+		return searcher.search(query, 10);
+	}
+
+	@Benchmark
+	public TopDocs prefixQuery() throws IOException {
+		return searcher.search(new PrefixQuery(new Term("category", "/technology/computers/programming")), 10);
+	}
+
+	@Benchmark
+	public int termQueryTopOneCount() throws IOException {
+		return searcher.search(new TermQuery(new Term("subject", "junit")), 1).totalHits;
+	}
+
+	@Benchmark
+	public int termQueryCount() throws IOException {
+		return HitCounter.count(searcher, new TermQuery(new Term("subject", "junit")));
+	}
+
+	@Benchmark
+	public int filteredTopOneCount() throws IOException {
+		return searcher.search(new TermQuery(new Term("subject", "junit")), filters.categoryPrefix("/technology"), 1).totalHits;
+	}
+
+	@Benchmark
+	public int filteredCount() throws IOException {
+		return HitCounter.count(searcher, new TermQuery(new Term("subject", "junit")), filters.categoryPrefix("/technology"));
+	}
+
+	@Benchmark
+	public int reportCountsLoop(ReportQueries report) throws IOException {
+		int total = 0;
+		for (Query query : report.queries) {
+			total += searcher.search(query, 1).totalHits;
+		}
+		return total;
+	}
+
+	@Benchmark
+	public int[] reportCountsBatch(ReportQueries report) throws IOException {
+		return new BatchSearcher(searcher).count(report.queries);
+	}
+
+	@Benchmark
+	public int categoryCountsByPrefixQueries(CategoryPaths categories) throws IOException {
+		Query query = new TermQuery(new Term("subject", "junit"));
+		int total = 0;
+		for (String path : categories.paths) {
+			BooleanQuery facet = new BooleanQuery();
+			facet.add(query, BooleanClause.Occur.MUST);
+			facet.add(new PrefixQuery(new Term("category", path)), BooleanClause.Occur.MUST);
+			total += searcher.search(facet, 1).totalHits;
+		}
+		return total;
+	}
+
+	@Benchmark
+	public Map<String, Integer> categoryCountsByFacetCollector(Facets facets) throws IOException {
+		FacetCollector collector = new FacetCollector(facets.facets);
+		searcher.search(new TermQuery(new Term("subject", "junit")), collector);
+		return collector.getTop("category", Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public int yearHistogramByRangeQueries() throws IOException {
+		Query query = new TermQuery(new Term("subject", "junit"));
+		int total = 0;
+		for (int year = 1970; year <= 2020; year++) {
+			BooleanQuery bucket = new BooleanQuery();
+			bucket.add(query, BooleanClause.Occur.MUST);
+			bucket.add(NumericRangeQuery.newIntRange("pubmonth", year * 100, year * 100 + 99, true, true),
+					BooleanClause.Occur.MUST);
+			total += searcher.search(bucket, 1).totalHits;
+		}
+		return total;
+	}
+
+	@Benchmark
+	public Map<Long, Long> yearHistogramByAggregation(IntColumns columns) throws IOException {
+		AggregationCollector years = new AggregationCollector(columns.intColumns, "pubmonth").histogram(100);
+		searcher.search(new TermQuery(new Term("subject", "junit")), years);
+		return years.getHistogram();
+	}
+}
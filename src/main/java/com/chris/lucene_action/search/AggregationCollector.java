@@ -0,0 +1,222 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * Aggregates an int field over the documents of a search in one pass, from
+ * the field's {@link IntColumn}s: count, min, max and sum of the values, and
+ * optionally a histogram and the counts of named ranges. Documents without a
+ * value are left out. For pubmonth (yyyyMM) a histogram with interval 1
+ * counts books per month, with interval 100 per year:
+ *
+ * <pre>
+ * AggregationCollector years = new AggregationCollector(columns, "pubmonth", topDocs)
+ *     .histogram(100)
+ *     .range("before 2000", null, 199912);
+ * searcher.search(query, years);
+ * years.getHistogram(); // {200000=12, 200100=3, ...}
+ * </pre>
+ */
+public class AggregationCollector extends Collector {
+	// widest value range of a segment counted in an array rather than a map
+	private static final int MAX_DENSE_BUCKETS = 1 << 16;
+
+	private final IntColumnCache columns;
+	private final String field;
+	private final Collector collector;
+	private int interval;
+	private final List<String> rangeNames = new ArrayList<String>();
+	private final List<long[]> ranges = new ArrayList<long[]>();
+	private int[] rangeCounts = new int[0];
+
+	private IntColumn column;
+	private long count;
+	private long sum;
+	private int min = Integer.MAX_VALUE;
+	private int max = Integer.MIN_VALUE;
+	private final Map<Long, long[]> histogram = new HashMap<Long, long[]>();
+	// buckets of the current segment, from firstBucket on; null for a sparse segment
+	private int[] denseBuckets;
+	private long firstBucket;
+
+	public AggregationCollector(IntColumnCache columns, String field) {
+		this(columns, field, null);
+	}
+
+	/**
+	 * @param collector also receives every document, null to only aggregate
+	 */
+	public AggregationCollector(IntColumnCache columns, String field, Collector collector) {
+		this.columns = columns;
+		this.field = field;
+		this.collector = collector;
+	}
+
+	/**
+	 * Also counts values per bucket of interval consecutive values, keyed by
+	 * the bucket's first value; must be called before searching.
+	 */
+	public AggregationCollector histogram(int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("interval must be >= 1: " + interval);
+		}
+		this.interval = interval;
+		return this;
+	}
+
+	/**
+	 * Also counts values in the inclusive range, null for no bound; ranges
+	 * may overlap. Must be called before searching.
+	 */
+	public AggregationCollector range(String name, Integer from, Integer to) {
+		rangeNames.add(name);
+		ranges.add(new long[] {from == null ? Long.MIN_VALUE : from, to == null ? Long.MAX_VALUE : to});
+		rangeCounts = new int[ranges.size()];
+		return this;
+	}
+
+	public void setScorer(Scorer scorer) throws IOException {
+		if (collector != null) {
+			collector.setScorer(scorer);
+		}
+	}
+
+	public void collect(int doc) throws IOException {
+		if (column.hasValue(doc)) {
+			int value = column.get(doc);
+			count++;
+			sum += value;
+			if (value < min) {
+				min = value;
+			}
+			if (value > max) {
+				max = value;
+			}
+			if (interval > 0) {
+				if (denseBuckets != null) {
+					denseBuckets[(int) ((bucket(value) - firstBucket) / interval)]++;
+				} else {
+					add(bucket(value), 1);
+				}
+			}
+			for (int i = 0; i < rangeCounts.length; i++) {
+				long[] range = ranges.get(i);
+				if (range[0] <= value && value <= range[1]) {
+					rangeCounts[i]++;
+				}
+			}
+		}
+		if (collector != null) {
+			collector.collect(doc);
+		}
+	}
+
+	public void setNextReader(IndexReader reader, int docBase) throws IOException {
+		flush();
+		column = columns.getColumn(reader, field);
+		if (interval > 0 && column.getMin() <= column.getMax()) {
+			firstBucket = bucket(column.getMin());
+			long buckets = (bucket(column.getMax()) - firstBucket) / interval + 1;
+			denseBuckets = buckets <= MAX_DENSE_BUCKETS ? new int[(int) buckets] : null;
+		}
+		if (collector != null) {
+			collector.setNextReader(reader, docBase);
+		}
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return collector == null || collector.acceptsDocsOutOfOrder();
+	}
+
+	// first value of the bucket holding value, rounding down for negative values too
+	private long bucket(int value) {
+		long quotient = value / interval;
+		if (value < 0 && value % interval != 0) {
+			quotient--;
+		}
+		return quotient * interval;
+	}
+
+	private void add(long bucket, long n) {
+		long[] bucketCount = histogram.get(bucket);
+		if (bucketCount == null) {
+			histogram.put(bucket, new long[] {n});
+		} else {
+			bucketCount[0] += n;
+		}
+	}
+
+	private void flush() {
+		if (denseBuckets != null) {
+			for (int i = 0; i < denseBuckets.length; i++) {
+				if (denseBuckets[i] > 0) {
+					add(firstBucket + (long) i * interval, denseBuckets[i]);
+				}
+			}
+			denseBuckets = null;
+		}
+	}
+
+	/**
+	 * number of collected documents with a value
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * Integer.MAX_VALUE if no document had a value
+	 */
+	public int getMin() {
+		return min;
+	}
+
+	/**
+	 * Integer.MIN_VALUE if no document had a value
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	public double getAverage() {
+		return count == 0 ? Double.NaN : (double) sum / count;
+	}
+
+	/**
+	 * documents per non-empty bucket, by the bucket's first value
+	 */
+	public SortedMap<Long, Long> getHistogram() {
+		flush();
+		SortedMap<Long, Long> result = new TreeMap<Long, Long>();
+		for (Map.Entry<Long, long[]> entry : histogram.entrySet()) {
+			result.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return result;
+	}
+
+	/**
+	 * documents per range, in the order the ranges were added
+	 */
+	public Map<String, Integer> getRanges() {
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < rangeNames.size(); i++) {
+			result.put(rangeNames.get(i), rangeCounts[i]);
+		}
+		return result;
+	}
+}
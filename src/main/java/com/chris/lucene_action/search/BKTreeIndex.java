@@ -0,0 +1,175 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * A BK-tree over the term dictionary of chosen fields, so the terms within
+ * an edit distance of a query term are found without computing the distance
+ * to every term of the field.
+ *
+ * Each node's children are keyed by their Levenshtein distance to the node;
+ * by the triangle inequality a search with radius r only descends into
+ * children whose key lies within r of the query's distance to the node.
+ *
+ * A segment's tree holds the terms of its dictionary in a fixed pseudo
+ * random order, so a segment always builds the same tree.
+ */
+public class BKTreeIndex extends SegmentCache<BKTreeIndex.SegmentTree> {
+	private final Set<String> fields;
+
+	public BKTreeIndex(String... fields) {
+		this.fields = new HashSet<String>(Arrays.asList(fields));
+	}
+
+	public boolean isIndexed(String field) {
+		return fields.contains(field);
+	}
+
+	/**
+	 * The terms of the field in any segment of the reader that are at most
+	 * maxDistance edits away from text, sorted and without duplicates.
+	 */
+	public String[] candidates(IndexReader reader, String field, String text, int maxDistance) throws IOException {
+		List<IndexReader> subReaders = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subReaders, reader);
+		TreeSet<String> terms = new TreeSet<String>();
+		for (IndexReader segment : subReaders) {
+			get(segment, field).collect(text, maxDistance, terms);
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	protected SegmentTree build(IndexReader segment, String field) throws IOException {
+		List<String> terms = new ArrayList<String>();
+		field = field.intern();
+		TermEnum te = segment.terms(new Term(field, ""));
+		try {
+			for (Term term = te.term(); term != null && term.field() == field; term = te.next() ? te.term() : null) {
+				terms.add(term.text());
+			}
+		} finally {
+			te.close();
+		}
+		// inserted in dictionary order neighbouring terms would form long chains
+		Collections.shuffle(terms, new Random(field.hashCode()));
+		return new SegmentTree(terms.toArray(new String[terms.size()]));
+	}
+
+	protected long ramBytesUsed(SegmentTree tree) {
+		return tree.ramBytesUsed();
+	}
+
+	protected Collection<String> warmFields() {
+		return fields;
+	}
+
+	/**
+	 * Levenshtein distance of two strings
+	 */
+	static int distance(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			char c = a.charAt(i - 1);
+			current[0] = i;
+			for (int j = 1; j <= b.length(); j++) {
+				int substitute = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+				current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+
+	/**
+	 * The tree as arrays: node i holds terms[i], its children are linked
+	 * through firstChild/nextSibling and keyed by edge.
+	 */
+	static class SegmentTree {
+		final String[] terms;
+		final int[] firstChild;
+		final int[] nextSibling;
+		final int[] edge;
+
+		SegmentTree(String[] terms) {
+			this.terms = terms;
+			firstChild = new int[terms.length];
+			nextSibling = new int[terms.length];
+			edge = new int[terms.length];
+			Arrays.fill(firstChild, -1);
+			Arrays.fill(nextSibling, -1);
+			for (int i = 1; i < terms.length; i++) {
+				insert(i);
+			}
+		}
+
+		private void insert(int term) {
+			int node = 0;
+			while (true) {
+				int d = distance(terms[term], terms[node]);
+				int child = firstChild[node];
+				while (child != -1 && edge[child] != d) {
+					child = nextSibling[child];
+				}
+				if (child == -1) {
+					edge[term] = d;
+					nextSibling[term] = firstChild[node];
+					firstChild[node] = term;
+					return;
+				}
+				node = child;
+			}
+		}
+
+		void collect(String text, int radius, Set<String> into) {
+			if (terms.length == 0) {
+				return;
+			}
+			int[] stack = new int[16];
+			int size = 0;
+			stack[size++] = 0;
+			while (size > 0) {
+				int node = stack[--size];
+				int d = distance(text, terms[node]);
+				if (d <= radius) {
+					into.add(terms[node]);
+				}
+				for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+					if (Math.abs(edge[child] - d) <= radius) {
+						if (size == stack.length) {
+							stack = Arrays.copyOf(stack, size * 2);
+						}
+						stack[size++] = child;
+					}
+				}
+			}
+		}
+
+		long ramBytesUsed() {
+			long bytes = 16 + 8L * terms.length + 3 * (16 + 4L * terms.length);
+			for (String term : terms) {
+				bytes += 40 + 2L * term.length();
+			}
+			return bytes;
+		}
+	}
+}
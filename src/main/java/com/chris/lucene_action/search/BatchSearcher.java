@@ -0,0 +1,359 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Runs many queries against one searcher at once, e.g. a count per subject or
+ * per pubmonth for a report.
+ *
+ * Equal queries in a batch are run once. Counts of TermQuerys are read from
+ * one term enumeration per segment that visits the batch's terms in index
+ * order, so neighbouring terms share a dictionary seek; counts of int
+ * NumericRangeQuerys on a single valued field are all answered from a single
+ * pass over the field's full precision terms in each segment. Ranges on a
+ * field where a document has several values, and other queries, are counted
+ * by {@link HitCounter}.
+ * Top hits are collected segment by segment for all queries of the batch,
+ * so each segment's postings are read while they are hot, and are the same
+ * as those of IndexSearcher.search(query, n).
+ */
+public class BatchSearcher {
+	// terms skipped with next() before the enumeration seeks instead
+	private static final int MAX_SCAN = 32;
+
+	private final IndexSearcher searcher;
+	private final IndexReader[] segments;
+	private final int[] docStarts;
+
+	public BatchSearcher(IndexSearcher searcher) {
+		this.searcher = searcher;
+		List<IndexReader> list = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(list, searcher.getIndexReader());
+		segments = list.toArray(new IndexReader[list.size()]);
+		docStarts = new int[segments.length];
+		for (int i = 1; i < segments.length; i++) {
+			docStarts[i] = docStarts[i - 1] + segments[i - 1].maxDoc();
+		}
+	}
+
+	/**
+	 * the number of hits of each query, in the order of the queries
+	 */
+	public int[] count(List<? extends Query> queries) throws IOException {
+		List<Query> distinct = new ArrayList<Query>();
+		int[] slots = dedup(queries, distinct);
+
+		int[] counts = new int[distinct.size()];
+		List<Integer> terms = new ArrayList<Integer>();
+		Map<String, List<Integer>> ranges = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < distinct.size(); i++) {
+			Query query = distinct.get(i);
+			if (query instanceof TermQuery) {
+				terms.add(i);
+			} else if (isIntRange(query)) {
+				String field = ((NumericRangeQuery<?>) query).getField();
+				if (!ranges.containsKey(field)) {
+					ranges.put(field, new ArrayList<Integer>());
+				}
+				ranges.get(field).add(i);
+			} else {
+				counts[i] = HitCounter.count(searcher, query);
+			}
+		}
+		countTerms(distinct, terms, counts);
+		for (Map.Entry<String, List<Integer>> field : ranges.entrySet()) {
+			countRanges(field.getKey(), distinct, field.getValue(), counts);
+		}
+
+		int[] result = new int[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			result[i] = counts[slots[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * the top n hits by relevance of each query, in the order of the queries;
+	 * equal queries share one TopDocs
+	 */
+	public TopDocs[] search(List<? extends Query> queries, int n) throws IOException {
+		List<Query> distinct = new ArrayList<Query>();
+		int[] slots = dedup(queries, distinct);
+
+		// like IndexSearcher, never size a priority queue past the index
+		int size = Math.min(n, Math.max(1, searcher.getIndexReader().maxDoc()));
+		Weight[] weights = new Weight[distinct.size()];
+		TopScoreDocCollector[] collectors = new TopScoreDocCollector[distinct.size()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = distinct.get(i).weight(searcher);
+			collectors[i] = TopScoreDocCollector.create(size, !weights[i].scoresDocsOutOfOrder());
+		}
+		for (int s = 0; s < segments.length; s++) {
+			for (int i = 0; i < weights.length; i++) {
+				collectors[i].setNextReader(segments[s], docStarts[s]);
+				Scorer scorer = weights[i].scorer(segments[s], !collectors[i].acceptsDocsOutOfOrder(), true);
+				if (scorer != null) {
+					scorer.score(collectors[i]);
+				}
+			}
+		}
+
+		TopDocs[] docs = new TopDocs[collectors.length];
+		for (int i = 0; i < docs.length; i++) {
+			docs[i] = collectors[i].topDocs();
+		}
+		TopDocs[] result = new TopDocs[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			result[i] = docs[slots[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * fills distinct with the distinct queries and returns each query's index in it
+	 */
+	private static int[] dedup(List<? extends Query> queries, List<Query> distinct) {
+		Map<Query, Integer> seen = new LinkedHashMap<Query, Integer>();
+		int[] slots = new int[queries.size()];
+		for (int i = 0; i < slots.length; i++) {
+			Query query = queries.get(i);
+			Integer slot = seen.get(query);
+			if (slot == null) {
+				slot = distinct.size();
+				seen.put(query, slot);
+				distinct.add(query);
+			}
+			slots[i] = slot;
+		}
+		return slots;
+	}
+
+	private void countTerms(List<Query> queries, List<Integer> indexes, int[] counts) throws IOException {
+		if (indexes.isEmpty()) {
+			return;
+		}
+		Map<Term, List<Integer>> byTerm = new LinkedHashMap<Term, List<Integer>>();
+		for (int index : indexes) {
+			Term term = ((TermQuery) queries.get(index)).getTerm();
+			if (!byTerm.containsKey(term)) {
+				byTerm.put(term, new ArrayList<Integer>());
+			}
+			byTerm.get(term).add(index); // equal terms with different boosts
+		}
+		Term[] terms = byTerm.keySet().toArray(new Term[byTerm.size()]);
+		Arrays.sort(terms);
+		int[] termCounts = new int[terms.length];
+		for (IndexReader segment : segments) {
+			countTerms(segment, terms, termCounts);
+		}
+		for (int i = 0; i < terms.length; i++) {
+			for (int index : byTerm.get(terms[i])) {
+				counts[index] = termCounts[i];
+			}
+		}
+	}
+
+	private static void countTerms(IndexReader segment, Term[] sorted, int[] counts) throws IOException {
+		boolean deletions = segment.hasDeletions();
+		TermEnum terms = segment.terms(sorted[0]);
+		TermDocs docs = deletions ? segment.termDocs() : null;
+		int[] buffer = deletions ? new int[128] : null;
+		int[] freqs = deletions ? new int[128] : null;
+		try {
+			for (int i = 0; i < sorted.length; i++) {
+				Term term = sorted[i];
+				for (int scanned = 0; terms.term() != null && terms.term().compareTo(term) < 0; scanned++) {
+					if (scanned == MAX_SCAN) {
+						terms.close();
+						terms = segment.terms(term);
+						break;
+					}
+					terms.next();
+				}
+				if (terms.term() == null || !terms.term().equals(term)) {
+					continue;
+				}
+				if (!deletions) {
+					counts[i] += terms.docFreq();
+				} else {
+					// seeking on the enumeration skips the term dictionary lookup
+					docs.seek(terms);
+					for (int read = docs.read(buffer, freqs); read > 0; read = docs.read(buffer, freqs)) {
+						counts[i] += read;
+					}
+				}
+			}
+		} finally {
+			terms.close();
+			if (docs != null) {
+				docs.close();
+			}
+		}
+	}
+
+	private static boolean isIntRange(Query query) {
+		if (!(query instanceof NumericRangeQuery)) {
+			return false;
+		}
+		NumericRangeQuery<?> range = (NumericRangeQuery<?>) query;
+		return range.getMin() instanceof Integer || range.getMax() instanceof Integer;
+	}
+
+	private static long lower(NumericRangeQuery<?> range) {
+		return range.getMin() == null ? Integer.MIN_VALUE
+				: range.getMin().longValue() + (range.includesMin() ? 0 : 1);
+	}
+
+	private static long upper(NumericRangeQuery<?> range) {
+		return range.getMax() == null ? Integer.MAX_VALUE
+				: range.getMax().longValue() - (range.includesMax() ? 0 : 1);
+	}
+
+	/**
+	 * Reads the field's full precision terms, one per distinct value, once per
+	 * segment into a table of values and their document counts, and answers
+	 * every range by summing a slice of that table. A document with several
+	 * values in a range would be summed once per value, so if any document of
+	 * the field has more than one value the ranges are counted by searching.
+	 */
+	private void countRanges(String field, List<Query> queries, List<Integer> indexes, int[] counts)
+			throws IOException {
+		ValueCounts values = new ValueCounts();
+		for (IndexReader segment : segments) {
+			if (!values.add(segment, field)) {
+				for (int index : indexes) {
+					counts[index] = HitCounter.count(searcher, queries.get(index));
+				}
+				return;
+			}
+		}
+		values.sort();
+		long[] below = new long[values.size + 1];
+		for (int i = 0; i < values.size; i++) {
+			below[i + 1] = below[i] + values.counts[i];
+		}
+		for (int index : indexes) {
+			NumericRangeQuery<?> range = (NumericRangeQuery<?>) queries.get(index);
+			long lower = lower(range);
+			long upper = upper(range);
+			if (lower > upper) {
+				counts[index] = 0;
+				continue;
+			}
+			counts[index] = (int) (below[values.firstAtLeast(upper + 1)] - below[values.firstAtLeast(lower)]);
+		}
+	}
+
+	/**
+	 * distinct values of an int field and the number of live documents with each
+	 */
+	private static class ValueCounts {
+		int[] values = new int[64];
+		int[] counts = new int[64];
+		int size;
+
+		/**
+		 * adds the values of a segment; false if a document of the segment
+		 * has more than one value
+		 */
+		boolean add(IndexReader segment, String field) throws IOException {
+			field = field.intern();
+			TermEnum terms = segment.terms(new Term(field, NumericUtils.intToPrefixCoded(Integer.MIN_VALUE)));
+			TermDocs docs = segment.termDocs();
+			OpenBitSet withValue = new OpenBitSet(segment.maxDoc());
+			long total = 0;
+			int[] buffer = new int[128];
+			int[] freqs = new int[128];
+			try {
+				// full precision terms start with the shift 0 marker and sort by value
+				for (Term term = terms.term(); term != null && term.field() == field
+						&& term.text().charAt(0) == NumericUtils.SHIFT_START_INT; term = terms.next() ? terms.term() : null) {
+					int count = 0;
+					docs.seek(terms);
+					for (int read = docs.read(buffer, freqs); read > 0; read = docs.read(buffer, freqs)) {
+						for (int i = 0; i < read; i++) {
+							withValue.fastSet(buffer[i]);
+						}
+						count += read;
+					}
+					total += count;
+					add(NumericUtils.prefixCodedToInt(term.text()), count);
+				}
+			} finally {
+				terms.close();
+				docs.close();
+			}
+			return total == withValue.cardinality();
+		}
+
+		private void add(int value, int count) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+				counts = Arrays.copyOf(counts, 2 * size);
+			}
+			values[size] = value;
+			counts[size++] = count;
+		}
+
+		/**
+		 * sorts the values of all segments and merges equal ones
+		 */
+		void sort() {
+			long[] pairs = new long[size];
+			for (int i = 0; i < size; i++) {
+				pairs[i] = ((long) values[i] << 32) | (counts[i] & 0xffffffffL);
+			}
+			Arrays.sort(pairs);
+			int merged = 0;
+			for (int i = 0; i < size; i++) {
+				int value = (int) (pairs[i] >> 32);
+				int count = (int) pairs[i];
+				if (merged > 0 && values[merged - 1] == value) {
+					counts[merged - 1] += count;
+				} else {
+					values[merged] = value;
+					counts[merged++] = count;
+				}
+			}
+			size = merged;
+		}
+
+		/**
+		 * index of the first value >= bound
+		 */
+		int firstAtLeast(long bound) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (values[mid] < bound) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+
+/**
+ * An IndexSearcher that scores one query on several threads: the segments
+ * are split into up to maxThreadsPerQuery slices of about the same number of
+ * documents, each slice collects its own top hits on the executor (the
+ * calling thread takes the first slice), and the slices' hits are merged.
+ *
+ * Only top hits by relevance are parallel; searches with a Sort or a custom
+ * Collector run on the calling thread as usual. Results are the same as
+ * IndexSearcher's, ties included, since both order hits by score and then
+ * doc id. A lower maxThreadsPerQuery leaves more cores for concurrent
+ * queries, a higher one lowers the latency of a single query.
+ */
+public class ConcurrentIndexSearcher extends IndexSearcher {
+	private final ExecutorService executor;
+	private final IndexSearcher[] segmentSearchers;
+	private volatile int maxThreadsPerQuery;
+	private volatile int[][] slices;
+
+	/**
+	 * @param executor runs the slices, shared between searchers and not shut down by close()
+	 */
+	public ConcurrentIndexSearcher(IndexReader reader, ExecutorService executor, int maxThreadsPerQuery) {
+		super(reader);
+		this.executor = executor;
+		segmentSearchers = new IndexSearcher[subReaders.length];
+		for (int i = 0; i < subReaders.length; i++) {
+			segmentSearchers[i] = new IndexSearcher(subReaders[i]);
+		}
+		setMaxThreadsPerQuery(maxThreadsPerQuery);
+	}
+
+	public int getMaxThreadsPerQuery() {
+		return maxThreadsPerQuery;
+	}
+
+	/**
+	 * how many threads, the caller's included, one query may use; 1 searches sequentially
+	 */
+	public void setMaxThreadsPerQuery(int maxThreadsPerQuery) {
+		if (maxThreadsPerQuery < 1) {
+			throw new IllegalArgumentException("maxThreadsPerQuery must be >= 1: " + maxThreadsPerQuery);
+		}
+		this.slices = slice(maxThreadsPerQuery);
+		this.maxThreadsPerQuery = maxThreadsPerQuery;
+	}
+
+	/**
+	 * the segments each thread of a query scores, as indexes into the sub readers
+	 */
+	public int[][] getSlices() {
+		return slices;
+	}
+
+	// largest segment first into the slice with the fewest documents so far
+	private int[][] slice(int threads) {
+		Integer[] bySize = new Integer[subReaders.length];
+		for (int i = 0; i < bySize.length; i++) {
+			bySize[i] = i;
+		}
+		Arrays.sort(bySize, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return subReaders[b].maxDoc() - subReaders[a].maxDoc();
+			}
+		});
+		int count = Math.max(1, Math.min(threads, subReaders.length));
+		List<List<Integer>> slices = new ArrayList<List<Integer>>();
+		long[] docs = new long[count];
+		for (int i = 0; i < count; i++) {
+			slices.add(new ArrayList<Integer>());
+		}
+		for (int segment : bySize) {
+			int smallest = 0;
+			for (int i = 1; i < count; i++) {
+				if (docs[i] < docs[smallest]) {
+					smallest = i;
+				}
+			}
+			slices.get(smallest).add(segment);
+			docs[smallest] += subReaders[segment].maxDoc();
+		}
+		int[][] result = new int[count][];
+		for (int i = 0; i < count; i++) {
+			List<Integer> slice = slices.get(i);
+			Collections.sort(slice);
+			result[i] = new int[slice.size()];
+			for (int j = 0; j < result[i].length; j++) {
+				result[i][j] = slice.get(j);
+			}
+		}
+		return result;
+	}
+
+	public TopDocs search(final Weight weight, final Filter filter, final int nDocs) throws IOException {
+		final int[][] slices = this.slices;
+		if (slices.length < 2 || nDocs < 1) {
+			return super.search(weight, filter, nDocs);
+		}
+		List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(slices.length - 1);
+		for (int i = 1; i < slices.length; i++) {
+			final int[] slice = slices[i];
+			futures.add(executor.submit(new Callable<TopDocs>() {
+				public TopDocs call() throws IOException {
+					return searchSlice(slice, weight, filter, nDocs);
+				}
+			}));
+		}
+		TopDocs[] results = new TopDocs[slices.length];
+		try {
+			results[0] = searchSlice(slices[0], weight, filter, nDocs);
+			for (int i = 1; i < slices.length; i++) {
+				results[i] = futures.get(i - 1).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while searching");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			IOException ioe = new IOException("search failed");
+			ioe.initCause(cause);
+			throw ioe;
+		} finally {
+			for (Future<TopDocs> future : futures) {
+				future.cancel(false);
+			}
+		}
+		return merge(results, nDocs);
+	}
+
+	private TopDocs searchSlice(int[] slice, Weight weight, Filter filter, int nDocs) throws IOException {
+		TopScoreDocCollector collector = TopScoreDocCollector.create(nDocs, !weight.scoresDocsOutOfOrder());
+		for (int segment : slice) {
+			segmentSearchers[segment].search(weight, filter, new RebasingCollector(collector, docStarts[segment]));
+		}
+		return collector.topDocs();
+	}
+
+	// by score, then by doc id like HitQueue
+	private static final Comparator<ScoreDoc> BY_SCORE = new Comparator<ScoreDoc>() {
+		public int compare(ScoreDoc a, ScoreDoc b) {
+			if (a.score != b.score) {
+				return a.score > b.score ? -1 : 1;
+			}
+			return a.doc < b.doc ? -1 : a.doc == b.doc ? 0 : 1;
+		}
+	};
+
+	static TopDocs merge(TopDocs[] results, int nDocs) {
+		int totalHits = 0;
+		float maxScore = Float.NaN;
+		List<ScoreDoc> hits = new ArrayList<ScoreDoc>();
+		for (TopDocs result : results) {
+			totalHits += result.totalHits;
+			if (result.scoreDocs.length > 0 && !(result.getMaxScore() <= maxScore)) {
+				maxScore = result.getMaxScore();
+			}
+			hits.addAll(Arrays.asList(result.scoreDocs));
+		}
+		Collections.sort(hits, BY_SCORE);
+		List<ScoreDoc> top = hits.subList(0, Math.min(nDocs, hits.size()));
+		return new TopDocs(totalHits, top.toArray(new ScoreDoc[top.size()]), maxScore);
+	}
+
+	/**
+	 * Feeds a segment searched on its own to a collector of the whole index.
+	 */
+	private static class RebasingCollector extends Collector {
+		private final Collector collector;
+		private final int docStart;
+
+		RebasingCollector(Collector collector, int docStart) {
+			this.collector = collector;
+			this.docStart = docStart;
+		}
+
+		public void setScorer(Scorer scorer) throws IOException {
+			collector.setScorer(scorer);
+		}
+
+		public void collect(int doc) throws IOException {
+			collector.collect(doc);
+		}
+
+		public void setNextReader(IndexReader reader, int docBase) throws IOException {
+			collector.setNextReader(reader, docStart + docBase);
+		}
+
+		public boolean acceptsDocsOutOfOrder() {
+			return collector.acceptsDocsOutOfOrder();
+		}
+	}
+}
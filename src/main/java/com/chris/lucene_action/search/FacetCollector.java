@@ -0,0 +1,195 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import com.chris.lucene_action.search.FacetIndex.SegmentFacets;
+
+/**
+ * Counts the values of the {@link FacetIndex} fields over the documents of a
+ * search, in the same pass that feeds them to another collector, e.g. a
+ * TopScoreDocCollector for the hits shown with the counts:
+ *
+ * <pre>
+ * FacetCollector facets = new FacetCollector(index, topDocs);
+ * searcher.search(query, facets);
+ * facets.getChildren("category", "/technology");
+ * </pre>
+ *
+ * Collecting a document only increments a counter per ordinal. When a
+ * segment is done its counts are rolled up the category tree and merged by
+ * value, so a node counts every document at or below it, as a PrefixQuery
+ * on the whole path would. A document with several paths below one node
+ * counts once per path.
+ */
+public class FacetCollector extends Collector {
+	private final FacetIndex index;
+	private final Collector collector;
+	private final String[] fields;
+	private final SegmentFacets[] segmentFacets;
+	private final int[][] segmentCounts;
+	private final List<Map<String, int[]>> counts = new ArrayList<Map<String, int[]>>();
+	private int hits;
+
+	public FacetCollector(FacetIndex index) {
+		this(index, null);
+	}
+
+	/**
+	 * @param collector also receives every document, null to only count
+	 */
+	public FacetCollector(FacetIndex index, Collector collector) {
+		this.index = index;
+		this.collector = collector;
+		List<String> fields = index.getFields();
+		this.fields = fields.toArray(new String[fields.size()]);
+		segmentFacets = new SegmentFacets[this.fields.length];
+		segmentCounts = new int[this.fields.length][];
+		for (int f = 0; f < this.fields.length; f++) {
+			counts.add(new HashMap<String, int[]>());
+		}
+	}
+
+	public void setScorer(Scorer scorer) throws IOException {
+		if (collector != null) {
+			collector.setScorer(scorer);
+		}
+	}
+
+	public void collect(int doc) throws IOException {
+		for (int f = 0; f < fields.length; f++) {
+			SegmentFacets facets = segmentFacets[f];
+			int[] ordCounts = segmentCounts[f];
+			for (int i = facets.offsets.get(doc), end = facets.offsets.get(doc + 1); i < end; i++) {
+				ordCounts[facets.ords.get(i)]++;
+			}
+		}
+		hits++;
+		if (collector != null) {
+			collector.collect(doc);
+		}
+	}
+
+	public void setNextReader(IndexReader reader, int docBase) throws IOException {
+		flush();
+		for (int f = 0; f < fields.length; f++) {
+			segmentFacets[f] = index.getFacets(reader, fields[f]);
+			segmentCounts[f] = new int[segmentFacets[f].valueCount()];
+		}
+		if (collector != null) {
+			collector.setNextReader(reader, docBase);
+		}
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return collector == null || collector.acceptsDocsOutOfOrder();
+	}
+
+	// rolls the ordinal counts of the last segment up to its nodes and merges them by label
+	private void flush() {
+		for (int f = 0; f < fields.length; f++) {
+			SegmentFacets facets = segmentFacets[f];
+			int[] ordCounts = segmentCounts[f];
+			if (facets == null) {
+				continue;
+			}
+			int[] nodeCounts = new int[facets.labels.length];
+			for (int ord = 0; ord < ordCounts.length; ord++) {
+				nodeCounts[facets.valueNodes[ord]] += ordCounts[ord];
+			}
+			// children have higher node numbers than their parents
+			for (int node = nodeCounts.length - 1; node >= 0; node--) {
+				if (facets.parents[node] >= 0) {
+					nodeCounts[facets.parents[node]] += nodeCounts[node];
+				}
+			}
+			Map<String, int[]> fieldCounts = counts.get(f);
+			for (int node = 0; node < nodeCounts.length; node++) {
+				if (nodeCounts[node] > 0) {
+					int[] count = fieldCounts.get(facets.labels[node]);
+					if (count == null) {
+						fieldCounts.put(facets.labels[node], new int[] {nodeCounts[node]});
+					} else {
+						count[0] += nodeCounts[node];
+					}
+				}
+			}
+			segmentFacets[f] = null;
+			segmentCounts[f] = null;
+		}
+	}
+
+	/**
+	 * number of documents collected
+	 */
+	public int getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Documents with the value, or for a hierarchical field with the path or
+	 * a path below it.
+	 */
+	public int getCount(String field, String value) {
+		int[] count = fieldCounts(field).get(value);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * The paths one level below the given one with their counts, most
+	 * frequent first; "" for the top level. For a flat field the children of
+	 * "" are all its values.
+	 */
+	public Map<String, Integer> getChildren(String field, String path) {
+		boolean hierarchical = index.isHierarchical(field);
+		List<Map.Entry<String, int[]>> children = new ArrayList<Map.Entry<String, int[]>>();
+		for (Map.Entry<String, int[]> entry : fieldCounts(field).entrySet()) {
+			String parent = hierarchical ? FacetIndex.parent(entry.getKey()) : "";
+			if (parent.equals(path)) {
+				children.add(entry);
+			}
+		}
+		return sorted(children, children.size());
+	}
+
+	/**
+	 * the n most frequent values, including inner paths of a hierarchical field
+	 */
+	public Map<String, Integer> getTop(String field, int n) {
+		return sorted(new ArrayList<Map.Entry<String, int[]>>(fieldCounts(field).entrySet()), n);
+	}
+
+	private Map<String, int[]> fieldCounts(String field) {
+		flush();
+		for (int f = 0; f < fields.length; f++) {
+			if (fields[f].equals(field)) {
+				return counts.get(f);
+			}
+		}
+		throw new IllegalArgumentException("not a facet field: " + field);
+	}
+
+	private static Map<String, Integer> sorted(List<Map.Entry<String, int[]>> entries, int n) {
+		Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>() {
+			public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+				int byCount = b.getValue()[0] - a.getValue()[0];
+				return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+			}
+		});
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, int[]> entry : entries.subList(0, Math.min(n, entries.size()))) {
+			result.put(entry.getKey(), entry.getValue()[0]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,231 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+
+/**
+ * Per-segment ordinals of the values of untokenized fields, for counting
+ * facets with a {@link FacetCollector}.
+ *
+ * Every distinct term of a field in a segment gets an ordinal, its position
+ * in the term dictionary, and every document the list of ordinals of its
+ * values, so a field may hold several values per document like author. A
+ * hierarchical field holds slash separated paths like category; besides the
+ * values themselves its ordinals know every ancestor path, e.g.
+ * /technology/computers/programming counts towards /technology/computers and
+ * /technology as well.
+ *
+ * Building a segment's ordinals walks the postings of every term of the
+ * field. With a {@link SegmentCacheStore} they are written to disk once and
+ * mapped back, e.g. after a restart, instead of being built again.
+ */
+public class FacetIndex extends SegmentCache<FacetIndex.SegmentFacets> {
+	public static final char SEPARATOR = '/';
+
+	private final Map<String, Boolean> fields = new LinkedHashMap<String, Boolean>();
+	private volatile SegmentCacheStore store;
+
+	/**
+	 * category paths and authors of the book index
+	 */
+	public static FacetIndex forBooks() {
+		return new FacetIndex().hierarchical("category").flat("author");
+	}
+
+	/**
+	 * adds a field of slash separated paths
+	 */
+	public FacetIndex hierarchical(String field) {
+		fields.put(field, true);
+		return this;
+	}
+
+	/**
+	 * adds a field of plain values
+	 */
+	public FacetIndex flat(String field) {
+		fields.put(field, false);
+		return this;
+	}
+
+	/**
+	 * persists ordinals to the store and maps them from there when they are first used
+	 */
+	public FacetIndex setStore(SegmentCacheStore store) {
+		this.store = store;
+		return this;
+	}
+
+	public List<String> getFields() {
+		return new ArrayList<String>(fields.keySet());
+	}
+
+	public boolean isHierarchical(String field) {
+		Boolean hierarchical = fields.get(field);
+		if (hierarchical == null) {
+			throw new IllegalArgumentException("not a facet field: " + field);
+		}
+		return hierarchical;
+	}
+
+	/**
+	 * The path one level up, "" for a top level path like /technology.
+	 */
+	public static String parent(String path) {
+		return path.substring(0, Math.max(0, path.lastIndexOf(SEPARATOR)));
+	}
+
+	SegmentFacets getFacets(IndexReader segment, String field) throws IOException {
+		return get(segment, field);
+	}
+
+	protected SegmentFacets build(IndexReader segment, String field) throws IOException {
+		SegmentCacheStore store = this.store;
+		SegmentFacets facets = store == null ? null : store.readFacets(segment, field);
+		if (facets == null) {
+			facets = buildOrdinals(segment, field, isHierarchical(field));
+			if (store != null) {
+				store.writeFacets(segment, field, facets);
+			}
+		}
+		return facets;
+	}
+
+	private static SegmentFacets buildOrdinals(IndexReader segment, String field, boolean hierarchical)
+			throws IOException {
+		int maxDoc = segment.maxDoc();
+		List<String> values = new ArrayList<String>();
+		// (doc, ordinal) pairs in term order, then grouped by document
+		int[] pairDocs = new int[16];
+		int[] pairOrds = new int[16];
+		int pairs = 0;
+		int[] offsets = new int[maxDoc + 1];
+		field = field.intern();
+		TermEnum te = segment.terms(new Term(field, ""));
+		TermDocs td = segment.termDocs();
+		try {
+			int[] docs = new int[128];
+			int[] freqs = new int[128];
+			for (Term term = te.term(); term != null && term.field() == field; term = te.next() ? te.term() : null) {
+				int ord = values.size();
+				values.add(term.text());
+				td.seek(te);
+				for (int read = td.read(docs, freqs); read > 0; read = td.read(docs, freqs)) {
+					if (pairs + read > pairDocs.length) {
+						pairDocs = Arrays.copyOf(pairDocs, 2 * (pairs + read));
+						pairOrds = Arrays.copyOf(pairOrds, pairDocs.length);
+					}
+					for (int i = 0; i < read; i++) {
+						pairDocs[pairs] = docs[i];
+						pairOrds[pairs++] = ord;
+						offsets[docs[i] + 1]++;
+					}
+				}
+			}
+		} finally {
+			td.close();
+			te.close();
+		}
+		for (int doc = 0; doc < maxDoc; doc++) {
+			offsets[doc + 1] += offsets[doc];
+		}
+		int[] ords = new int[pairs];
+		int[] next = Arrays.copyOf(offsets, maxDoc);
+		for (int i = 0; i < pairs; i++) {
+			ords[next[pairDocs[i]]++] = pairOrds[i];
+		}
+
+		// nodes: the values and, for paths, all their ancestors; a parent comes before its children
+		List<String> labels = new ArrayList<String>();
+		List<Integer> parents = new ArrayList<Integer>();
+		Map<String, Integer> nodes = new HashMap<String, Integer>();
+		int[] valueNodes = new int[values.size()];
+		for (int ord = 0; ord < valueNodes.length; ord++) {
+			valueNodes[ord] = node(values.get(ord), hierarchical, labels, parents, nodes);
+		}
+		int[] nodeParents = new int[parents.size()];
+		for (int i = 0; i < nodeParents.length; i++) {
+			nodeParents[i] = parents.get(i);
+		}
+		return new SegmentFacets(IntBuffer.wrap(offsets), IntBuffer.wrap(ords), valueNodes, labels.toArray(new String[labels.size()]), nodeParents);
+	}
+
+	private static int node(String label, boolean hierarchical, List<String> labels, List<Integer> parents,
+			Map<String, Integer> nodes) {
+		Integer node = nodes.get(label);
+		if (node == null) {
+			String parent = parent(label);
+			int parentNode = hierarchical && parent.length() > 0
+					? node(parent, true, labels, parents, nodes) : -1;
+			node = labels.size();
+			labels.add(label);
+			parents.add(parentNode);
+			nodes.put(label, node);
+		}
+		return node;
+	}
+
+	protected long ramBytesUsed(SegmentFacets facets) {
+		return facets.ramBytesUsed();
+	}
+
+	protected Collection<String> warmFields() {
+		return fields.keySet();
+	}
+
+	// termDocs() skips deleted documents
+	protected boolean dependsOnDeletions() {
+		return true;
+	}
+
+	/**
+	 * The ordinals of one field in one segment. The per document offsets and
+	 * ordinals may be mapped from a {@link SegmentCacheStore} file, the
+	 * per value arrays are small and always on the heap.
+	 */
+	static class SegmentFacets {
+		/** the ordinals of doc are ords[offsets[doc]] .. ords[offsets[doc + 1] - 1] */
+		final IntBuffer offsets;
+		final IntBuffer ords;
+		/** the node of each ordinal */
+		final int[] valueNodes;
+		final String[] labels;
+		/** parent node of each node, -1 at the top */
+		final int[] parents;
+
+		SegmentFacets(IntBuffer offsets, IntBuffer ords, int[] valueNodes, String[] labels, int[] parents) {
+			this.offsets = offsets;
+			this.ords = ords;
+			this.valueNodes = valueNodes;
+			this.labels = labels;
+			this.parents = parents;
+		}
+
+		int valueCount() {
+			return valueNodes.length;
+		}
+
+		long ramBytesUsed() {
+			long bytes = 16 + 4L * (valueNodes.length + parents.length) + 8L * labels.length;
+			if (!offsets.isDirect()) {
+				bytes += 4L * (offsets.capacity() + ords.capacity());
+			}
+			for (String label : labels) {
+				bytes += 40 + 2L * label.length();
+			}
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FilteredTermEnum;
+import org.apache.lucene.search.FuzzyQuery;
+
+/**
+ * A FuzzyQuery that only visits the terms a {@link BKTreeIndex} finds within
+ * the largest edit distance the minimum similarity allows, instead of
+ * computing the similarity of every term after the prefix.
+ *
+ * Similarity and boosts are computed exactly as FuzzyTermEnum does, so the
+ * rewritten query and the scores are the same as FuzzyQuery's. Fields the
+ * BK-tree index does not cover fall back to the plain term scan.
+ */
+public class FastFuzzyQuery extends FuzzyQuery {
+	private final BKTreeIndex index;
+
+	public FastFuzzyQuery(Term term, float minimumSimilarity, int prefixLength, BKTreeIndex index) {
+		super(term, minimumSimilarity, prefixLength);
+		this.index = index;
+	}
+
+	public FastFuzzyQuery(Term term, BKTreeIndex index) {
+		this(term, defaultMinSimilarity, defaultPrefixLength, index);
+	}
+
+	protected FilteredTermEnum getEnum(IndexReader reader) throws IOException {
+		if (!index.isIndexed(term.field())) {
+			return super.getEnum(reader);
+		}
+		int prefixLength = Math.min(getPrefixLength(), term.text().length());
+		String prefix = term.text().substring(0, prefixLength);
+		String text = term.text().substring(prefixLength);
+		// FuzzyTermEnum accepts at most this many edits, for a candidate at least as long as the text
+		int maxDistance = (int) ((1 - getMinSimilarity()) * (text.length() + prefixLength));
+		String[] candidates = index.candidates(reader, term.field(), term.text(), maxDistance);
+		return new CandidateEnum(new TermListEnum(reader, term.field(), candidates), prefix, text, getMinSimilarity());
+	}
+
+	/**
+	 * FuzzyTermEnum's termCompare and difference over the candidates.
+	 */
+	private static class CandidateEnum extends FilteredTermEnum {
+		private final String prefix;
+		private final String text;
+		private final float minimumSimilarity;
+		private final float scaleFactor;
+		private float similarity;
+
+		CandidateEnum(TermListEnum candidates, String prefix, String text, float minimumSimilarity) throws IOException {
+			this.prefix = prefix;
+			this.text = text;
+			this.minimumSimilarity = minimumSimilarity;
+			this.scaleFactor = 1.0f / (1.0f - minimumSimilarity);
+			setEnum(candidates);
+		}
+
+		protected boolean termCompare(Term term) {
+			if (!term.text().startsWith(prefix)) {
+				return false;
+			}
+			similarity = similarity(term.text().substring(prefix.length()));
+			return similarity > minimumSimilarity;
+		}
+
+		private float similarity(String target) {
+			int m = target.length();
+			int n = text.length();
+			if (n == 0) {
+				return prefix.length() == 0 ? 0.0f : 1.0f - ((float) m / prefix.length());
+			}
+			if (m == 0) {
+				return prefix.length() == 0 ? 0.0f : 1.0f - ((float) n / prefix.length());
+			}
+			int distance = BKTreeIndex.distance(text, target);
+			return 1.0f - ((float) distance / (float) (prefix.length() + Math.min(n, m)));
+		}
+
+		public float difference() {
+			return (similarity - minimumSimilarity) * scaleFactor;
+		}
+
+		protected boolean endEnum() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredDocIdSet;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.PrefixFilter;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.OpenBitSetDISI;
+
+/**
+ * Caches frequently used restrictions, such as a category prefix or a
+ * pubmonth range, as one bitset per segment.
+ *
+ * IndexSearcher asks a filter for each segment separately, so the bitsets
+ * are keyed on the segment core: a reopen only builds bitsets for the new
+ * segments, and bitsets of merged-away segments are dropped together with
+ * the segment. A bitset may still contain documents deleted after it was
+ * built, so the DocIdSet handed to searches skips the reader's deleted
+ * documents whenever it has any; {@link CachedFilter#getBits} is the raw
+ * bitset. It lacks the documents already deleted when it was built, so a
+ * reader of the same core with fewer deletions, e.g. a searcher still in
+ * flight when a reopen added deletions, builds it again, as a
+ * {@link SegmentCache} that {@link SegmentCache#dependsOnDeletions} does.
+ *
+ * The cache keeps the most recently used maxFilters filters, identified by
+ * equals() of the wrapped filter. Given a {@link SegmentCacheStore} the
+ * bitsets are written to disk once and read back, e.g. after a restart,
+ * instead of running the filter again; there filters are identified by
+ * toString(), which must tell them apart.
+ */
+public class FilterCache {
+	private final int maxFilters;
+	private final LinkedHashMap<Filter, CachedFilter> filters;
+	private final SegmentCacheStore store;
+
+	public FilterCache(int maxFilters) {
+		this(maxFilters, null);
+	}
+
+	/**
+	 * @param store persists the bitsets, null to keep them in memory only
+	 */
+	public FilterCache(final int maxFilters, SegmentCacheStore store) {
+		this.maxFilters = maxFilters;
+		this.store = store;
+		this.filters = new LinkedHashMap<Filter, CachedFilter>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Filter, CachedFilter> eldest) {
+				return size() > FilterCache.this.maxFilters;
+			}
+		};
+	}
+
+	/**
+	 * books whose category starts with the given path, as in SearchTest.testPrefixQuery
+	 */
+	public CachedFilter categoryPrefix(String prefix) {
+		return get(new PrefixFilter(new Term("category", prefix)));
+	}
+
+	/**
+	 * books published in the inclusive range of months, formatted yyyyMM
+	 */
+	public CachedFilter pubmonthRange(int from, int to) {
+		return get(NumericRangeFilter.newIntRange("pubmonth", from, to, true, true));
+	}
+
+	/**
+	 * Returns the cached version of the filter, creating it on first use.
+	 */
+	public synchronized CachedFilter get(Filter filter) {
+		CachedFilter cached = filters.get(filter);
+		if (cached == null) {
+			cached = new CachedFilter(filter, store);
+			filters.put(filter, cached);
+		}
+		return cached;
+	}
+
+	public synchronized int size() {
+		return filters.size();
+	}
+
+	public synchronized void clear() {
+		filters.clear();
+	}
+
+	/**
+	 * heap used by the bitsets of all cached filters
+	 */
+	public long ramBytesUsed() {
+		long bytes = 0;
+		for (CachedFilter filter : filters()) {
+			bytes += filter.ramBytesUsed();
+		}
+		return bytes;
+	}
+
+	private synchronized List<CachedFilter> filters() {
+		return new ArrayList<CachedFilter>(filters.values());
+	}
+
+	public String toString() {
+		return String.format("%d filters, %d bytes", size(), ramBytesUsed());
+	}
+
+	/**
+	 * A filter whose per-segment result is computed once and kept as a bitset.
+	 */
+	public static class CachedFilter extends Filter {
+		private final Filter filter;
+		private final SegmentCacheStore store;
+		private final Map<Object, Built> segments =
+				Collections.synchronizedMap(new WeakHashMap<Object, Built>());
+
+		CachedFilter(Filter filter, SegmentCacheStore store) {
+			this.filter = filter;
+			this.store = store;
+		}
+
+		public Filter getFilter() {
+			return filter;
+		}
+
+		public DocIdSet getDocIdSet(final IndexReader reader) throws IOException {
+			OpenBitSet bits = getBits(reader);
+			if (!reader.hasDeletions()) {
+				return bits;
+			}
+			// e.g. ConstantScoreQuery returns whatever the filter accepts
+			return new FilteredDocIdSet(bits) {
+				protected boolean match(int doc) {
+					return !reader.isDeleted(doc);
+				}
+			};
+		}
+
+		/**
+		 * The bitset of a segment, built on first use. Bits may be set for
+		 * documents deleted after the bitset was built.
+		 */
+		public OpenBitSet getBits(IndexReader reader) throws IOException {
+			Object key = reader.getFieldCacheKey();
+			int deletions = reader.numDeletedDocs();
+			Built built = segments.get(key);
+			if (built == null || deletions < built.deletions) {
+				// two threads may build the same segment, the results are equal up to deletions
+				OpenBitSet bits = store == null ? null : store.readBits(reader, filter.toString());
+				if (bits == null) {
+					bits = build(reader);
+					if (store != null) {
+						store.writeBits(reader, filter.toString(), bits);
+					}
+				}
+				built = new Built(bits, deletions);
+				segments.put(key, built);
+			}
+			return built.bits;
+		}
+
+		private OpenBitSet build(IndexReader reader) throws IOException {
+			DocIdSet set = filter.getDocIdSet(reader);
+			if (set instanceof OpenBitSet) {
+				return (OpenBitSet) set;
+			}
+			DocIdSetIterator it = set == null ? null : set.iterator();
+			if (it == null) {
+				return new OpenBitSet(reader.maxDoc());
+			}
+			return new OpenBitSetDISI(it, reader.maxDoc());
+		}
+
+		/**
+		 * number of segments with a cached bitset
+		 */
+		public int getSegmentCount() {
+			return segments.size();
+		}
+
+		public long ramBytesUsed() {
+			long bytes = 0;
+			synchronized (segments) {
+				for (Built built : segments.values()) {
+					bytes += 8L * built.bits.getBits().length + 32;
+				}
+			}
+			return bytes;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof CachedFilter && filter.equals(((CachedFilter) o).filter);
+		}
+
+		public int hashCode() {
+			return filter.hashCode() ^ 0x5c4e3a;
+		}
+
+		public String toString() {
+			return "CachedFilter(" + filter + ")";
+		}
+	}
+
+	private static class Built {
+		final OpenBitSet bits;
+		/** deleted documents of the reader the bitset was built from */
+		final int deletions;
+
+		Built(OpenBitSet bits, int deletions) {
+			this.bits = bits;
+			this.deletions = deletions;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+import com.chris.lucene_action.search.FilterCache.CachedFilter;
+
+/**
+ * Counts the documents matching a query, the totalHits of a search, without
+ * computing scores or keeping a priority queue of top hits.
+ *
+ * Segment by segment the cheapest way to count is taken: a single term on a
+ * segment without deletions is its docFreq, all documents are numDocs, a
+ * {@link CachedFilter} on its own is the cardinality of its bitset, and
+ * everything else is iterated by the query's scorer, checking the bits of a
+ * cached filter or leapfrogging with any other filter.
+ */
+public class HitCounter {
+
+	public static int count(IndexSearcher searcher, Query query) throws IOException {
+		return count(searcher, query, null);
+	}
+
+	/**
+	 * @param filter null for all documents
+	 */
+	public static int count(IndexSearcher searcher, Query query, Filter filter) throws IOException {
+		Query rewritten = searcher.rewrite(query);
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(segments, searcher.getIndexReader());
+		Weight weight = null;
+		int count = 0;
+		for (IndexReader segment : segments) {
+			int shortcut = countWithoutScorer(segment, rewritten, filter);
+			if (shortcut >= 0) {
+				count += shortcut;
+				continue;
+			}
+			if (weight == null) {
+				weight = rewritten.weight(searcher);
+			}
+			count += filter == null ? count(segment, weight) : count(segment, weight, filter);
+		}
+		return count;
+	}
+
+	/**
+	 * the count from index statistics or a cached bitset, -1 if the query has to run
+	 */
+	private static int countWithoutScorer(IndexReader segment, Query query, Filter filter) throws IOException {
+		if (filter == null) {
+			if (query instanceof TermQuery && !segment.hasDeletions()) {
+				return segment.docFreq(((TermQuery) query).getTerm());
+			}
+			if (query instanceof MatchAllDocsQuery) {
+				return segment.numDocs();
+			}
+		} else if (filter instanceof CachedFilter && query instanceof MatchAllDocsQuery) {
+			OpenBitSet bits = ((CachedFilter) filter).getBits(segment);
+			if (!segment.hasDeletions()) {
+				return (int) bits.cardinality();
+			}
+			// the bitset may include documents deleted after it was built
+			int count = 0;
+			for (int doc = bits.nextSetBit(0); doc >= 0; doc = bits.nextSetBit(doc + 1)) {
+				if (!segment.isDeleted(doc)) {
+					count++;
+				}
+			}
+			return count;
+		}
+		return -1;
+	}
+
+	private static int count(IndexReader segment, Weight weight) throws IOException {
+		CountingCollector collector = new CountingCollector();
+		Scorer scorer = weight.scorer(segment, !collector.acceptsDocsOutOfOrder(), true);
+		if (scorer != null) {
+			collector.setNextReader(segment, 0);
+			scorer.score(collector);
+		}
+		return collector.getCount();
+	}
+
+	private static int count(IndexReader segment, Weight weight, Filter filter) throws IOException {
+		Scorer scorer = weight.scorer(segment, true, false);
+		if (scorer == null) {
+			return 0;
+		}
+		int count = 0;
+		if (filter instanceof CachedFilter) {
+			OpenBitSet bits = ((CachedFilter) filter).getBits(segment);
+			for (int doc = scorer.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = scorer.nextDoc()) {
+				if (bits.get(doc)) {
+					count++;
+				}
+			}
+			return count;
+		}
+		DocIdSet set = filter.getDocIdSet(segment);
+		DocIdSetIterator filterDocs = set == null ? null : set.iterator();
+		if (filterDocs == null) {
+			return 0;
+		}
+		int doc = scorer.nextDoc();
+		int filterDoc = filterDocs.advance(doc);
+		while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+			if (doc == filterDoc) {
+				count++;
+				doc = scorer.nextDoc();
+			} else if (doc < filterDoc) {
+				doc = scorer.advance(filterDoc);
+			} else {
+				filterDoc = filterDocs.advance(doc);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts collected documents and never asks for their score.
+	 */
+	public static class CountingCollector extends Collector {
+		private int count;
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setScorer(Scorer scorer) {
+		}
+
+		public void collect(int doc) {
+			count++;
+		}
+
+		public void setNextReader(IndexReader reader, int docBase) {
+		}
+
+		public boolean acceptsDocsOutOfOrder() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.ReaderUtil;
+
+import common.ColumnStore;
+
+/**
+ * Reads the display fields of hits without decoding whole stored documents.
+ *
+ * {@link #get(int, String)} loads a single field and stops reading the
+ * document right after it; fields with a {@link StoredFieldColumns} column
+ * are answered from memory instead, and fields of a {@link ColumnStore} from
+ * its memory-mapped files for segments it has columns of.
+ * {@link #document(int, String...)} loads the requested fields lazily and
+ * skips all others.
+ */
+public class HitRenderer {
+	private final IndexSearcher searcher;
+	private final StoredFieldColumns columns;
+	private final Set<String> columnFields;
+	private final ColumnStore store;
+	private final IndexReader[] segments;
+	private final int[] docStarts;
+
+	public HitRenderer(IndexSearcher searcher) {
+		this(searcher, null);
+	}
+
+	/**
+	 * @param columns the shared column cache, may be null
+	 * @param columnFields the single-valued fields to answer from the columns, e.g. title
+	 */
+	public HitRenderer(IndexSearcher searcher, StoredFieldColumns columns, String... columnFields) {
+		this(searcher, columns, null, columnFields);
+	}
+
+	/**
+	 * @param store the column store of the searcher's index
+	 */
+	public HitRenderer(IndexSearcher searcher, ColumnStore store) {
+		this(searcher, null, store);
+	}
+
+	private HitRenderer(IndexSearcher searcher, StoredFieldColumns columns, ColumnStore store,
+			String... columnFields) {
+		this.searcher = searcher;
+		this.columns = columns;
+		this.columnFields = new HashSet<String>(Arrays.asList(columnFields));
+		this.store = store;
+		List<IndexReader> subReaders = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subReaders, searcher.getIndexReader());
+		segments = subReaders.toArray(new IndexReader[subReaders.size()]);
+		docStarts = new int[segments.length];
+		int maxDoc = 0;
+		for (int i = 0; i < segments.length; i++) {
+			docStarts[i] = maxDoc;
+			maxDoc += segments[i].maxDoc();
+		}
+	}
+
+	/**
+	 * the first value of a stored field of a hit
+	 */
+	public String get(int doc, String field) throws IOException {
+		if (columns != null && columnFields.contains(field)) {
+			int i = ReaderUtil.subIndex(doc, docStarts);
+			return columns.getColumn(segments[i], field)[doc - docStarts[i]];
+		}
+		if (store != null && store.hasField(field)) {
+			int i = ReaderUtil.subIndex(doc, docStarts);
+			ColumnStore.Column column = store.getColumn(segments[i], field);
+			if (column != null) {
+				return column.get(doc - docStarts[i]);
+			}
+		}
+		return searcher.doc(doc, StoredFieldColumns.onlyField(field)).get(field);
+	}
+
+	/**
+	 * the values of a field for every hit, in hit order
+	 */
+	public List<String> get(TopDocs hits, String field) throws IOException {
+		List<String> values = new ArrayList<String>(hits.scoreDocs.length);
+		for (ScoreDoc hit : hits.scoreDocs) {
+			values.add(get(hit.doc, field));
+		}
+		return values;
+	}
+
+	/**
+	 * A document holding only the given fields, each read on first access.
+	 */
+	public Document document(int doc, String... fields) throws IOException {
+		final Set<String> wanted = new HashSet<String>(Arrays.asList(fields));
+		return searcher.doc(doc, new FieldSelector() {
+			public FieldSelectorResult accept(String fieldName) {
+				return wanted.contains(fieldName) ? FieldSelectorResult.LAZY_LOAD : FieldSelectorResult.NO_LOAD;
+			}
+		});
+	}
+}
@@ -0,0 +1,558 @@
+package com.chris.lucene_action.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.AlreadyClosedException;
+
+import common.DocumentSink;
+
+/**
+ * Takes a stream of book changes in front of an IndexWriter and makes them
+ * searchable through a near-real-time {@link SearcherManager} within the
+ * refresh interval, without committing on every write.
+ *
+ * Callers enqueue adds, updates and deletes into a bounded queue and block
+ * while it is full, so a burst slows producers down instead of growing the
+ * heap. A single applier thread takes whatever is queued, up to
+ * maxBatchSize operations at a time, and applies it to the writer in order;
+ * an update or delete followed by another update or delete of the same term
+ * in the batch is skipped, as the later one removes its document anyway
+ * (this assumes an updated document contains its own term, as with isbn).
+ * The manager is reopened every refreshInterval and the writer committed
+ * every commitInterval, each on its own schedule.
+ *
+ * The service neither closes the writer nor the manager.
+ */
+public class IngestionService implements DocumentSink, Closeable {
+	private static final Op END = new Op(Op.ADD, null, null);
+
+	private final IndexWriter writer;
+	private final SearcherManager manager;
+	private final BlockingQueue<Op> queue;
+	private int maxBatchSize = 1000;
+	private long refreshIntervalMillis = 1000;
+	private long commitIntervalMillis = 60000;
+	private long offerTimeoutMillis = -1;
+
+	private Thread applier;
+	private ScheduledExecutorService scheduler;
+	private volatile boolean closed;
+	// producers enqueue under the read lock, so none can put behind END
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final Object refreshLock = new Object();
+	private final Object commitLock = new Object();
+
+	// operations, counted in queue order; guarded by this for applied and the lag fields.
+	// Once applying failed no more operations are applied, so applied stops short of enqueued
+	private final AtomicLong enqueued = new AtomicLong();
+	private long applied;
+	private volatile long visible;
+	private volatile long committed;
+	private long oldestInvisibleNanos; // enqueue time of the first operation applied since the last refresh, 0 if none
+	private long lastLagNanos;
+	private long maxLagNanos;
+	private long batches;
+	private long skipped;
+	private long refreshes;
+	private long commits;
+
+	/**
+	 * @param manager a near-real-time manager on the writer
+	 * @param queueCapacity operations that may wait for the applier before producers block
+	 */
+	public IngestionService(IndexWriter writer, SearcherManager manager, int queueCapacity) {
+		this.writer = writer;
+		this.manager = manager;
+		this.queue = new ArrayBlockingQueue<Op>(queueCapacity);
+	}
+
+	/**
+	 * most operations applied at once, defaults to 1000
+	 */
+	public IngestionService setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be >= 1: " + maxBatchSize);
+		}
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	/**
+	 * how often the searcher is reopened, defaults to one second
+	 */
+	public IngestionService setRefreshInterval(long millis) {
+		if (millis < 1) {
+			throw new IllegalArgumentException("refresh interval must be >= 1: " + millis);
+		}
+		this.refreshIntervalMillis = millis;
+		return this;
+	}
+
+	/**
+	 * how often the writer commits, defaults to one minute
+	 */
+	public IngestionService setCommitInterval(long millis) {
+		if (millis < 1) {
+			throw new IllegalArgumentException("commit interval must be >= 1: " + millis);
+		}
+		this.commitIntervalMillis = millis;
+		return this;
+	}
+
+	/**
+	 * how long a producer waits for room in a full queue before it gets an
+	 * IOException, -1 (the default) to wait as long as it takes
+	 */
+	public IngestionService setOfferTimeout(long millis) {
+		this.offerTimeoutMillis = millis;
+		return this;
+	}
+
+	/**
+	 * Starts the applier and the refresh and commit schedules. Operations
+	 * enqueued before are applied right away.
+	 */
+	public synchronized IngestionService start() {
+		if (applier != null) {
+			throw new IllegalStateException("already started");
+		}
+		applier = new Thread("ingest-applier") {
+			public void run() {
+				applyAll();
+			}
+		};
+		applier.setDaemon(true);
+		applier.start();
+		scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ingest-scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					refreshApplied();
+				} catch (AlreadyClosedException e) {
+					// closed while scheduled
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (RuntimeException e) {
+					// would cancel the schedule without a trace
+					fail(e);
+				}
+			}
+		}, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					commitApplied();
+				} catch (AlreadyClosedException e) {
+					// closed while scheduled
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (RuntimeException e) {
+					// would cancel the schedule without a trace
+					fail(e);
+				}
+			}
+		}, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	public void addDocument(Document doc) throws IOException {
+		enqueue(new Op(Op.ADD, null, doc));
+	}
+
+	public void updateDocument(Term term, Document doc) throws IOException {
+		enqueue(new Op(Op.UPDATE, term, doc));
+	}
+
+	public void deleteDocuments(Term term) throws IOException {
+		enqueue(new Op(Op.DELETE, term, null));
+	}
+
+	private void enqueue(Op op) throws IOException {
+		checkFailure();
+		closeLock.readLock().lock();
+		try {
+			if (closed) {
+				throw new AlreadyClosedException("this IngestionService is closed");
+			}
+			if (offerTimeoutMillis < 0) {
+				queue.put(op);
+			} else if (!queue.offer(op, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IOException("ingest queue full for " + offerTimeoutMillis + " ms");
+			}
+			enqueued.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the ingest queue");
+		} finally {
+			closeLock.readLock().unlock();
+		}
+	}
+
+	private void applyAll() {
+		List<Op> batch = new ArrayList<Op>(maxBatchSize);
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, maxBatchSize - 1);
+				boolean end = batch.remove(END);
+				if (failure.get() == null) {
+					apply(batch);
+				}
+				batch.clear();
+				if (end) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * records the first failure, which producers and waiters get from then on
+	 */
+	private synchronized void fail(Throwable t) {
+		failure.compareAndSet(null, t);
+		notifyAll();
+	}
+
+	/**
+	 * Applies the batch to the writer and counts the operations that took
+	 * effect, from the start of the batch: all of them, or if the writer
+	 * failed, those before the failed one that no later operation was to
+	 * replace.
+	 */
+	private void apply(List<Op> batch) {
+		// an update or delete is superseded by a later one of the same term
+		int[] supersededBy = new int[batch.size()];
+		Map<Term, Integer> later = new HashMap<Term, Integer>();
+		for (int i = batch.size() - 1; i >= 0; i--) {
+			Op op = batch.get(i);
+			Integer next = op.term == null ? null : later.put(op.term, i);
+			supersededBy[i] = next == null ? -1 : next;
+		}
+		int done = 0;
+		Throwable error = null;
+		try {
+			for (; done < supersededBy.length; done++) {
+				Op op = batch.get(done);
+				if (supersededBy[done] != -1) {
+					continue;
+				} else if (op.type == Op.ADD) {
+					writer.addDocument(op.doc);
+				} else if (op.type == Op.UPDATE) {
+					writer.updateDocument(op.term, op.doc);
+				} else {
+					writer.deleteDocuments(op.term);
+				}
+			}
+		} catch (Throwable t) {
+			error = t;
+			// a skipped operation only took effect if the one replacing it did
+			int failed = done;
+			for (int i = 0; i < failed; i++) {
+				if (supersededBy[i] >= failed) {
+					done = i;
+					break;
+				}
+			}
+		}
+		int skippedOps = 0;
+		for (int i = 0; i < done; i++) {
+			if (supersededBy[i] != -1) {
+				skippedOps++;
+			}
+		}
+		synchronized (this) {
+			if (error != null) {
+				failure.compareAndSet(null, error);
+			}
+			applied += done;
+			skipped += skippedOps;
+			batches++;
+			if (oldestInvisibleNanos == 0 && done > 0) {
+				oldestInvisibleNanos = batch.get(0).enqueueNanos;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every operation enqueued so far has been applied and
+	 * reopens the searcher, so they are all visible when this returns.
+	 */
+	public void refresh() throws IOException {
+		awaitApplied(enqueued.get());
+		refreshApplied();
+	}
+
+	/**
+	 * Waits until every operation enqueued so far has been applied and commits.
+	 */
+	public void commit() throws IOException {
+		awaitApplied(enqueued.get());
+		commitApplied();
+	}
+
+	private synchronized void awaitApplied(long count) throws IOException {
+		if (applier == null && count > applied) {
+			throw new IllegalStateException("not started");
+		}
+		try {
+			while (applied < count && failure.get() == null) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the applier");
+		}
+		checkFailure();
+	}
+
+	private void refreshApplied() throws IOException {
+		synchronized (refreshLock) {
+			long appliedBefore;
+			long oldest;
+			synchronized (this) {
+				appliedBefore = applied;
+				oldest = oldestInvisibleNanos;
+				oldestInvisibleNanos = 0;
+			}
+			try {
+				manager.maybeReopen();
+			} catch (IOException e) {
+				synchronized (this) {
+					if (oldestInvisibleNanos == 0 || oldest < oldestInvisibleNanos) {
+						oldestInvisibleNanos = oldest;
+					}
+				}
+				throw e;
+			}
+			visible = appliedBefore;
+			synchronized (this) {
+				refreshes++;
+				if (oldest != 0) {
+					lastLagNanos = System.nanoTime() - oldest;
+					maxLagNanos = Math.max(maxLagNanos, lastLagNanos);
+				}
+			}
+		}
+	}
+
+	private void commitApplied() throws IOException {
+		synchronized (commitLock) {
+			long appliedBefore;
+			synchronized (this) {
+				appliedBefore = applied;
+			}
+			writer.commit();
+			committed = appliedBefore;
+			synchronized (this) {
+				commits++;
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t != null) {
+			IOException ioe = new IOException("applying operations failed");
+			ioe.initCause(t);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Stops taking operations, applies what is queued, and makes it visible
+	 * and durable with a last refresh and commit.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			// producers blocked on a full queue need the applier to let go of the read lock
+			if (applier == null && !closed) {
+				start();
+			}
+		}
+		closeLock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		} finally {
+			closeLock.writeLock().unlock();
+		}
+		try {
+			queue.put(END);
+			applier.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while closing");
+		} finally {
+			scheduler.shutdownNow();
+		}
+		checkFailure();
+		refreshApplied();
+		commitApplied();
+	}
+
+	public synchronized Stats getStats() {
+		Op head = queue.peek();
+		long oldest = oldestInvisibleNanos;
+		if (oldest == 0 && head != null && head != END) {
+			oldest = head.enqueueNanos;
+		}
+		long now = System.nanoTime();
+		return new Stats(queue.size(), enqueued.get(), applied, visible, committed, batches, skipped,
+				refreshes, commits, oldest == 0 ? 0 : now - oldest, lastLagNanos, maxLagNanos);
+	}
+
+	private static class Op {
+		static final int ADD = 0;
+		static final int UPDATE = 1;
+		static final int DELETE = 2;
+
+		final int type;
+		final Term term;
+		final Document doc;
+		final long enqueueNanos = System.nanoTime();
+
+		Op(int type, Term term, Document doc) {
+			this.type = type;
+			this.term = term;
+			this.doc = doc;
+		}
+	}
+
+	/**
+	 * Counters and lag of a service at one point in time. Operations are
+	 * counted in the order they were enqueued, so every operation up to
+	 * getVisible() is searchable and every one up to getCommitted() durable.
+	 */
+	public static class Stats {
+		private final int queued;
+		private final long enqueued;
+		private final long applied;
+		private final long visible;
+		private final long committed;
+		private final long batches;
+		private final long skipped;
+		private final long refreshes;
+		private final long commits;
+		private final long lagNanos;
+		private final long lastRefreshLagNanos;
+		private final long maxRefreshLagNanos;
+
+		Stats(int queued, long enqueued, long applied, long visible, long committed, long batches, long skipped,
+				long refreshes, long commits, long lagNanos, long lastRefreshLagNanos, long maxRefreshLagNanos) {
+			this.queued = queued;
+			this.enqueued = enqueued;
+			this.applied = applied;
+			this.visible = visible;
+			this.committed = committed;
+			this.batches = batches;
+			this.skipped = skipped;
+			this.refreshes = refreshes;
+			this.commits = commits;
+			this.lagNanos = lagNanos;
+			this.lastRefreshLagNanos = lastRefreshLagNanos;
+			this.maxRefreshLagNanos = maxRefreshLagNanos;
+		}
+
+		/**
+		 * operations waiting in the queue
+		 */
+		public int getQueued() {
+			return queued;
+		}
+
+		public long getEnqueued() {
+			return enqueued;
+		}
+
+		public long getApplied() {
+			return applied;
+		}
+
+		public long getVisible() {
+			return visible;
+		}
+
+		public long getCommitted() {
+			return committed;
+		}
+
+		public long getBatches() {
+			return batches;
+		}
+
+		/**
+		 * updates and deletes skipped because a later one replaced them
+		 */
+		public long getSkipped() {
+			return skipped;
+		}
+
+		public long getRefreshes() {
+			return refreshes;
+		}
+
+		public long getCommits() {
+			return commits;
+		}
+
+		/**
+		 * how long the oldest operation that is not searchable yet has been waiting, 0 if none
+		 */
+		public long getLagMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(lagNanos);
+		}
+
+		/**
+		 * enqueue to searchable time of the oldest operation the last refresh published
+		 */
+		public long getLastRefreshLagMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(lastRefreshLagNanos);
+		}
+
+		public long getMaxRefreshLagMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxRefreshLagNanos);
+		}
+
+		public String toString() {
+			return String.format("%d queued, %d enqueued, %d applied, %d visible, %d committed, %d batches, "
+					+ "%d skipped, %d refreshes, %d commits, lag %d ms (last %d ms, max %d ms)",
+					queued, enqueued, applied, visible, committed, batches, skipped, refreshes, commits,
+					getLagMillis(), getLastRefreshLagMillis(), getMaxRefreshLagMillis());
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.Weight;
+
+/**
+ * An IndexSearcher that times every search into {@link SearchMetrics}, by
+ * query type: the whole search, rewrite, weight creation, scoring and
+ * collection, and each stored document read afterwards. Queries parsed with
+ * {@link #parse} also add their parse time. Multi-term queries report how
+ * many terms they were rewritten to, which usually explains a slow
+ * wildcard.
+ *
+ * Bookkeeping is a thread-local lookup, a few System.nanoTime calls and
+ * one {@link LatencyHistogram#record} per timed phase, whose shared totals
+ * are LongAdders that do not make concurrent searches wait on each other.
+ * Searches calling search(Weight, ...) directly are not timed; neither are
+ * sub searches of other searchers, nor explain.
+ */
+public class InstrumentedSearcher extends IndexSearcher {
+	private final SearchMetrics metrics;
+	private final ThreadLocal<Trace> traces = new ThreadLocal<Trace>() {
+		protected Trace initialValue() {
+			return new Trace();
+		}
+	};
+
+	public InstrumentedSearcher(IndexReader reader, SearchMetrics metrics) {
+		super(reader);
+		this.metrics = metrics;
+	}
+
+	public SearchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Parses the query; its parse time is counted towards the next search on
+	 * this thread.
+	 */
+	public Query parse(QueryParser parser, String text) throws ParseException {
+		long start = System.nanoTime();
+		Query query = parser.parse(text);
+		traces.get().parseNanos = System.nanoTime() - start;
+		return query;
+	}
+
+	// every search(Query, ...) of Searcher comes through here before search(Weight, ...)
+	protected Weight createWeight(Query query) throws IOException {
+		Trace trace = traces.get();
+		if (trace.collecting > 0) {
+			return super.createWeight(query);
+		}
+		long start = System.nanoTime();
+		QueryStats stats = metrics.getStats(queryType(query));
+		trace.begin(stats, start, query);
+		Weight weight = super.createWeight(query);
+		long elapsed = System.nanoTime() - start;
+		stats.rewrite.record(trace.rewriteNanos);
+		stats.weight.record(elapsed - trace.rewriteNanos);
+		trace.weighted = true;
+		return weight;
+	}
+
+	public Query rewrite(Query original) throws IOException {
+		Trace trace = traces.get();
+		if (trace.stats == null || trace.weighted || trace.collecting > 0) {
+			return super.rewrite(original);
+		}
+		long start = System.nanoTime();
+		try {
+			return super.rewrite(original);
+		} finally {
+			trace.rewriteNanos += System.nanoTime() - start;
+		}
+	}
+
+	public Explanation explain(Query query, int doc) throws IOException {
+		// not a search: its weight is neither timed nor left for the next search(Weight, ...)
+		Trace trace = traces.get();
+		trace.collecting++;
+		try {
+			return super.explain(query, doc);
+		} finally {
+			trace.collecting--;
+		}
+	}
+
+	public void search(Weight weight, Filter filter, Collector collector) throws IOException {
+		Trace trace = start();
+		try {
+			super.search(weight, filter, collector);
+		} finally {
+			end(trace);
+		}
+	}
+
+	public TopDocs search(Weight weight, Filter filter, int nDocs) throws IOException {
+		Trace trace = start();
+		try {
+			return super.search(weight, filter, nDocs);
+		} finally {
+			end(trace);
+		}
+	}
+
+	public TopFieldDocs search(Weight weight, Filter filter, int nDocs, Sort sort) throws IOException {
+		Trace trace = start();
+		try {
+			return super.search(weight, filter, nDocs, sort);
+		} finally {
+			end(trace);
+		}
+	}
+
+	public TopFieldDocs search(Weight weight, Filter filter, int nDocs, Sort sort, boolean fillFields)
+			throws IOException {
+		Trace trace = start();
+		try {
+			return super.search(weight, filter, nDocs, sort, fillFields);
+		} finally {
+			end(trace);
+		}
+	}
+
+	public Document doc(int i) throws IOException {
+		long start = System.nanoTime();
+		Document doc = super.doc(i);
+		recordFetch(start);
+		return doc;
+	}
+
+	public Document doc(int i, FieldSelector fieldSelector) throws IOException {
+		long start = System.nanoTime();
+		Document doc = super.doc(i, fieldSelector);
+		recordFetch(start);
+		return doc;
+	}
+
+	// fetches are charged to the last query searched on the thread
+	private void recordFetch(long start) {
+		QueryStats stats = traces.get().last;
+		if (stats != null) {
+			stats.fetch.record(System.nanoTime() - start);
+		}
+	}
+
+	// anonymous query classes have no simple name to put in an ObjectName
+	static String queryType(Query query) {
+		String type = query.getClass().getSimpleName();
+		return type.length() > 0 ? type : query.getClass().getName();
+	}
+
+	private Trace start() {
+		Trace trace = traces.get();
+		if (!trace.weighted) {
+			return null; // weight created elsewhere, or a nested search
+		}
+		if (trace.collecting++ == 0) {
+			trace.collectStart = System.nanoTime();
+		}
+		return trace;
+	}
+
+	private void end(Trace trace) {
+		if (trace == null || --trace.collecting > 0) {
+			return;
+		}
+		long end = System.nanoTime();
+		QueryStats stats = trace.stats;
+		stats.collect.record(end - trace.collectStart);
+		stats.total.record(end - trace.start + trace.parseNanos);
+		if (trace.parseNanos > 0) {
+			stats.parse.record(trace.parseNanos);
+		}
+		long terms = 0;
+		for (int i = 0; i < trace.multiTermQueries.size(); i++) {
+			terms += trace.multiTermQueries.get(i).getTotalNumberOfTerms() - trace.termsBefore[i];
+		}
+		if (terms > 0) {
+			stats.rewrittenTerms.addAndGet(terms);
+		}
+		trace.finish();
+	}
+
+	/**
+	 * the state of the search running on one thread
+	 */
+	private static class Trace {
+		QueryStats stats;
+		QueryStats last;
+		long start;
+		long parseNanos;
+		long rewriteNanos;
+		long collectStart;
+		boolean weighted;
+		int collecting;
+		final List<MultiTermQuery> multiTermQueries = new ArrayList<MultiTermQuery>();
+		long[] termsBefore = new long[8];
+
+		void begin(QueryStats stats, long start, Query query) {
+			this.stats = stats;
+			this.last = stats;
+			this.start = start;
+			rewriteNanos = 0;
+			weighted = false;
+			multiTermQueries.clear();
+			addMultiTermQueries(query);
+			if (termsBefore.length < multiTermQueries.size()) {
+				termsBefore = new long[multiTermQueries.size()];
+			}
+			// the counters accumulate over all rewrites of a query instance
+			for (int i = 0; i < multiTermQueries.size(); i++) {
+				termsBefore[i] = multiTermQueries.get(i).getTotalNumberOfTerms();
+			}
+		}
+
+		private void addMultiTermQueries(Query query) {
+			if (query instanceof MultiTermQuery) {
+				multiTermQueries.add((MultiTermQuery) query);
+			} else if (query instanceof BooleanQuery) {
+				for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+					addMultiTermQueries(clause.getQuery());
+				}
+			}
+		}
+
+		void finish() {
+			stats = null;
+			parseNanos = 0;
+			weighted = false;
+			multiTermQueries.clear();
+		}
+	}
+}
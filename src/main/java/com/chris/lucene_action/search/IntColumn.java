@@ -0,0 +1,84 @@
+package com.chris.lucene_action.search;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * The values of an int NumericField in one segment, indexed by segment doc
+ * id, with the documents that have a value. A document with several values
+ * gets the smallest.
+ *
+ * A column is held either on the heap or, read back from a
+ * {@link SegmentCacheStore}, in a memory-mapped file.
+ */
+public class IntColumn {
+	private final IntBuffer values;
+	/** the words of the bitset of documents with a value */
+	private final LongBuffer bits;
+	private final int min;
+	private final int max;
+
+	IntColumn(int[] values, OpenBitSet hasValue, int min, int max) {
+		this(IntBuffer.wrap(values), LongBuffer.wrap(hasValue.getBits()), min, max);
+	}
+
+	IntColumn(IntBuffer values, LongBuffer bits, int min, int max) {
+		this.values = values;
+		this.bits = bits;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * the value of doc, 0 if it has none
+	 */
+	public int get(int doc) {
+		return values.get(doc);
+	}
+
+	public boolean hasValue(int doc) {
+		return (bits.get(doc >> 6) & (1L << doc)) != 0;
+	}
+
+	public int size() {
+		return values.limit();
+	}
+
+	/**
+	 * the smallest value, possibly of a document deleted since loading; Integer.MAX_VALUE if there is none
+	 */
+	public int getMin() {
+		return min;
+	}
+
+	/**
+	 * the largest value, possibly of a document deleted since loading; Integer.MIN_VALUE if there is none
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	boolean isMapped() {
+		return values.isDirect();
+	}
+
+	IntBuffer getValues() {
+		return values.duplicate();
+	}
+
+	LongBuffer getBits() {
+		return bits.duplicate();
+	}
+
+	/**
+	 * heap used by the column, next to nothing for a mapped one
+	 */
+	public long ramBytesUsed() {
+		if (isMapped()) {
+			return 96;
+		}
+		return 16 + 4L * values.capacity() + 48 + 8L * bits.capacity() + 48;
+	}
+}
@@ -0,0 +1,110 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Per-segment {@link IntColumn}s of int NumericFields such as pubmonth.
+ *
+ * Unlike FieldCache.getInts a column tells documents without a value from
+ * documents with the value 0. A column is read from the field's full
+ * precision terms, skipping the lower precision ones NumericField adds for
+ * range queries. With a {@link SegmentCacheStore} columns are written to
+ * disk once and mapped back, e.g. after a restart, instead of being loaded
+ * from the terms again.
+ */
+public class IntColumnCache extends SegmentCache<IntColumn> {
+	private final Set<String> warmFields;
+	private volatile SegmentCacheStore store;
+
+	/**
+	 * @param warmFields the fields {@link #warm} loads, any field can be loaded on demand
+	 */
+	public IntColumnCache(String... warmFields) {
+		this.warmFields = new HashSet<String>(Arrays.asList(warmFields));
+	}
+
+	/**
+	 * persists columns to the store and maps them from there when they are first used
+	 */
+	public IntColumnCache setStore(SegmentCacheStore store) {
+		this.store = store;
+		return this;
+	}
+
+	/**
+	 * the column of a field for a segment reader, indexed by segment doc id
+	 */
+	public IntColumn getColumn(IndexReader segment, String field) throws IOException {
+		return get(segment, field);
+	}
+
+	protected Collection<String> warmFields() {
+		return warmFields;
+	}
+
+	// termDocs() skips deleted documents
+	protected boolean dependsOnDeletions() {
+		return true;
+	}
+
+	protected IntColumn build(IndexReader segment, String field) throws IOException {
+		SegmentCacheStore store = this.store;
+		IntColumn column = store == null ? null : store.readIntColumn(segment, field);
+		if (column == null) {
+			column = load(segment, field);
+			if (store != null) {
+				store.writeIntColumn(segment, field, column);
+			}
+		}
+		return column;
+	}
+
+	private static IntColumn load(IndexReader segment, String field) throws IOException {
+		int[] values = new int[segment.maxDoc()];
+		OpenBitSet hasValue = new OpenBitSet(values.length);
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		field = field.intern();
+		TermEnum terms = segment.terms(new Term(field, NumericUtils.intToPrefixCoded(Integer.MIN_VALUE)));
+		TermDocs docs = segment.termDocs();
+		try {
+			int[] buffer = new int[128];
+			int[] freqs = new int[128];
+			// full precision terms start with the shift 0 marker and sort by value
+			for (Term term = terms.term(); term != null && term.field() == field
+					&& term.text().charAt(0) == NumericUtils.SHIFT_START_INT; term = terms.next() ? terms.term() : null) {
+				int value = NumericUtils.prefixCodedToInt(term.text());
+				min = Math.min(min, value);
+				max = value;
+				docs.seek(terms);
+				for (int read = docs.read(buffer, freqs); read > 0; read = docs.read(buffer, freqs)) {
+					for (int i = 0; i < read; i++) {
+						if (!hasValue.fastGet(buffer[i])) {
+							hasValue.fastSet(buffer[i]);
+							values[buffer[i]] = value;
+						}
+					}
+				}
+			}
+		} finally {
+			docs.close();
+			terms.close();
+		}
+		return new IntColumn(values, hasValue, min, max);
+	}
+
+	protected long ramBytesUsed(IntColumn column) {
+		return column.ramBytesUsed();
+	}
+}
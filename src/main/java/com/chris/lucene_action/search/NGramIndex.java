@@ -0,0 +1,204 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.WildcardTermEnum;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * A k-gram index over the term dictionary of chosen fields: for every gram
+ * of "$term$" the sorted list of terms containing it. A wildcard pattern
+ * such as ?ild* requires the grams of its literal parts ("ild"), so the
+ * terms it can match are found by intersecting a few short lists instead of
+ * walking the whole term dictionary.
+ *
+ * The grams of a segment are built from its term dictionary alone, which
+ * also holds the terms of deleted documents; candidates of such terms match
+ * nothing and cost only a term lookup.
+ */
+public class NGramIndex extends SegmentCache<NGramIndex.SegmentGrams> {
+	public static final char BOUNDARY = '$';
+
+	private final int gramSize;
+	private final Set<String> fields;
+
+	public NGramIndex(String... fields) {
+		this(3, fields);
+	}
+
+	public NGramIndex(int gramSize, String... fields) {
+		if (gramSize < 2) {
+			throw new IllegalArgumentException("gramSize must be at least 2: " + gramSize);
+		}
+		this.gramSize = gramSize;
+		this.fields = new HashSet<String>(Arrays.asList(fields));
+	}
+
+	public int getGramSize() {
+		return gramSize;
+	}
+
+	public boolean isIndexed(String field) {
+		return fields.contains(field);
+	}
+
+	/**
+	 * The grams every term matching the wildcard pattern contains. Empty if
+	 * the literal parts of the pattern are all shorter than the gram size,
+	 * e.g. *a*, in which case the grams cannot narrow the terms.
+	 */
+	public List<String> requiredGrams(String pattern) {
+		Set<String> grams = new LinkedHashSet<String>();
+		String padded = BOUNDARY + pattern + BOUNDARY;
+		int start = 0;
+		for (int i = 0; i <= padded.length(); i++) {
+			if (i == padded.length() || isWildcard(padded.charAt(i))) {
+				for (int j = start; j + gramSize <= i; j++) {
+					grams.add(padded.substring(j, j + gramSize));
+				}
+				start = i + 1;
+			}
+		}
+		return new ArrayList<String>(grams);
+	}
+
+	private static boolean isWildcard(char c) {
+		return c == WildcardTermEnum.WILDCARD_STRING || c == WildcardTermEnum.WILDCARD_CHAR;
+	}
+
+	/**
+	 * The terms of the field in any segment of the reader that contain all
+	 * given grams, sorted and without duplicates.
+	 */
+	public String[] candidates(IndexReader reader, String field, List<String> grams) throws IOException {
+		List<IndexReader> subReaders = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subReaders, reader);
+		TreeSet<String> terms = new TreeSet<String>();
+		for (IndexReader segment : subReaders) {
+			get(segment, field).collect(grams, terms);
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	protected SegmentGrams build(IndexReader segment, String field) throws IOException {
+		List<String> terms = new ArrayList<String>();
+		Map<String, int[]> postings = new HashMap<String, int[]>();
+		Map<String, Integer> lengths = new HashMap<String, Integer>();
+		field = field.intern();
+		TermEnum te = segment.terms(new Term(field, ""));
+		try {
+			for (Term term = te.term(); term != null && term.field() == field; term = te.next() ? te.term() : null) {
+				int ord = terms.size();
+				String padded = BOUNDARY + term.text() + BOUNDARY;
+				terms.add(term.text());
+				for (int i = 0; i + gramSize <= padded.length(); i++) {
+					String gram = padded.substring(i, i + gramSize);
+					int[] ords = postings.get(gram);
+					int length = ords == null ? 0 : lengths.get(gram);
+					if (length > 0 && ords[length - 1] == ord) {
+						continue; // gram repeated within the term
+					}
+					if (ords == null || length == ords.length) {
+						ords = ords == null ? new int[4] : Arrays.copyOf(ords, length * 2);
+						postings.put(gram, ords);
+					}
+					ords[length] = ord;
+					lengths.put(gram, length + 1);
+				}
+			}
+		} finally {
+			te.close();
+		}
+		for (Map.Entry<String, int[]> entry : postings.entrySet()) {
+			entry.setValue(Arrays.copyOf(entry.getValue(), lengths.get(entry.getKey())));
+		}
+		return new SegmentGrams(terms.toArray(new String[terms.size()]), postings);
+	}
+
+	protected long ramBytesUsed(SegmentGrams grams) {
+		return grams.ramBytesUsed();
+	}
+
+	protected Collection<String> warmFields() {
+		return fields;
+	}
+
+	static class SegmentGrams {
+		final String[] terms;
+		final Map<String, int[]> postings;
+
+		SegmentGrams(String[] terms, Map<String, int[]> postings) {
+			this.terms = terms;
+			this.postings = postings;
+		}
+
+		void collect(List<String> grams, Set<String> into) {
+			List<int[]> lists = new ArrayList<int[]>(grams.size());
+			for (String gram : grams) {
+				int[] ords = postings.get(gram);
+				if (ords == null) {
+					return;
+				}
+				lists.add(ords);
+			}
+			// intersect starting with the rarest gram
+			Collections.sort(lists, new Comparator<int[]>() {
+				public int compare(int[] a, int[] b) {
+					return a.length - b.length;
+				}
+			});
+			int[] result = lists.get(0);
+			int count = result.length;
+			for (int l = 1; l < lists.size() && count > 0; l++) {
+				result = intersect(result, count, lists.get(l));
+				count = result.length;
+			}
+			for (int i = 0; i < count; i++) {
+				into.add(terms[result[i]]);
+			}
+		}
+
+		private static int[] intersect(int[] a, int aLength, int[] b) {
+			int[] out = new int[aLength];
+			int n = 0;
+			for (int i = 0, j = 0; i < aLength && j < b.length; ) {
+				if (a[i] < b[j]) {
+					i++;
+				} else if (a[i] > b[j]) {
+					j++;
+				} else {
+					out[n++] = a[i];
+					i++;
+					j++;
+				}
+			}
+			return Arrays.copyOf(out, n);
+		}
+
+		long ramBytesUsed() {
+			long bytes = 16 + 8L * terms.length;
+			for (String term : terms) {
+				bytes += 40 + 2L * term.length();
+			}
+			for (Map.Entry<String, int[]> entry : postings.entrySet()) {
+				bytes += 32 + 40 + 2L * entry.getKey().length() + 16 + 4L * entry.getValue().length;
+			}
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FilteredTermEnum;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.WildcardTermEnum;
+
+/**
+ * A WildcardQuery that expands over the terms an {@link NGramIndex} returns
+ * for the pattern instead of scanning the term dictionary from the literal
+ * prefix on, so leading and infix wildcards such as ?ild* or *uni* no
+ * longer visit every term of the field.
+ *
+ * Matches and scores are the same as WildcardQuery's. Patterns without a
+ * literal part as long as a gram, and fields the n-gram index does not
+ * cover, fall back to the plain term scan.
+ */
+public class NGramWildcardQuery extends WildcardQuery {
+	private final NGramIndex grams;
+
+	public NGramWildcardQuery(Term term, NGramIndex grams) {
+		super(term);
+		this.grams = grams;
+	}
+
+	protected FilteredTermEnum getEnum(IndexReader reader) throws IOException {
+		if (!grams.isIndexed(term.field())) {
+			return super.getEnum(reader);
+		}
+		List<String> required = grams.requiredGrams(term.text());
+		if (required.isEmpty()) {
+			return super.getEnum(reader);
+		}
+		String[] candidates = grams.candidates(reader, term.field(), required);
+		return new CandidateEnum(new TermListEnum(reader, term.field(), candidates), term.text());
+	}
+
+	/**
+	 * Keeps the candidates that really match, the grams only guarantee that
+	 * the literal parts occur somewhere in the term.
+	 */
+	private static class CandidateEnum extends FilteredTermEnum {
+		private final String pattern;
+
+		CandidateEnum(TermListEnum candidates, String pattern) throws IOException {
+			this.pattern = pattern;
+			setEnum(candidates);
+		}
+
+		protected boolean termCompare(Term term) {
+			return WildcardTermEnum.wildcardEquals(pattern, 0, term.text(), 0);
+		}
+
+		public float difference() {
+			return 1.0f;
+		}
+
+		protected boolean endEnum() {
+			return false;
+		}
+	}
+}
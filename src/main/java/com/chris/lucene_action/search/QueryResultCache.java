@@ -0,0 +1,230 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * LRU cache of search results keyed on (reader, query, filter, sort, n).
+ *
+ * Entries are evicted least recently used first once either the number of
+ * entries or their estimated size exceeds its limit. A result is only ever
+ * served for the reader it was computed on; registered as a
+ * {@link SearcherManager.RefreshListener} the cache also drops everything as
+ * soon as a reopened searcher is published. Keys only hold their reader
+ * weakly, so a closed reader is not kept reachable by the cache either; its
+ * entries are dropped once the reader is garbage collected.
+ *
+ * Cached TopDocs are shared between callers and must not be modified.
+ * Queries and filters are compared with equals(), so they must not be
+ * modified once searched either.
+ */
+public class QueryResultCache implements SearcherManager.RefreshListener {
+	// rough per entry cost of the map entry, key and TopDocs objects
+	private static final long ENTRY_OVERHEAD = 160;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private final ReferenceQueue<IndexReader> collected = new ReferenceQueue<IndexReader>();
+	private IndexReader current; // set by afterRefresh, null if not attached to a manager
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public QueryResultCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	public TopDocs search(IndexSearcher searcher, Query query, int n) throws IOException {
+		return search(searcher, query, null, n, null);
+	}
+
+	public TopDocs search(IndexSearcher searcher, Query query, Filter filter, int n) throws IOException {
+		return search(searcher, query, filter, n, null);
+	}
+
+	/**
+	 * Returns the cached result or runs the search and caches it.
+	 *
+	 * @param sort null for relevance order
+	 */
+	public TopDocs search(IndexSearcher searcher, Query query, Filter filter, int n, Sort sort)
+			throws IOException {
+		Key key = new Key(searcher.getIndexReader(), query, filter, sort, n, collected);
+		synchronized (this) {
+			purge();
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				return entry.docs;
+			}
+			misses++;
+		}
+
+		// concurrent misses on the same key both search, the later put wins
+		TopDocs docs = sort == null ? searcher.search(query, filter, n) : searcher.search(query, filter, n, sort);
+		put(key, docs);
+		return docs;
+	}
+
+	private synchronized void put(Key key, TopDocs docs) {
+		purge();
+		long size = sizeOf(docs);
+		if (size > maxBytes || (current != null && key.reader.get() != current)) {
+			return; // too big, or searched on a reader that was already replaced
+		}
+		Entry old = entries.put(key, new Entry(docs, size));
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		bytes += size;
+		Iterator<Entry> lru = entries.values().iterator();
+		while (entries.size() > maxEntries || bytes > maxBytes) {
+			bytes -= lru.next().bytes;
+			lru.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void afterRefresh(IndexSearcher newSearcher) {
+		current = newSearcher.getIndexReader();
+		clear();
+	}
+
+	// entries of collected readers can never be hit again
+	private void purge() {
+		for (Reference<? extends IndexReader> ref = collected.poll(); ref != null; ref = collected.poll()) {
+			Entry entry = entries.remove(((ReaderReference) ref).key);
+			if (entry != null) {
+				bytes -= entry.bytes;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		purge();
+		return entries.size();
+	}
+
+	/**
+	 * estimated heap used by the cached results
+	 */
+	public synchronized long ramBytesUsed() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized double getHitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public synchronized String toString() {
+		return String.format("%d entries, %d bytes, %d hits, %d misses, %d evictions",
+				entries.size(), bytes, hits, misses, evictions);
+	}
+
+	static long sizeOf(TopDocs docs) {
+		long size = ENTRY_OVERHEAD + 16 + 8L * docs.scoreDocs.length;
+		for (ScoreDoc doc : docs.scoreDocs) {
+			size += 24;
+			if (doc instanceof FieldDoc) {
+				Comparable<?>[] fields = ((FieldDoc) doc).fields;
+				size += fields == null ? 0 : 16 + 32L * fields.length;
+			}
+		}
+		return size;
+	}
+
+	private static class Entry {
+		final TopDocs docs;
+		final long bytes;
+
+		Entry(TopDocs docs, long bytes) {
+			this.docs = docs;
+			this.bytes = bytes;
+		}
+	}
+
+	private static class ReaderReference extends WeakReference<IndexReader> {
+		final Key key;
+
+		ReaderReference(IndexReader reader, ReferenceQueue<IndexReader> queue, Key key) {
+			super(reader, queue);
+			this.key = key;
+		}
+	}
+
+	private static class Key {
+		final ReaderReference reader;
+		final Query query;
+		final Filter filter;
+		final Sort sort;
+		final int n;
+		final int hash;
+
+		Key(IndexReader reader, Query query, Filter filter, Sort sort, int n, ReferenceQueue<IndexReader> queue) {
+			this.reader = new ReaderReference(reader, queue, this);
+			this.query = query;
+			this.filter = filter;
+			this.sort = sort;
+			this.n = n;
+			int h = System.identityHashCode(reader);
+			h = 31 * h + query.hashCode();
+			h = 31 * h + (filter == null ? 0 : filter.hashCode());
+			h = 31 * h + (sort == null ? 0 : sort.hashCode());
+			this.hash = 31 * h + n;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			IndexReader r = reader.get();
+			return r != null && r == other.reader.get()
+					&& n == other.n
+					&& query.equals(other.query)
+					&& (filter == null ? other.filter == null : filter.equals(other.filter))
+					&& (sort == null ? other.sort == null : sort.equals(other.sort));
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.chris.lucene_action.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies of the searches of one query type, e.g. WildcardQuery: the
+ * whole search and each of its phases, parse, rewrite, weight creation,
+ * scoring and collection, and stored-field fetches of its hits, plus the
+ * number of terms multi-term queries were rewritten to.
+ */
+public class QueryStats implements QueryStatsMBean {
+	private final String queryType;
+	final LatencyHistogram total = new LatencyHistogram();
+	final LatencyHistogram parse = new LatencyHistogram();
+	final LatencyHistogram rewrite = new LatencyHistogram();
+	final LatencyHistogram weight = new LatencyHistogram();
+	final LatencyHistogram collect = new LatencyHistogram();
+	final LatencyHistogram fetch = new LatencyHistogram();
+	final AtomicLong rewrittenTerms = new AtomicLong();
+
+	QueryStats(String queryType) {
+		this.queryType = queryType;
+	}
+
+	public String getQueryType() {
+		return queryType;
+	}
+
+	public LatencyHistogram getTotal() {
+		return total;
+	}
+
+	public LatencyHistogram getParse() {
+		return parse;
+	}
+
+	public LatencyHistogram getRewrite() {
+		return rewrite;
+	}
+
+	public LatencyHistogram getWeight() {
+		return weight;
+	}
+
+	public LatencyHistogram getCollect() {
+		return collect;
+	}
+
+	/**
+	 * one value per stored document read
+	 */
+	public LatencyHistogram getFetch() {
+		return fetch;
+	}
+
+	public long getCount() {
+		return total.getCount();
+	}
+
+	public double getMeanMicros() {
+		return total.getMeanNanos() / 1000;
+	}
+
+	public long getP50Micros() {
+		return total.getPercentileNanos(0.5) / 1000;
+	}
+
+	public long getP99Micros() {
+		return total.getPercentileNanos(0.99) / 1000;
+	}
+
+	public long getP999Micros() {
+		return total.getPercentileNanos(0.999) / 1000;
+	}
+
+	public long getMaxMicros() {
+		return total.getMaxNanos() / 1000;
+	}
+
+	public double getParseMeanMicros() {
+		return parse.getMeanNanos() / 1000;
+	}
+
+	public double getRewriteMeanMicros() {
+		return rewrite.getMeanNanos() / 1000;
+	}
+
+	public long getRewriteP99Micros() {
+		return rewrite.getPercentileNanos(0.99) / 1000;
+	}
+
+	public double getWeightMeanMicros() {
+		return weight.getMeanNanos() / 1000;
+	}
+
+	public double getCollectMeanMicros() {
+		return collect.getMeanNanos() / 1000;
+	}
+
+	public long getCollectP99Micros() {
+		return collect.getPercentileNanos(0.99) / 1000;
+	}
+
+	public double getFetchMeanMicros() {
+		return fetch.getMeanNanos() / 1000;
+	}
+
+	public long getFetchCount() {
+		return fetch.getCount();
+	}
+
+	public long getRewrittenTerms() {
+		return rewrittenTerms.get();
+	}
+
+	public void reset() {
+		total.reset();
+		parse.reset();
+		rewrite.reset();
+		weight.reset();
+		collect.reset();
+		fetch.reset();
+		rewrittenTerms.set(0);
+	}
+
+	public String toString() {
+		return String.format("%s: %d searches, p50 %d us, p99 %d us, p999 %d us, max %d us"
+				+ " (parse %.1f, rewrite %.1f, weight %.1f, collect %.1f us mean), %d terms, %d fetches %.1f us mean",
+				queryType, getCount(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros(),
+				getParseMeanMicros(), getRewriteMeanMicros(), getWeightMeanMicros(), getCollectMeanMicros(),
+				getRewrittenTerms(), getFetchCount(), getFetchMeanMicros());
+	}
+}
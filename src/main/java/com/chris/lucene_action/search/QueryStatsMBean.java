@@ -0,0 +1,40 @@
+package com.chris.lucene_action.search;
+
+/**
+ * JMX view of the {@link QueryStats} of one query type, in microseconds.
+ */
+public interface QueryStatsMBean {
+	String getQueryType();
+
+	long getCount();
+
+	double getMeanMicros();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	long getP999Micros();
+
+	long getMaxMicros();
+
+	double getParseMeanMicros();
+
+	double getRewriteMeanMicros();
+
+	long getRewriteP99Micros();
+
+	double getWeightMeanMicros();
+
+	double getCollectMeanMicros();
+
+	long getCollectP99Micros();
+
+	double getFetchMeanMicros();
+
+	long getFetchCount();
+
+	long getRewrittenTerms();
+
+	void reset();
+}
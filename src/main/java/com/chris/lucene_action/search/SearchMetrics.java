@@ -0,0 +1,109 @@
+package com.chris.lucene_action.search;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The {@link QueryStats} of every query type the {@link InstrumentedSearcher}s
+ * of an index ran. One instance outlives the searchers, so the numbers keep
+ * accumulating across reopens.
+ *
+ * After {@link #registerMBeans} each query type shows up in JMX as
+ * com.chris.lucene_action:type=SearchMetrics,name=&lt;name&gt;,queryType=&lt;type&gt;,
+ * including types first seen later.
+ */
+public class SearchMetrics {
+	public static final String DOMAIN = "com.chris.lucene_action";
+
+	private final ConcurrentMap<String, QueryStats> stats = new ConcurrentHashMap<String, QueryStats>();
+	private MBeanServer server;
+	private String name;
+
+	public QueryStats getStats(String queryType) {
+		QueryStats queryStats = stats.get(queryType);
+		if (queryStats == null) {
+			QueryStats created = new QueryStats(queryType);
+			queryStats = stats.putIfAbsent(queryType, created);
+			if (queryStats == null) {
+				queryStats = created;
+				register(created);
+			}
+		}
+		return queryStats;
+	}
+
+	public List<QueryStats> getAll() {
+		return new ArrayList<QueryStats>(stats.values());
+	}
+
+	public void reset() {
+		for (QueryStats queryStats : stats.values()) {
+			queryStats.reset();
+		}
+	}
+
+	/**
+	 * Registers the stats of every query type, current and future, with the
+	 * platform MBean server.
+	 *
+	 * @param name tells several metrics of one JVM apart, e.g. the index name
+	 */
+	public synchronized void registerMBeans(String name) throws JMException {
+		if (server != null) {
+			throw new IllegalStateException("already registered as " + this.name);
+		}
+		server = ManagementFactory.getPlatformMBeanServer();
+		this.name = name;
+		for (QueryStats queryStats : stats.values()) {
+			server.registerMBean(queryStats, objectName(queryStats.getQueryType()));
+		}
+	}
+
+	public synchronized void unregisterMBeans() throws JMException {
+		if (server == null) {
+			return;
+		}
+		for (QueryStats queryStats : stats.values()) {
+			ObjectName objectName = objectName(queryStats.getQueryType());
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		}
+		server = null;
+	}
+
+	public ObjectName objectName(String queryType) throws JMException {
+		return new ObjectName(DOMAIN + ":type=SearchMetrics,name=" + ObjectName.quote(name)
+				+ ",queryType=" + queryType);
+	}
+
+	private synchronized void register(QueryStats queryStats) {
+		if (server == null) {
+			return;
+		}
+		try {
+			// registerMBeans may have picked it up between putIfAbsent and here
+			ObjectName objectName = objectName(queryStats.getQueryType());
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(queryStats, objectName);
+			}
+		} catch (JMException e) {
+			e.printStackTrace(); // monitoring must not fail searches
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (QueryStats queryStats : stats.values()) {
+			sb.append(queryStats).append('\n');
+		}
+		return sb.toString();
+	}
+}
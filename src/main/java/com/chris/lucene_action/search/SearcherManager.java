@@ -0,0 +1,233 @@
+package com.chris.lucene_action.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Shares one IndexSearcher between all requests and swaps in a reopened one
+ * when the index changed, so no request pays for opening a reader.
+ *
+ * Every {@link #acquire()} must be paired with a {@link #release} in a
+ * finally block. The reader behind a searcher is reference counted and is
+ * only closed once the manager moved on and the last request using it
+ * released it:
+ *
+ * <pre>
+ * IndexSearcher searcher = manager.acquire();
+ * try {
+ *   searcher.search(query, 10);
+ * } finally {
+ *   manager.release(searcher);
+ * }
+ * </pre>
+ *
+ * Built on an IndexWriter the manager reopens near-real-time readers that
+ * see uncommitted changes; built on a Directory it sees commits only.
+ */
+public class SearcherManager implements Closeable {
+
+	/**
+	 * Prepares a new searcher, e.g. by running typical queries, before
+	 * requests can see it.
+	 */
+	public interface SearcherWarmer {
+		void warm(IndexSearcher searcher) throws IOException;
+	}
+
+	/**
+	 * Told about every searcher the manager publishes after a reopen, e.g.
+	 * to drop caches that belong to the previous reader.
+	 */
+	public interface RefreshListener {
+		void afterRefresh(IndexSearcher newSearcher);
+	}
+
+	private final Object reopenLock = new Object();
+	private final Object swapLock = new Object();
+	private final SearcherWarmer warmer;
+	private volatile IndexSearcher current;
+	private ScheduledExecutorService scheduler;
+	private final List<RefreshListener> listeners = new CopyOnWriteArrayList<RefreshListener>();
+
+	/**
+	 * near-real-time searchers over the writer's uncommitted changes
+	 */
+	public SearcherManager(IndexWriter writer) throws IOException {
+		this(writer.getReader(), null);
+	}
+
+	public SearcherManager(IndexWriter writer, SearcherWarmer warmer) throws IOException {
+		this(writer.getReader(), warmer);
+	}
+
+	/**
+	 * read-only searchers over the last commit in the directory
+	 */
+	public SearcherManager(Directory dir) throws IOException {
+		this(IndexReader.open(dir, true), null);
+	}
+
+	public SearcherManager(Directory dir, SearcherWarmer warmer) throws IOException {
+		this(IndexReader.open(dir, true), warmer);
+	}
+
+	private SearcherManager(IndexReader reader, SearcherWarmer warmer) throws IOException {
+		this.warmer = warmer;
+		IndexSearcher searcher = new IndexSearcher(reader);
+		if (warmer != null) {
+			warmer.warm(searcher);
+		}
+		current = searcher;
+	}
+
+	/**
+	 * Returns the current searcher with its reader's reference count raised.
+	 */
+	public IndexSearcher acquire() {
+		// the reader's own incRef is synchronized too, this only adds an uncontended monitor
+		synchronized (swapLock) {
+			if (current == null) {
+				throw new AlreadyClosedException("this SearcherManager is closed");
+			}
+			current.getIndexReader().incRef();
+			return current;
+		}
+	}
+
+	/**
+	 * Gives back a searcher obtained from {@link #acquire()}.
+	 */
+	public void release(IndexSearcher searcher) throws IOException {
+		searcher.getIndexReader().decRef();
+	}
+
+	/**
+	 * Reopens the reader and, if the index changed, warms and publishes a new
+	 * searcher. Concurrent calls wait for the running reopen.
+	 *
+	 * @return true if a new searcher was published
+	 */
+	public boolean maybeReopen() throws IOException {
+		synchronized (reopenLock) {
+			IndexSearcher searcher = current;
+			if (searcher == null) {
+				throw new AlreadyClosedException("this SearcherManager is closed");
+			}
+			IndexReader reader = searcher.getIndexReader();
+			IndexReader newReader = reader.reopen();
+			if (newReader == reader) {
+				return false;
+			}
+			if (unchanged(reader, newReader)) {
+				newReader.close();
+				return false;
+			}
+			IndexSearcher newSearcher = new IndexSearcher(newReader);
+			boolean success = false;
+			try {
+				if (warmer != null) {
+					warmer.warm(newSearcher);
+				}
+				success = true;
+			} finally {
+				if (!success) {
+					// a failed warm, checked or not, must not leak the reopened reader
+					newReader.close();
+				}
+			}
+			swap(newSearcher);
+			for (RefreshListener listener : listeners) {
+				listener.afterRefresh(newSearcher);
+			}
+			return true;
+		}
+	}
+
+	public void addRefreshListener(RefreshListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeRefreshListener(RefreshListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Reopens every intervalMillis on a background thread, until
+	 * {@link #close()}. Failures are printed and retried on the next run.
+	 */
+	public synchronized void startReopenThread(long intervalMillis) {
+		if (scheduler != null) {
+			throw new IllegalStateException("reopen thread already running");
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "searcher-reopen");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					maybeReopen();
+				} catch (AlreadyClosedException e) {
+					// closed while scheduled
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (RuntimeException e) {
+					// from a warmer or listener; thrown out of run() it would cancel the schedule
+					e.printStackTrace();
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops reopening and drops the manager's reference; searchers still
+	 * acquired stay usable until they are released.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+		}
+		synchronized (reopenLock) {
+			if (current != null) {
+				swap(null);
+			}
+		}
+	}
+
+	/**
+	 * A near-real-time reader always reopens to a new instance. New segments
+	 * change the version, buffered deletes only change the doc counts.
+	 */
+	private static boolean unchanged(IndexReader reader, IndexReader newReader) {
+		return reader.getVersion() == newReader.getVersion()
+				&& reader.maxDoc() == newReader.maxDoc()
+				&& reader.numDocs() == newReader.numDocs();
+	}
+
+	private void swap(IndexSearcher newSearcher) throws IOException {
+		IndexSearcher old;
+		synchronized (swapLock) {
+			old = current;
+			current = newSearcher;
+		}
+		old.getIndexReader().decRef();
+	}
+}
@@ -0,0 +1,128 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * A structure per segment and field, derived from the index on first use.
+ *
+ * Values are keyed on the segment core, like the FieldCache: a reopen shares
+ * them for every unchanged segment and only builds the new ones, and they
+ * are dropped with the segment once it is merged away. Registered as the
+ * {@link SearcherManager.SearcherWarmer} the values of the
+ * {@link #warmFields} are built before a new searcher takes requests.
+ *
+ * Readers of one core may differ in their deletions. A value built from
+ * postings or stored fields, which skip deleted documents, lacks the
+ * documents deleted in the reader that built it; see
+ * {@link #dependsOnDeletions}.
+ *
+ * @param <V> the per-segment structure
+ */
+public abstract class SegmentCache<V> implements SearcherManager.SearcherWarmer {
+	private final Map<Object, Map<String, Built<V>>> segments =
+			Collections.synchronizedMap(new WeakHashMap<Object, Map<String, Built<V>>>());
+
+	/**
+	 * derives the value of one field from a segment
+	 */
+	protected abstract V build(IndexReader segment, String field) throws IOException;
+
+	/**
+	 * estimated heap used by one value
+	 */
+	protected abstract long ramBytesUsed(V value);
+
+	/**
+	 * the fields {@link #warm} builds
+	 */
+	protected abstract Collection<String> warmFields();
+
+	/**
+	 * Whether values lack the documents deleted in the reader they were
+	 * built from. Deletions of a core only accumulate, so such a value is
+	 * complete for readers with at least as many deletions; a reader with
+	 * fewer, typically a searcher still in flight when a reopen added
+	 * deletions, builds the value again and the more complete one replaces
+	 * it.
+	 */
+	protected boolean dependsOnDeletions() {
+		return false;
+	}
+
+	/**
+	 * The value of a field for a segment reader, built by the first caller
+	 * while others asking for the same segment and field wait.
+	 */
+	protected V get(IndexReader segment, String field) throws IOException {
+		Object key = segment.getFieldCacheKey();
+		Map<String, Built<V>> perField;
+		synchronized (segments) {
+			perField = segments.get(key);
+			if (perField == null) {
+				perField = new HashMap<String, Built<V>>();
+				segments.put(key, perField);
+			}
+		}
+		synchronized (perField) {
+			Built<V> built = perField.get(field);
+			int deletions = segment.numDeletedDocs();
+			if (built == null || (deletions < built.deletions && dependsOnDeletions())) {
+				built = new Built<V>(build(segment, field), deletions);
+				perField.put(field, built);
+			}
+			return built.value;
+		}
+	}
+
+	/**
+	 * Builds the values of the warm fields for every segment of the searcher.
+	 */
+	public void warm(IndexSearcher searcher) throws IOException {
+		List<IndexReader> subReaders = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subReaders, searcher.getIndexReader());
+		for (IndexReader segment : subReaders) {
+			for (String field : warmFields()) {
+				get(segment, field);
+			}
+		}
+	}
+
+	/**
+	 * estimated heap used by the values of all segments
+	 */
+	public long ramBytesUsed() {
+		long bytes = 0;
+		synchronized (segments) {
+			for (Map<String, Built<V>> perField : segments.values()) {
+				synchronized (perField) {
+					for (Built<V> built : perField.values()) {
+						bytes += ramBytesUsed(built.value);
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private static class Built<V> {
+		final V value;
+		/** deleted documents of the reader the value was built from */
+		final int deletions;
+
+		Built(V value, int deletions) {
+			this.value = value;
+			this.deletions = deletions;
+		}
+	}
+}
@@ -0,0 +1,393 @@
+package com.chris.lucene_action.search;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.OpenBitSet;
+
+import com.chris.lucene_action.search.FacetIndex.SegmentFacets;
+
+import common.SegmentFiles;
+import common.SegmentFiles.Generation;
+
+/**
+ * Keeps the per-segment structures that are expensive to derive from the
+ * postings, {@link IntColumn}s, {@link FacetIndex} ordinals and
+ * {@link FilterCache} bitsets, as files next to the index, so a restarted
+ * searcher maps them in instead of rebuilding them on first use. Caches
+ * given a store read from it on a miss and write what they had to build.
+ *
+ * Segments never change once written except for deletions, and these
+ * structures lack the documents deleted in the reader that built them; as
+ * deletions only accumulate, a file also records their number and serves
+ * readers with at least as many. Each structure is one of the store's
+ * {@link SegmentFiles}, e.g. _3.int.pubmonth, and its header holds the
+ * segment's maxDoc and {@link SegmentFiles.Generation generation}: a
+ * segment of the same name in a recreated index does not match and is built
+ * again. {@link #prune} deletes the files of segments that were merged
+ * away; registered as a {@link SearcherManager.RefreshListener} the store
+ * prunes after every reopen, so one store must only serve one index.
+ *
+ * Int columns and per document facet ordinals are read straight from the
+ * mapped files; bitsets and facet labels are copied to the heap, as
+ * OpenBitSet and String need it. Segments that are not part of an index
+ * directory, e.g. of a MultiReader, are not stored. The store never fails
+ * a search: a file that cannot be written, or read back complete, is
+ * counted in {@link #getFailures} and the structure is kept on the heap.
+ */
+public class SegmentCacheStore implements SearcherManager.RefreshListener {
+	private static final int MAGIC = 0x4c415343;
+	private static final int FORMAT = 2;
+	private static final int HEADER = 48;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String INT_COLUMN = "int";
+	private static final String FACETS = "facets";
+	private static final String BITS = "bits";
+
+	private final SegmentFiles files;
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	public SegmentCacheStore(File dir) {
+		this.files = new SegmentFiles(dir);
+	}
+
+	/**
+	 * the store of an index directory, in its caches subdirectory
+	 */
+	public static SegmentCacheStore open(File indexDir) {
+		return new SegmentCacheStore(new File(indexDir, "caches"));
+	}
+
+	public File getDirectory() {
+		return files.getDirectory();
+	}
+
+	/**
+	 * number of structures mapped from a file instead of being built
+	 */
+	public long getReads() {
+		return reads.get();
+	}
+
+	/**
+	 * number of structures written after being built
+	 */
+	public long getWrites() {
+		return writes.get();
+	}
+
+	/**
+	 * number of files that could not be read or written, e.g. on a full
+	 * disk; their structures were built and kept on the heap instead
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	IntColumn readIntColumn(IndexReader segment, String field) {
+		ByteBuffer in = read(segment, INT_COLUMN, field);
+		if (in == null) {
+			return null;
+		}
+		try {
+			int min = in.getInt();
+			int max = in.getInt();
+			int words = in.getInt();
+			in.getInt(); // padding
+			LongBuffer bits = slice(in, 8 * words).asLongBuffer();
+			IntBuffer values = slice(in, 4 * segment.maxDoc()).asIntBuffer();
+			return mapped(new IntColumn(values, bits, min, max));
+		} catch (RuntimeException e) {
+			return corrupt();
+		}
+	}
+
+	void writeIntColumn(IndexReader segment, String field, IntColumn column) {
+		LongBuffer bits = column.getBits();
+		IntBuffer values = column.getValues();
+		ByteBuffer out = allocate(segment, field, 16 + 8L * bits.limit() + 4L * values.limit());
+		if (out == null) {
+			return;
+		}
+		out.putInt(column.getMin()).putInt(column.getMax()).putInt(bits.limit()).putInt(0);
+		while (bits.hasRemaining()) {
+			out.putLong(bits.get());
+		}
+		while (values.hasRemaining()) {
+			out.putInt(values.get());
+		}
+		write(segment, INT_COLUMN, field, out);
+	}
+
+	SegmentFacets readFacets(IndexReader segment, String field) {
+		ByteBuffer in = read(segment, FACETS, field);
+		if (in == null) {
+			return null;
+		}
+		try {
+			int ordCount = in.getInt();
+			int valueCount = in.getInt();
+			int nodeCount = in.getInt();
+			in.getInt(); // padding
+			IntBuffer offsets = slice(in, 4 * (segment.maxDoc() + 1)).asIntBuffer();
+			IntBuffer ords = slice(in, 4 * ordCount).asIntBuffer();
+			int[] valueNodes = new int[valueCount];
+			slice(in, 4 * valueCount).asIntBuffer().get(valueNodes);
+			int[] parents = new int[nodeCount];
+			slice(in, 4 * nodeCount).asIntBuffer().get(parents);
+			String[] labels = new String[nodeCount];
+			for (int node = 0; node < nodeCount; node++) {
+				byte[] utf8 = new byte[in.getInt()];
+				in.get(utf8);
+				labels[node] = new String(utf8, UTF8);
+			}
+			return mapped(new SegmentFacets(offsets, ords, valueNodes, labels, parents));
+		} catch (RuntimeException e) {
+			return corrupt();
+		}
+	}
+
+	void writeFacets(IndexReader segment, String field, SegmentFacets facets) {
+		IntBuffer offsets = facets.offsets.duplicate();
+		IntBuffer ords = facets.ords.duplicate();
+		byte[][] labels = new byte[facets.labels.length][];
+		long length = 16 + 4L * (offsets.limit() + ords.limit() + facets.valueNodes.length + facets.parents.length);
+		for (int node = 0; node < labels.length; node++) {
+			labels[node] = facets.labels[node].getBytes(UTF8);
+			length += 4 + labels[node].length;
+		}
+		ByteBuffer out = allocate(segment, field, length);
+		if (out == null) {
+			return;
+		}
+		out.putInt(ords.limit()).putInt(facets.valueNodes.length).putInt(facets.parents.length).putInt(0);
+		while (offsets.hasRemaining()) {
+			out.putInt(offsets.get());
+		}
+		while (ords.hasRemaining()) {
+			out.putInt(ords.get());
+		}
+		for (int node : facets.valueNodes) {
+			out.putInt(node);
+		}
+		for (int parent : facets.parents) {
+			out.putInt(parent);
+		}
+		for (byte[] label : labels) {
+			out.putInt(label.length).put(label);
+		}
+		write(segment, FACETS, field, out);
+	}
+
+	/**
+	 * @param key identifies the filter, the file name only holds its hash
+	 */
+	OpenBitSet readBits(IndexReader segment, String key) {
+		ByteBuffer in = read(segment, BITS, key);
+		if (in == null) {
+			return null;
+		}
+		try {
+			int words = in.getInt();
+			in.getInt(); // padding
+			long[] bits = new long[words];
+			slice(in, 8 * words).asLongBuffer().get(bits);
+			return mapped(new OpenBitSet(bits, words));
+		} catch (RuntimeException e) {
+			return corrupt();
+		}
+	}
+
+	void writeBits(IndexReader segment, String key, OpenBitSet bits) {
+		int words = bits.getNumWords();
+		ByteBuffer out = allocate(segment, key, 8 + 8L * words);
+		if (out == null) {
+			return;
+		}
+		out.putInt(words).putInt(0);
+		long[] array = bits.getBits();
+		for (int i = 0; i < words; i++) {
+			out.putLong(array[i]);
+		}
+		write(segment, BITS, key, out);
+	}
+
+	/**
+	 * Deletes the files of all segments that are not part of the reader.
+	 *
+	 * @return the number of files deleted
+	 */
+	public int prune(IndexReader reader) {
+		return files.prune(reader);
+	}
+
+	public void afterRefresh(IndexSearcher newSearcher) {
+		prune(newSearcher.getIndexReader());
+	}
+
+	/**
+	 * Removes all files.
+	 */
+	public void clear() {
+		files.clear();
+	}
+
+	/**
+	 * A buffer positioned after a header identifying the segment and key,
+	 * for a payload of the given length; null if the segment is not stored.
+	 */
+	private ByteBuffer allocate(IndexReader segment, String key, long payload) {
+		Generation generation = generation(segment);
+		if (generation == null) {
+			return null;
+		}
+		byte[] utf8 = key.getBytes(UTF8);
+		int header = align(HEADER + utf8.length);
+		if (header + payload > Integer.MAX_VALUE) {
+			return null;
+		}
+		ByteBuffer out = ByteBuffer.allocate((int) (header + payload)).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(FORMAT).putInt(segment.maxDoc()).putInt(utf8.length);
+		out.putLong(generation.modified).putLong(generation.length);
+		out.putInt(segment.numDeletedDocs()).putInt(0).putLong(payload);
+		out.put(utf8);
+		out.position(header);
+		return out;
+	}
+
+	// the payload is mapped as int and long views, so it starts 8 byte aligned
+	private static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	private void write(IndexReader segment, String kind, String key, ByteBuffer out) {
+		File file = file(segment, kind, key);
+		try {
+			File tmp = files.createTemp(file);
+			FileOutputStream stream = new FileOutputStream(tmp);
+			boolean complete = false;
+			try {
+				FileChannel channel = stream.getChannel();
+				out.flip();
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+				complete = true;
+			} finally {
+				stream.close();
+				if (!complete) {
+					tmp.delete();
+				}
+			}
+			files.rename(tmp, file);
+			writes.incrementAndGet();
+		} catch (IOException e) {
+			if (!isStored(segment, kind, key)) {
+				failures.incrementAndGet();
+			}
+		}
+	}
+
+	// e.g. by another thread that built the same structure and could replace the file
+	private boolean isStored(IndexReader segment, String kind, String key) {
+		try {
+			return header(segment, kind, key) != null;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * The file of the segment and key positioned at its payload, or null if
+	 * there is none for this generation of the segment or it lacks documents
+	 * this reader has not deleted.
+	 */
+	private ByteBuffer read(IndexReader segment, String kind, String key) {
+		try {
+			return header(segment, kind, key);
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			return null;
+		}
+	}
+
+	private ByteBuffer header(IndexReader segment, String kind, String key) throws IOException {
+		Generation generation = Generation.of(segment);
+		if (generation == null) {
+			return null;
+		}
+		File file = file(segment, kind, key);
+		if (!file.exists()) {
+			return null;
+		}
+		ByteBuffer in = SegmentFiles.map(file).order(ByteOrder.LITTLE_ENDIAN);
+		if (in.remaining() < HEADER || in.getInt() != MAGIC || in.getInt() != FORMAT
+				|| in.getInt() != segment.maxDoc()) {
+			return null;
+		}
+		int keyLength = in.getInt();
+		if (in.getLong() != generation.modified || in.getLong() != generation.length
+				|| in.getInt() > segment.numDeletedDocs()) {
+			return null;
+		}
+		in.getInt(); // padding
+		long payload = in.getLong();
+		if (keyLength < 0 || align(HEADER + keyLength) + payload != in.limit()) {
+			return null; // not completely written
+		}
+		byte[] utf8 = new byte[keyLength];
+		in.get(utf8);
+		if (!key.equals(new String(utf8, UTF8))) {
+			return null; // another filter with the same hash
+		}
+		in.position(align(HEADER + keyLength));
+		return in;
+	}
+
+	private Generation generation(IndexReader segment) {
+		try {
+			return Generation.of(segment);
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			return null;
+		}
+	}
+
+	private <T> T mapped(T structure) {
+		reads.incrementAndGet();
+		return structure;
+	}
+
+	private <T> T corrupt() {
+		failures.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * the next length bytes of the buffer as a buffer of their own
+	 */
+	private static ByteBuffer slice(ByteBuffer in, int length) {
+		ByteBuffer slice = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+		slice.limit(length);
+		in.position(in.position() + length);
+		return slice;
+	}
+
+	private File file(IndexReader segment, String kind, String key) {
+		String suffix = kind.equals(BITS) ? Integer.toHexString(key.hashCode()) : key;
+		return files.file(SegmentFiles.segmentName(segment), kind + "." + suffix);
+	}
+
+}
@@ -0,0 +1,261 @@
+package com.chris.lucene_action.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searchable;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+
+import common.DirectoryFactory;
+import common.ShardedWriter;
+
+/**
+ * Searches all shards written by {@link ShardedWriter} as one index.
+ *
+ * A query is scored on every shard in parallel on a shared executor, the
+ * calling thread taking the first shard, and the per-shard top hits are
+ * merged. Before that, term statistics are summed over the shards, so idf
+ * and therefore scores are the same as if all books were in a single index.
+ * Doc ids are global: shard i's documents start after those of the shards
+ * before it, see {@link #subSearcher(int)} and {@link #subDoc(int)}.
+ * Searches with a custom Collector run the shards one after the other.
+ */
+public class ShardedSearcher extends MultiSearcher {
+	private final ExecutorService executor;
+	// opened here, null if the caller owns them
+	private final IndexReader[] readers;
+	private final Directory[] directories;
+
+	/**
+	 * @param executor runs the shards' searches, shared between searchers and not shut down by close()
+	 */
+	public ShardedSearcher(ExecutorService executor, Searchable... shards) throws IOException {
+		this(executor, shards, null, null);
+	}
+
+	private ShardedSearcher(ExecutorService executor, Searchable[] shards, IndexReader[] readers,
+			Directory[] directories) throws IOException {
+		super(shards);
+		this.executor = executor;
+		this.readers = readers;
+		this.directories = directories;
+	}
+
+	/**
+	 * Opens a read-only searcher on every shard directory below indexDir.
+	 * Shards without documents, such as those left empty when the index was
+	 * rebuilt with fewer shards, are skipped; shard-0 is always searched.
+	 */
+	public static ShardedSearcher open(File indexDir, ExecutorService executor) throws IOException {
+		List<File> shardDirs = ShardedWriter.shardDirs(indexDir);
+		if (shardDirs.isEmpty()) {
+			throw new IOException("no shards in " + indexDir);
+		}
+		List<Directory> directories = new ArrayList<Directory>();
+		List<IndexReader> readers = new ArrayList<IndexReader>();
+		List<Searchable> shards = new ArrayList<Searchable>();
+		for (File shardDir : shardDirs) {
+			Directory directory = DirectoryFactory.open(shardDir);
+			IndexReader reader = shards.isEmpty() || IndexReader.indexExists(directory)
+					? IndexReader.open(directory, true) : null;
+			if (reader == null || (reader.maxDoc() == 0 && !shards.isEmpty())) {
+				if (reader != null) {
+					reader.close();
+				}
+				directory.close();
+				continue;
+			}
+			directories.add(directory);
+			readers.add(reader);
+			shards.add(new IndexSearcher(reader));
+		}
+		return new ShardedSearcher(executor, shards.toArray(new Searchable[shards.size()]),
+				readers.toArray(new IndexReader[readers.size()]), directories.toArray(new Directory[directories.size()]));
+	}
+
+	public int getShardCount() {
+		return getSearchables().length;
+	}
+
+	public TopDocs search(final Weight weight, final Filter filter, final int nDocs) throws IOException {
+		TopDocs[] results = searchShards(new ShardSearch<TopDocs>() {
+			public TopDocs search(Searchable shard) throws IOException {
+				return shard.search(weight, filter, nDocs);
+			}
+		}, new TopDocs[getSearchables().length]);
+		return new TopDocs(totalHits(results), merge(results, nDocs, BY_SCORE), maxScore(results));
+	}
+
+	public TopFieldDocs search(final Weight weight, final Filter filter, final int nDocs, final Sort sort)
+			throws IOException {
+		TopFieldDocs[] results = searchShards(new ShardSearch<TopFieldDocs>() {
+			public TopFieldDocs search(Searchable shard) throws IOException {
+				return shard.search(weight, filter, nDocs, sort);
+			}
+		}, new TopFieldDocs[getSearchables().length]);
+		SortField[] fields = results[0].fields;
+		return new TopFieldDocs(totalHits(results), merge(results, nDocs, byFields(fields)), fields,
+				maxScore(results));
+	}
+
+	private interface ShardSearch<T extends TopDocs> {
+		T search(Searchable shard) throws IOException;
+	}
+
+	/**
+	 * runs the search on every shard, the first on the calling thread, and rebases the hits' doc ids
+	 */
+	private <T extends TopDocs> T[] searchShards(final ShardSearch<T> search, T[] results) throws IOException {
+		final Searchable[] shards = getSearchables();
+		List<Future<T>> futures = new ArrayList<Future<T>>(shards.length - 1);
+		for (int i = 1; i < shards.length; i++) {
+			final Searchable shard = shards[i];
+			futures.add(executor.submit(new Callable<T>() {
+				public T call() throws IOException {
+					return search.search(shard);
+				}
+			}));
+		}
+		try {
+			results[0] = search.search(shards[0]);
+			for (int i = 1; i < shards.length; i++) {
+				results[i] = futures.get(i - 1).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while searching");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			IOException ioe = new IOException("search failed");
+			ioe.initCause(cause);
+			throw ioe;
+		} finally {
+			for (Future<T> future : futures) {
+				future.cancel(false);
+			}
+		}
+		int[] starts = getStarts();
+		for (int i = 0; i < results.length; i++) {
+			for (ScoreDoc hit : results[i].scoreDocs) {
+				hit.doc += starts[i];
+			}
+		}
+		return results;
+	}
+
+	private static int totalHits(TopDocs[] results) {
+		int totalHits = 0;
+		for (TopDocs result : results) {
+			totalHits += result.totalHits;
+		}
+		return totalHits;
+	}
+
+	private static float maxScore(TopDocs[] results) {
+		float maxScore = Float.NEGATIVE_INFINITY;
+		for (TopDocs result : results) {
+			maxScore = Math.max(maxScore, result.getMaxScore());
+		}
+		return maxScore;
+	}
+
+	// the hits of every shard are already in order, ties go to the lower doc id like in MultiSearcher
+	private static ScoreDoc[] merge(TopDocs[] results, int nDocs, Comparator<ScoreDoc> order) {
+		List<ScoreDoc> hits = new ArrayList<ScoreDoc>();
+		for (TopDocs result : results) {
+			hits.addAll(Arrays.asList(result.scoreDocs));
+		}
+		Collections.sort(hits, order);
+		List<ScoreDoc> top = hits.subList(0, Math.min(nDocs, hits.size()));
+		return top.toArray(new ScoreDoc[top.size()]);
+	}
+
+	private static final Comparator<ScoreDoc> BY_SCORE = new Comparator<ScoreDoc>() {
+		public int compare(ScoreDoc a, ScoreDoc b) {
+			if (a.score != b.score) {
+				return a.score > b.score ? -1 : 1;
+			}
+			return a.doc < b.doc ? -1 : a.doc == b.doc ? 0 : 1;
+		}
+	};
+
+	/**
+	 * Orders FieldDocs by the sort values the shards filled in, the way
+	 * Lucene's FieldDocSortedHitQueue does.
+	 */
+	private static Comparator<ScoreDoc> byFields(final SortField[] fields) {
+		final Collator[] collators = new Collator[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getType() == SortField.STRING && fields[i].getLocale() != null) {
+				collators[i] = Collator.getInstance(fields[i].getLocale());
+			}
+		}
+		return new Comparator<ScoreDoc>() {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			public int compare(ScoreDoc a, ScoreDoc b) {
+				Comparable[] x = ((FieldDoc) a).fields;
+				Comparable[] y = ((FieldDoc) b).fields;
+				for (int i = 0; i < fields.length; i++) {
+					int c;
+					if (fields[i].getType() == SortField.SCORE) {
+						c = ((Float) y[i]).compareTo((Float) x[i]); // higher scores first
+					} else if (x[i] == null || y[i] == null) {
+						c = x[i] == null ? (y[i] == null ? 0 : -1) : 1;
+					} else if (collators[i] != null) {
+						c = collators[i].compare(x[i], y[i]);
+					} else {
+						c = x[i].compareTo(y[i]);
+					}
+					if (fields[i].getReverse()) {
+						c = -c;
+					}
+					if (c != 0) {
+						return c;
+					}
+				}
+				return a.doc < b.doc ? -1 : a.doc == b.doc ? 0 : 1;
+			}
+		};
+	}
+
+	/**
+	 * Closes the shard searchers, and the readers and directories if they were opened here.
+	 */
+	public void close() throws IOException {
+		super.close();
+		if (directories != null) {
+			for (IndexReader reader : readers) {
+				reader.close();
+			}
+			for (Directory directory : directories) {
+				directory.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.chris.lucene_action.search;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import common.ShingleAnalyzer;
+import common.ShingleFilter;
+
+/**
+ * Replaces exact phrases over shingled fields by a single term lookup in the
+ * field's *_shingles companion: "lucene action" on title becomes the term
+ * "lucene action" of title_shingles, which matches the same documents
+ * without reading positions.
+ *
+ * Only phrases with slop 0 and 2 up to maxShingleSize terms at adjacent
+ * positions are rewritten; sloppy phrases, longer phrases and phrases with
+ * holes (e.g. from a removed stop word) keep their PhraseQuery. Scores of a
+ * rewritten phrase are those of the TermQuery. The index must have been
+ * built with the shingle fields, see common.BookDocument.
+ */
+public class ShinglePhraseRewriter {
+	private final int maxShingleSize;
+	private final Set<String> fields;
+
+	public ShinglePhraseRewriter(int maxShingleSize, String... fields) {
+		this.maxShingleSize = maxShingleSize;
+		this.fields = new HashSet<String>(Arrays.asList(fields));
+	}
+
+	/**
+	 * Returns the query with its exact phrases rewritten, or the query itself
+	 * if nothing could be rewritten. The given query is not modified.
+	 */
+	public Query rewrite(Query query) {
+		if (query instanceof PhraseQuery) {
+			return rewrite((PhraseQuery) query);
+		}
+		if (query instanceof BooleanQuery) {
+			return rewrite((BooleanQuery) query);
+		}
+		return query;
+	}
+
+	private Query rewrite(PhraseQuery phrase) {
+		Term[] terms = phrase.getTerms();
+		int[] positions = phrase.getPositions();
+		if (phrase.getSlop() != 0 || terms.length < 2 || terms.length > maxShingleSize
+				|| !fields.contains(terms[0].field())) {
+			return phrase;
+		}
+		StringBuilder shingle = new StringBuilder();
+		for (int i = 0; i < terms.length; i++) {
+			if (positions[i] != positions[0] + i) {
+				return phrase;
+			}
+			if (i > 0) {
+				shingle.append(ShingleFilter.SEPARATOR);
+			}
+			shingle.append(terms[i].text());
+		}
+		TermQuery query = new TermQuery(new Term(ShingleAnalyzer.shingleField(terms[0].field()), shingle.toString()));
+		query.setBoost(phrase.getBoost());
+		return query;
+	}
+
+	private Query rewrite(BooleanQuery query) {
+		BooleanClause[] clauses = query.getClauses();
+		BooleanQuery rewritten = null;
+		for (int i = 0; i < clauses.length; i++) {
+			Query clause = rewrite(clauses[i].getQuery());
+			if (clause != clauses[i].getQuery() && rewritten == null) {
+				rewritten = new BooleanQuery(query.isCoordDisabled());
+				rewritten.setBoost(query.getBoost());
+				rewritten.setMinimumNumberShouldMatch(query.getMinimumNumberShouldMatch());
+				for (int j = 0; j < i; j++) {
+					rewritten.add(clauses[j]);
+				}
+			}
+			if (rewritten != null) {
+				rewritten.add(clause, clauses[i].getOccur());
+			}
+		}
+		return rewritten == null ? query : rewritten;
+	}
+}
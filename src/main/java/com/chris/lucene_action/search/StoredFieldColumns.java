@@ -0,0 +1,79 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.index.IndexReader;
+
+/**
+ * In-memory columns of stored display fields such as title, one String[]
+ * per segment and field, so rendering hits does not read the stored-fields
+ * file at all.
+ *
+ * A column is filled by one pass over the segment's stored fields. Only the
+ * first value of a multi-valued field is kept; use it for single-valued
+ * fields.
+ */
+public class StoredFieldColumns extends SegmentCache<String[]> {
+	private final Set<String> warmFields;
+
+	/**
+	 * @param warmFields the fields {@link #warm} loads, any field can be loaded on demand
+	 */
+	public StoredFieldColumns(String... warmFields) {
+		this.warmFields = new HashSet<String>(Arrays.asList(warmFields));
+	}
+
+	/**
+	 * the column of a field for a segment reader, indexed by segment doc id
+	 */
+	public String[] getColumn(IndexReader segment, String field) throws IOException {
+		return get(segment, field);
+	}
+
+	protected Collection<String> warmFields() {
+		return warmFields;
+	}
+
+	// a deleted document's stored fields cannot be read
+	protected boolean dependsOnDeletions() {
+		return true;
+	}
+
+	protected String[] build(IndexReader segment, String field) throws IOException {
+		FieldSelector selector = onlyField(field);
+		String[] column = new String[segment.maxDoc()];
+		for (int doc = 0; doc < column.length; doc++) {
+			if (!segment.isDeleted(doc)) {
+				column[doc] = segment.document(doc, selector).get(field);
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * loads the first value of field and stops reading the document
+	 */
+	static FieldSelector onlyField(final String field) {
+		return new FieldSelector() {
+			public FieldSelectorResult accept(String fieldName) {
+				return field.equals(fieldName) ? FieldSelectorResult.LOAD_AND_BREAK : FieldSelectorResult.NO_LOAD;
+			}
+		};
+	}
+
+	protected long ramBytesUsed(String[] column) {
+		long bytes = 16 + 8L * column.length;
+		for (String value : column) {
+			if (value != null) {
+				bytes += 40 + 2L * value.length();
+			}
+		}
+		return bytes;
+	}
+}
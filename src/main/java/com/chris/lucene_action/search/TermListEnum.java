@@ -0,0 +1,47 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+
+/**
+ * Enumerates a precomputed, sorted list of terms of one field, positioned
+ * on the first term like the enum returned by IndexReader.terms(Term).
+ * Document frequencies are looked up in the reader on demand.
+ */
+class TermListEnum extends TermEnum {
+	private final IndexReader reader;
+	private final String field;
+	private final String[] texts;
+	private int upto;
+
+	TermListEnum(IndexReader reader, String field, String[] texts) {
+		this.reader = reader;
+		this.field = field;
+		this.texts = texts;
+	}
+
+	public boolean next() {
+		if (upto < texts.length) {
+			upto++;
+		}
+		return upto < texts.length;
+	}
+
+	public Term term() {
+		return upto < texts.length ? new Term(field, texts[upto]) : null;
+	}
+
+	public int docFreq() {
+		try {
+			return upto < texts.length ? reader.docFreq(new Term(field, texts[upto])) : 0;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void close() {
+	}
+}
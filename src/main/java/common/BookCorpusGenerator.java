@@ -0,0 +1,386 @@
+package common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Deterministic generator of synthetic books in the schema of the
+ * .properties files under data/: isbn, title, author list, subject,
+ * pubmonth, url and a category path.
+ *
+ * Title and subject words, authors and category names are drawn from Zipf
+ * distributions, so a few terms are very frequent and most are rare, like in
+ * a real catalog. The most frequent ranks are the words and categories of
+ * the real data (lucene, junit, /technology/computers/programming, ...), so
+ * the queries of the test suite also hit the synthetic corpus.
+ *
+ * Every book is derived only from the seed and its number, which makes a
+ * corpus reproducible and lets ranges of books be generated in parallel
+ * without holding anything but the shared lookup tables in memory.
+ */
+public class BookCorpusGenerator {
+
+	/**
+	 * receives generated books, called concurrently by {@link #index}
+	 */
+	public interface BookSink {
+		void book(String category, String isbn, String title, String author, String url,
+				String subject, String pubmonth) throws IOException;
+	}
+
+	private static final String[] WORDS = {
+		"action", "java", "lucene", "search", "programming", "junit", "ant", "testing", "in",
+		"second", "edition", "software", "development", "health", "mind", "body", "tao",
+		"te", "ching", "godel", "escher", "bach", "wild", "mild", "child", "mildew"
+	};
+	private static final String[] FIRST_NAMES = {
+		"Erik", "Otis", "Michael", "Steve", "Andy", "Dave", "Douglas", "Tim", "Stephen", "Petar"
+	};
+	private static final String[] LAST_NAMES = {
+		"Hatcher", "Gospodnetic", "McCandless", "Loughran", "Hunt", "Thomas", "Hofstadter",
+		"Tahchiev", "Leme", "Massol"
+	};
+	// category names per depth, the real ones first
+	private static final String[][] CATEGORIES = {
+		{"technology", "health", "philosophy", "education"},
+		{"computers", "alternative", "eastern", "pedagogy"},
+		{"programming", "ai", "chinese"},
+		{"methodology", "education"},
+	};
+	private static final String CONSONANTS = "bcdfghjklmnprstvwxyz";
+	private static final String VOWELS = "aeiou";
+
+	private final long seed;
+	private int vocabularySize = 50000;
+	private int authorNames = 5000;
+	private int categoryNames = 50;
+	private double zipfExponent = 1.07;
+	// probability of a category path having 1, 2, 3, ... levels
+	private double[] categoryDepths = {0.1, 0.2, 0.4, 0.2, 0.1};
+	private int firstYear = 1970;
+	private int lastYear = 2020;
+
+	private volatile Tables tables;
+
+	public BookCorpusGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	public BookCorpusGenerator setVocabularySize(int vocabularySize) {
+		this.vocabularySize = Math.max(vocabularySize, WORDS.length);
+		tables = null;
+		return this;
+	}
+
+	/**
+	 * number of distinct first names and of distinct last names
+	 */
+	public BookCorpusGenerator setAuthorNames(int authorNames) {
+		this.authorNames = Math.max(authorNames, FIRST_NAMES.length);
+		tables = null;
+		return this;
+	}
+
+	/**
+	 * number of distinct category names per level
+	 */
+	public BookCorpusGenerator setCategoryNames(int categoryNames) {
+		this.categoryNames = Math.max(categoryNames, CATEGORIES[0].length);
+		tables = null;
+		return this;
+	}
+
+	/**
+	 * exponent s of the Zipf distributions, rank r is drawn with weight 1/r^s
+	 */
+	public BookCorpusGenerator setZipfExponent(double zipfExponent) {
+		this.zipfExponent = zipfExponent;
+		tables = null;
+		return this;
+	}
+
+	/**
+	 * relative weights of category paths with 1, 2, 3, ... levels
+	 */
+	public BookCorpusGenerator setCategoryDepths(double... categoryDepths) {
+		this.categoryDepths = categoryDepths.clone();
+		tables = null;
+		return this;
+	}
+
+	public BookCorpusGenerator setYears(int firstYear, int lastYear) {
+		this.firstYear = firstYear;
+		this.lastYear = lastYear;
+		return this;
+	}
+
+	/**
+	 * Generates the books numbered from (inclusive) to to (exclusive).
+	 */
+	public void generate(long from, long to, BookSink sink) throws IOException {
+		Tables t = tables();
+		StringBuilder buffer = new StringBuilder();
+		Random random = new Random();
+		for (long n = from; n < to; n++) {
+			random.setSeed(mix(seed + mix(n)));
+
+			String isbn = String.format("978%010d", n);
+
+			buffer.setLength(0);
+			int depth = t.depths.sample(random) + 1;
+			for (int level = 0; level < depth; level++) {
+				buffer.append('/').append(t.categories[level][t.categoryRanks.sample(random)]);
+			}
+			String category = buffer.toString();
+
+			String title = words(t, random, buffer, 2 + random.nextInt(6), true);
+			String subject = words(t, random, buffer, 1 + random.nextInt(4), false);
+
+			buffer.setLength(0);
+			int authors = 1 + random.nextInt(3);
+			for (int i = 0; i < authors; i++) {
+				if (i > 0) {
+					buffer.append(',');
+				}
+				buffer.append(t.firstNames[t.authorRanks.sample(random)]).append(' ')
+						.append(t.lastNames[t.authorRanks.sample(random)]);
+			}
+			String author = buffer.toString();
+
+			int year = firstYear + random.nextInt(lastYear - firstYear + 1);
+			String pubmonth = String.valueOf(year * 100 + 1 + random.nextInt(12));
+
+			sink.book(category, isbn, title, author, "http://www.example.com/books/" + isbn, subject, pubmonth);
+		}
+	}
+
+	/**
+	 * Writes count books as .properties files below dataDir, one directory
+	 * per category, in the layout CreateTestIndex reads.
+	 */
+	public void writeTo(final File dataDir, long count) throws IOException {
+		generate(0, count, new BookSink() {
+			public void book(String category, String isbn, String title, String author, String url,
+					String subject, String pubmonth) throws IOException {
+				Properties props = new Properties();
+				props.setProperty("isbn", isbn);
+				props.setProperty("title", title);
+				props.setProperty("author", author);
+				props.setProperty("url", url);
+				props.setProperty("subject", subject);
+				props.setProperty("pubmonth", pubmonth);
+				File dir = new File(dataDir, category.replace('/', File.separatorChar));
+				dir.mkdirs();
+				OutputStream out = new FileOutputStream(new File(dir, isbn + ".properties"));
+				try {
+					props.store(out, null);
+				} finally {
+					out.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Streams count books straight into the writer, generating disjoint
+	 * ranges of books on the given number of threads.
+	 */
+	public void index(final IndexWriter writer, long count, int threads) throws IOException {
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> workers = new ArrayList<Thread>();
+		long chunk = (count + threads - 1) / threads;
+		for (int i = 0; i < threads; i++) {
+			final long from = Math.min(count, i * chunk);
+			final long to = Math.min(count, from + chunk);
+			workers.add(new Thread("corpus-generator-" + i) {
+				public void run() {
+					final BookDocument template = new BookDocument();
+					try {
+						generate(from, to, new BookSink() {
+							public void book(String category, String isbn, String title, String author,
+									String url, String subject, String pubmonth) throws IOException {
+								writer.addDocument(template.fill(category, isbn, title, author, url, subject, pubmonth));
+							}
+						});
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			});
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		try {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while generating books");
+		}
+		Throwable t = failure.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t != null) {
+			IOException ioe = new IOException("generating books failed");
+			ioe.initCause(t);
+			throw ioe;
+		}
+	}
+
+	private static String words(Tables t, Random random, StringBuilder buffer, int count, boolean capitalize) {
+		buffer.setLength(0);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				buffer.append(' ');
+			}
+			String word = t.words[t.wordRanks.sample(random)];
+			if (capitalize) {
+				buffer.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+			} else {
+				buffer.append(word);
+			}
+		}
+		return buffer.toString();
+	}
+
+	private Tables tables() {
+		Tables t = tables;
+		if (t == null) {
+			t = tables = new Tables();
+		}
+		return t;
+	}
+
+	/**
+	 * The word lists and samplers, built once and shared by all threads.
+	 */
+	private class Tables {
+		final String[] words = names(WORDS, vocabularySize, "");
+		final String[] firstNames = capitalize(names(FIRST_NAMES, authorNames, "a"));
+		final String[] lastNames = capitalize(names(LAST_NAMES, authorNames, "o"));
+		final String[][] categories = new String[categoryDepths.length][];
+		final Sampler wordRanks = Sampler.zipf(vocabularySize, zipfExponent);
+		final Sampler authorRanks = Sampler.zipf(authorNames, zipfExponent);
+		final Sampler categoryRanks = Sampler.zipf(categoryNames, zipfExponent);
+		final Sampler depths = new Sampler(categoryDepths);
+
+		Tables() {
+			for (int level = 0; level < categories.length; level++) {
+				String[] real = level < CATEGORIES.length ? CATEGORIES[level] : new String[0];
+				categories[level] = names(real, categoryNames, "");
+			}
+		}
+	}
+
+	/**
+	 * the real names first, then synthetic words until size is reached
+	 */
+	private static String[] names(String[] real, int size, String suffix) {
+		String[] names = Arrays.copyOf(real, size);
+		for (int rank = real.length; rank < size; rank++) {
+			names[rank] = syllables(rank) + suffix;
+		}
+		return names;
+	}
+
+	private static String[] capitalize(String[] names) {
+		for (int i = 0; i < names.length; i++) {
+			names[i] = Character.toUpperCase(names[i].charAt(0)) + names[i].substring(1);
+		}
+		return names;
+	}
+
+	/**
+	 * a pronounceable word unique to the rank, at least two syllables long
+	 */
+	private static String syllables(int rank) {
+		int syllableCount = CONSONANTS.length() * VOWELS.length();
+		StringBuilder word = new StringBuilder();
+		int n = rank;
+		do {
+			int syllable = n % syllableCount;
+			word.append(CONSONANTS.charAt(syllable / VOWELS.length())).append(VOWELS.charAt(syllable % VOWELS.length()));
+			n /= syllableCount;
+		} while (n > 0 || word.length() < 4);
+		return word.toString();
+	}
+
+	// splitmix64 finalizer, spreads consecutive book numbers over the seed space
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Draws indexes with probability proportional to the given weights by
+	 * binary search over the cumulative weights.
+	 */
+	static class Sampler {
+		private final double[] cumulative;
+
+		Sampler(double[] weights) {
+			cumulative = new double[weights.length];
+			double sum = 0;
+			for (int i = 0; i < weights.length; i++) {
+				sum += weights[i];
+				cumulative[i] = sum;
+			}
+		}
+
+		static Sampler zipf(int size, double exponent) {
+			double[] weights = new double[size];
+			for (int rank = 0; rank < size; rank++) {
+				weights[rank] = 1 / Math.pow(rank + 1, exponent);
+			}
+			return new Sampler(weights);
+		}
+
+		int sample(Random random) {
+			double target = random.nextDouble() * cumulative[cumulative.length - 1];
+			int index = Arrays.binarySearch(cumulative, target);
+			return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+		}
+	}
+
+	/**
+	 * Generates a corpus, either as files or straight into an index:
+	 * BookCorpusGenerator count seed (data-dir | -index index-dir)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3 || args.length != (args[2].equals("-index") ? 4 : 3)) {
+			System.err.println("usage: BookCorpusGenerator count seed (data-dir | -index index-dir)");
+			System.exit(1);
+		}
+		long count = Long.parseLong(args[0]);
+		BookCorpusGenerator generator = new BookCorpusGenerator(Long.parseLong(args[1]));
+		long start = System.nanoTime();
+		if (args[2].equals("-index")) {
+			Directory dir = FSDirectory.open(new File(args[3]));
+			IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+					IndexWriter.MaxFieldLength.UNLIMITED);
+			generator.index(writer, count, Runtime.getRuntime().availableProcessors());
+			writer.close();
+			dir.close();
+		} else {
+			generator.writeTo(new File(args[2]), count);
+		}
+		System.out.println(String.format("%d books in %d ms", count, (System.nanoTime() - start) / 1000000));
+	}
+}
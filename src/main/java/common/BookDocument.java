@@ -0,0 +1,184 @@
+package common;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+
+/**
+ * Reusable template for the book documents built by
+ * {@link CreateTestIndex#getDocument(String, java.io.File)}.
+ *
+ * The Document, its Field/NumericField instances and the Properties used to
+ * parse a book are allocated once and only get new values for every book.
+ * IndexWriter consumes a document before addDocument returns, so one
+ * template per indexing thread is enough; a template must not be shared
+ * between threads, and a filled document is only valid until the next fill.
+ *
+ * Which fields are stored and indexed, and how, comes from a {@link FieldSchema}.
+ * With -Dindex.shingles=true title and contents also get the companion fields
+ * title_shingles and contents_shingles, holding the word n-grams of up to
+ * {@link #MAX_SHINGLE_SIZE} words that answer exact phrases with a single
+ * term lookup; they need the {@link ShingleAnalyzer} of
+ * {@link CreateTestIndex#getAnalyzer()}.
+ */
+public class BookDocument {
+	public static final int MAX_SHINGLE_SIZE = 3;
+
+	private final Properties props = new Properties();
+	private final Document doc = new Document();
+
+	private final FieldSchema schema;
+	private final Field isbn;
+	private final Field category;
+	private final Field title;
+	private final Field title2;
+	private final List<Field> authors = new ArrayList<Field>();
+	private final Field url;
+	private final Field subject;
+	private final NumericField pubmonth;
+	private final NumericField pubmonthAsDay;
+	private final Field[] contents = new Field[4];
+	private final boolean shingles;
+	private final Field titleShingles;
+	private final Field[] contentsShingles = new Field[contents.length];
+
+	public BookDocument() {
+		this(FieldSchema.getDefault(), isShinglesEnabled());
+	}
+
+	public BookDocument(boolean shingles) {
+		this(FieldSchema.getDefault(), shingles);
+	}
+
+	/**
+	 * @param schema how each field is stored and indexed, disabled fields are left out
+	 */
+	public BookDocument(FieldSchema schema, boolean shingles) {
+		this.schema = schema;
+		this.shingles = shingles;
+		isbn = schema.newField("isbn");
+		category = schema.newField("category");
+		title = schema.newField("title");
+		title2 = schema.newField("title2");
+		url = schema.newField("url");
+		subject = schema.newField("subject");
+		pubmonth = schema.newNumericField("pubmonth");
+		pubmonthAsDay = schema.newNumericField("pubmonthAsDay");
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = schema.newField("contents");
+		}
+		if (shingles) {
+			titleShingles = schema.newField(ShingleAnalyzer.shingleField("title"));
+			for (int i = 0; i < contents.length; i++) {
+				contentsShingles[i] = schema.newField(ShingleAnalyzer.shingleField("contents"));
+			}
+		} else {
+			titleShingles = null;
+		}
+	}
+
+	public static boolean isShinglesEnabled() {
+		return Boolean.getBoolean("index.shingles");
+	}
+
+	/**
+	 * the Properties instance to load a book into, cleared on every call
+	 */
+	public Properties properties() {
+		props.clear();
+		return props;
+	}
+
+	public Document fill(String category, Properties props) {
+		return fill(category,
+				props.getProperty("isbn"),
+				props.getProperty("title"),
+				props.getProperty("author"),
+				props.getProperty("url"),
+				props.getProperty("subject"),
+				props.getProperty("pubmonth"));
+	}
+
+	public Document fill(String category, String isbn, String title, String author, String url,
+			String subject, String pubmonth) {
+		List<?> fields = doc.getFields(); // the live field list of the document
+		fields.clear();
+
+		add(this.isbn, isbn);
+		add(this.category, category);
+		add(this.title, title);
+		add(title2, title.toLowerCase());
+
+		// split multiple authors into unique field instances, same as author.split(",")
+		int length = author.length();
+		while (length > 0 && author.charAt(length - 1) == ',') {
+			length--; // split drops trailing empty values
+		}
+		int count = 0;
+		for (int start = 0; start <= length && (length > 0 || author.length() == 0); count++) {
+			int end = author.indexOf(',', start);
+			if (end == -1 || end > length) {
+				end = length;
+			}
+			if (count == authors.size()) {
+				authors.add(schema.newField("author"));
+			}
+			add(authors.get(count), author.substring(start, end));
+			start = end + 1;
+		}
+
+		add(this.url, url);
+		add(this.subject, subject);
+
+		if (this.pubmonth != null) {
+			doc.add(this.pubmonth.setIntValue(Integer.parseInt(pubmonth)));
+		}
+		if (pubmonthAsDay != null) {
+			doc.add(pubmonthAsDay.setIntValue(toDay(pubmonth)));
+		}
+
+		add(contents[0], title);
+		add(contents[1], subject);
+		add(contents[2], author);
+		add(contents[3], category);
+
+		if (shingles) {
+			add(titleShingles, title);
+			add(contentsShingles[0], title);
+			add(contentsShingles[1], subject);
+			add(contentsShingles[2], author);
+			add(contentsShingles[3], category);
+		}
+		return doc;
+	}
+
+	private void add(Field field, String value) {
+		if (field != null) { // disabled in the schema
+			field.setValue(value);
+			doc.add(field);
+		}
+	}
+
+	/**
+	 * Days since the epoch of a DateTools date string. yyyyMM is computed
+	 * directly, DateTools parses through a shared, synchronized formatter.
+	 */
+	static int toDay(String pubmonth) {
+		if (pubmonth.length() == 6) {
+			int value = Integer.parseInt(pubmonth);
+			return (int) LocalDate.of(value / 100, value % 100, 1).toEpochDay();
+		}
+		try {
+			return (int) (DateTools.stringToDate(pubmonth).getTime() / (1000 * 3600 * 24));
+		} catch (ParseException pe) {
+			throw new RuntimeException(pe);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+import org.apache.lucene.index.IndexReader;
+
+import common.SegmentFiles.Generation;
+
+/**
+ * Display fields such as title laid out as memory-mapped columns next to
+ * the index, so hits are rendered without the stored-fields path and
+ * without keeping the values on the heap.
+ *
+ * Every segment gets two files per field in the store's {@link SegmentFiles}:
+ * _N.field.off, a header with the segment's maxDoc and
+ * {@link SegmentFiles.Generation generation} followed by maxDoc + 1 int
+ * offsets, and _N.field.dat, the UTF-8 values back to back; the columns
+ * of a segment of the same name in an index that was since created again
+ * do not match. {@link #sync} is called after a commit: it writes the
+ * columns of new segments, e.g. those created by a merge, from their stored
+ * fields and deletes the files of segments that are gone. Deletions keep the doc ids of a segment, so its columns
+ * stay valid; deleted documents simply never show up as hits.
+ *
+ * The fields are chosen with -Dindex.columns=isbn,title,url,category; by
+ * default there are none and the store is not written.
+ */
+public class ColumnStore {
+	private static final String OFFSETS = ".off";
+	private static final String DATA = ".dat";
+	private static final int HEADER = 20;
+
+	private final SegmentFiles files;
+	private final List<String> fields;
+	private final Map<Object, Map<String, Column>> segments =
+			Collections.synchronizedMap(new WeakHashMap<Object, Map<String, Column>>());
+
+	public ColumnStore(File dir, String... fields) {
+		this.files = new SegmentFiles(dir);
+		this.fields = Arrays.asList(fields);
+	}
+
+	public static String[] getDefaultFields() {
+		String fields = System.getProperty("index.columns", "").trim();
+		return fields.length() == 0 ? new String[0] : fields.split("\\s*,\\s*");
+	}
+
+	/**
+	 * the store of an index directory, in its columns subdirectory
+	 */
+	public static ColumnStore open(File indexDir, String... fields) {
+		return new ColumnStore(new File(indexDir, "columns"), fields);
+	}
+
+	public List<String> getFields() {
+		return fields;
+	}
+
+	public boolean hasField(String field) {
+		return fields.contains(field);
+	}
+
+	/**
+	 * Writes the columns of every segment of the reader that has none yet and
+	 * removes the files of all other segments.
+	 *
+	 * @return the number of columns written
+	 */
+	public int sync(IndexReader reader) throws IOException {
+		int written = 0;
+		for (IndexReader segment : SegmentFiles.segments(reader)) {
+			String name = segmentName(segment);
+			for (String field : fields) {
+				if (!isSynced(segment, offsetsFile(name, field))) {
+					write(segment, name, field);
+					written++;
+				}
+			}
+		}
+		files.prune(reader);
+		return written;
+	}
+
+	/**
+	 * Removes all columns, before an index is created from scratch and
+	 * reuses segment names.
+	 */
+	public void clear() {
+		segments.clear();
+		files.clear();
+	}
+
+	private static String segmentName(IndexReader segment) {
+		String name = SegmentFiles.segmentName(segment);
+		if (name == null) {
+			throw new IllegalArgumentException("not a segment of an index directory: " + segment);
+		}
+		return name;
+	}
+
+	private File offsetsFile(String segment, String field) {
+		return files.file(segment, field + OFFSETS);
+	}
+
+	private File dataFile(String segment, String field) {
+		return files.file(segment, field + DATA);
+	}
+
+	// the data file first and the offsets file last, each renamed into place once complete
+	private void write(IndexReader segment, String name, String field) throws IOException {
+		Generation generation = Generation.of(segment);
+		int maxDoc = segment.maxDoc();
+		int[] offsets = new int[maxDoc + 1];
+		FieldSelector selector = onlyField(field);
+		File data = files.createTemp(dataFile(name, field));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data)));
+		try {
+			long length = 0;
+			for (int doc = 0; doc < maxDoc; doc++) {
+				String value = segment.isDeleted(doc) ? null : segment.document(doc, selector).get(field);
+				if (value != null) {
+					byte[] bytes = value.getBytes("UTF-8");
+					out.write(bytes);
+					length += bytes.length;
+					if (length > Integer.MAX_VALUE) {
+						throw new IOException("column " + field + " of segment " + name + " exceeds 2GB");
+					}
+				}
+				offsets[doc + 1] = (int) length;
+			}
+		} finally {
+			out.close();
+		}
+		files.rename(data, dataFile(name, field));
+
+		File offsetsTmp = files.createTemp(offsetsFile(name, field));
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsTmp)));
+		try {
+			out.writeInt(maxDoc);
+			out.writeLong(generation.modified);
+			out.writeLong(generation.length);
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+		} finally {
+			out.close();
+		}
+		files.rename(offsetsTmp, offsetsFile(name, field));
+	}
+
+	/**
+	 * whether the offsets file is complete and written for this segment
+	 */
+	private static boolean isSynced(IndexReader segment, File offsets) throws IOException {
+		if (!offsets.exists()) {
+			return false;
+		}
+		Generation generation = Generation.of(segment);
+		RandomAccessFile file = new RandomAccessFile(offsets, "r");
+		try {
+			if (file.length() < HEADER) {
+				return false;
+			}
+			int maxDoc = file.readInt();
+			return maxDoc == segment.maxDoc() && file.readLong() == generation.modified
+					&& file.readLong() == generation.length && file.length() == HEADER + 4L * (maxDoc + 1);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * loads the first value of field and stops reading the document
+	 */
+	private static FieldSelector onlyField(final String field) {
+		return new FieldSelector() {
+			public FieldSelectorResult accept(String fieldName) {
+				return field.equals(fieldName) ? FieldSelectorResult.LOAD_AND_BREAK : FieldSelectorResult.NO_LOAD;
+			}
+		};
+	}
+
+	/**
+	 * The mapped column of a field for a segment reader, or null if the
+	 * segment was not synced yet, e.g. a near-real-time segment.
+	 */
+	public Column getColumn(IndexReader segment, String field) throws IOException {
+		if (!hasField(field)) {
+			return null;
+		}
+		Object key = segment.getFieldCacheKey();
+		Map<String, Column> columns;
+		synchronized (segments) {
+			columns = segments.get(key);
+			if (columns == null) {
+				columns = new HashMap<String, Column>();
+				segments.put(key, columns);
+			}
+		}
+		synchronized (columns) {
+			Column column = columns.get(field);
+			if (column == null) {
+				String name = segmentName(segment);
+				if (!isSynced(segment, offsetsFile(name, field))) {
+					return null;
+				}
+				column = new Column(SegmentFiles.map(offsetsFile(name, field)), SegmentFiles.map(dataFile(name, field)));
+				columns.put(field, column);
+			}
+			return column;
+		}
+	}
+
+	/**
+	 * One field of one segment, read straight from the mapped files.
+	 */
+	public static class Column {
+		private final IntBuffer offsets;
+		private final ByteBuffer data;
+
+		Column(ByteBuffer offsets, ByteBuffer data) {
+			offsets.position(HEADER);
+			this.offsets = offsets.slice().asIntBuffer();
+			this.data = data;
+		}
+
+		public int size() {
+			return offsets.limit() - 1;
+		}
+
+		/**
+		 * The UTF-8 bytes of the value of doc as a read-only view of the
+		 * mapped file; empty if doc has no value.
+		 */
+		public ByteBuffer getBytes(int doc) {
+			ByteBuffer bytes = data.asReadOnlyBuffer();
+			bytes.limit(offsets.get(doc + 1));
+			bytes.position(offsets.get(doc));
+			return bytes.slice();
+		}
+
+		/**
+		 * the value of doc, null if it has none or it is empty
+		 */
+		public String get(int doc) throws IOException {
+			ByteBuffer bytes = getBytes(doc);
+			if (!bytes.hasRemaining()) {
+				return null;
+			}
+			byte[] utf8 = new byte[bytes.remaining()];
+			bytes.get(utf8);
+			return new String(utf8, "UTF-8");
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams the .properties files below a root directory to a {@link Visitor}
+ * while the tree is still being walked, instead of collecting them into a
+ * list first.
+ *
+ * Directories go on a shared deque that several walker threads pull from, so
+ * sibling subtrees such as data/technology and data/health are listed in
+ * parallel. Files are never queued by the walker itself; directory entries
+ * are read lazily through a {@link DirectoryStream} and handed over one at a
+ * time, so the visitor's own bounded queue sets the memory ceiling. The
+ * deque is used depth first, which keeps the number of pending directories
+ * close to depth times fan-out rather than the size of the tree.
+ */
+public class CorpusWalker {
+
+	public interface Visitor {
+		/**
+		 * Called concurrently from the walker threads, may block for backpressure.
+		 */
+		void visit(File file) throws IOException, InterruptedException;
+	}
+
+	private static final Path END = new File("").toPath();
+
+	private final Path root;
+	private final int threads;
+
+	public CorpusWalker(File root, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be >= 1: " + threads);
+		}
+		this.root = root.toPath();
+		this.threads = threads;
+	}
+
+	/**
+	 * Walks the whole tree and returns once every file has been visited.
+	 * The first failure stops the walk and is rethrown.
+	 */
+	public void walk(final Visitor visitor) throws IOException, InterruptedException {
+		final LinkedBlockingDeque<Path> dirs = new LinkedBlockingDeque<Path>();
+		final AtomicInteger pending = new AtomicInteger(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		dirs.addFirst(root);
+
+		List<Thread> walkers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			walkers.add(new Thread("corpus-walker-" + i) {
+				public void run() {
+					try {
+						Path dir;
+						while ((dir = dirs.takeFirst()) != END) {
+							try {
+								if (failure.get() == null) {
+									list(dir, dirs, pending, visitor);
+								}
+							} catch (Throwable t) {
+								failure.compareAndSet(null, t);
+							} finally {
+								if (pending.decrementAndGet() == 0) {
+									// last directory done, release every walker
+									for (int j = 0; j < threads; j++) {
+										dirs.addLast(END);
+									}
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		for (Thread walker : walkers) {
+			walker.start();
+		}
+		for (Thread walker : walkers) {
+			walker.join();
+		}
+
+		Throwable t = failure.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof InterruptedException) {
+			throw (InterruptedException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+	}
+
+	private static void list(Path dir, LinkedBlockingDeque<Path> dirs, AtomicInteger pending, Visitor visitor)
+			throws IOException, InterruptedException {
+		DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+		try {
+			for (Path entry : entries) {
+				if (entry.getFileName().toString().endsWith(".properties")) {
+					visitor.visit(entry.toFile());
+				} else if (Files.isDirectory(entry)) {
+					pending.incrementAndGet();
+					dirs.addFirst(entry);
+				}
+			}
+		} finally {
+			entries.close();
+		}
+	}
+}
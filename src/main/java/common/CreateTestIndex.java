@@ -3,17 +3,14 @@ package common;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Properties;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
@@ -21,7 +18,6 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 
@@ -30,84 +26,44 @@ public class CreateTestIndex {
 	public static Directory dir;
 	public final static String _DIR = System.getProperty("user.dir");
 	 public static Document getDocument(String rootDir, File file) throws IOException {
-		    Properties props = new Properties();
-		    props.load(new FileInputStream(file));
-
-		    Document doc = new Document();
-
-		    // category comes from relative path below the base directory
-		    String category = file.getParent().substring(rootDir.length());    //1
-		    category = category.replace(File.separatorChar, '/');              //1
-
-		    String isbn = props.getProperty("isbn");         //2
-		    String title = props.getProperty("title");       //2
-		    String author = props.getProperty("author");     //2
-		    String url = props.getProperty("url");           //2
-		    String subject = props.getProperty("subject");   //2
-
-		    String pubmonth = props.getProperty("pubmonth"); //2
-
-		    System.out.println(title + "\n" + author + "\n" + subject + "\n" + pubmonth + "\n" + category + "\n---------");
-
-		    doc.add(new Field("isbn",                     // 3
-		                      isbn,                       // 3
-		                      Field.Store.YES,            // 3
-		                      Field.Index.NOT_ANALYZED)); // 3
-		    doc.add(new Field("category",                 // 3
-		                      category,                   // 3
-		                      Field.Store.YES,            // 3
-		                      Field.Index.NOT_ANALYZED)); // 3
-		    doc.add(new Field("title",                    // 3
-		                      title,                      // 3
-		                      Field.Store.YES,            // 3
-		                      Field.Index.ANALYZED,       // 3
-		                      Field.TermVector.WITH_POSITIONS_OFFSETS));   // 3
-		    doc.add(new Field("title2",                   // 3
-		                      title.toLowerCase(),        // 3
-		                      Field.Store.YES,            // 3
-		                      Field.Index.NOT_ANALYZED_NO_NORMS,   // 3
-		                      Field.TermVector.WITH_POSITIONS_OFFSETS));  // 3
-
-		    // split multiple authors into unique field instances
-		    String[] authors = author.split(",");            // 3
-		    for (String a : authors) {                       // 3
-		      doc.add(new Field("author",                    // 3
-		                        a,                           // 3
-		                        Field.Store.YES,             // 3
-		                        Field.Index.NOT_ANALYZED,    // 3
-		                        Field.TermVector.WITH_POSITIONS_OFFSETS));   // 3
+		    InputStream in = new FileInputStream(file);
+		    try {
+		      return getDocument(rootDir, file, in);
+		    } finally {
+		      in.close();
 		    }
+		  }
 
-		    doc.add(new Field("url",                        // 3
-		                      url,                           // 3
-		                      Field.Store.YES,                // 3
-		                      Field.Index.NOT_ANALYZED_NO_NORMS));   // 3
-		    doc.add(new Field("subject",                     // 3  //4
-		                      subject,                       // 3  //4
-		                      Field.Store.YES,               // 3  //4
-		                      Field.Index.ANALYZED,          // 3  //4
-		                      Field.TermVector.WITH_POSITIONS_OFFSETS)); // 3  //4
-
-		    doc.add(new NumericField("pubmonth",          // 3
-		                             Field.Store.YES,     // 3
-		                             true).setIntValue(Integer.parseInt(pubmonth)));   // 3
-
-		    Date d; // 3
-		    try { // 3
-		      d = DateTools.stringToDate(pubmonth); // 3
-		    } catch (ParseException pe) { // 3
-		      throw new RuntimeException(pe); // 3
-		    }                                             // 3
-		    doc.add(new NumericField("pubmonthAsDay")      // 3
-		                 .setIntValue((int) (d.getTime()/(1000*3600*24))));   // 3
-
-		    for(String text : new String[] {title, subject, author, category}) {           // 3 // 5
-		      doc.add(new Field("contents", text,                             // 3 // 5
-		                        Field.Store.NO, Field.Index.ANALYZED,         // 3 // 5
-		                        Field.TermVector.WITH_POSITIONS_OFFSETS));    // 3 // 5
+	 // file only supplies the category; the properties are read from in
+	 public static Document getDocument(String rootDir, File file, InputStream in) throws IOException {
+		    BookDocument template = new BookDocument();
+		    Properties props = template.properties();
+		    props.load(in);
+		    return template.fill(getCategory(rootDir, file), props);
+		  }
+
+		  private static final ThreadLocal<BookDocument> TEMPLATES = new ThreadLocal<BookDocument>() {
+		    protected BookDocument initialValue() {
+		      return new BookDocument();
 		    }
+		  };
+
+		  /**
+		   * Same as {@link #getDocument(String, File, InputStream)}, but fills the calling
+		   * thread's {@link BookDocument} instead of allocating a new document. The result
+		   * is overwritten by the thread's next call, so hand it straight to the IndexWriter.
+		   */
+		  public static Document getReusableDocument(String rootDir, File file, InputStream in) throws IOException {
+		    BookDocument template = TEMPLATES.get();
+		    Properties props = template.properties();
+		    props.load(in);
+		    return template.fill(getCategory(rootDir, file), props);
+		  }
 
-		    return doc;
+		  public static String getCategory(String rootDir, File file) {
+		    // category comes from relative path below the base directory
+		    String category = file.getParent().substring(rootDir.length());    //1
+		    return category.replace(File.separatorChar, '/');                  //1
 		  }
 
 		  private static String aggregate(String[] strings) {
@@ -121,16 +77,6 @@ public class CreateTestIndex {
 		    return buffer.toString();
 		  }
 
-		  private static void findFiles(List<File> result, File dir) {
-		    for(File file : dir.listFiles()) {
-		      if (file.getName().endsWith(".properties")) {
-		        result.add(file);
-		      } else if (file.isDirectory()) {
-		        findFiles(result, file);
-		      }
-		    }
-		  }
-
 		  private static class MyStandardAnalyzer extends StandardAnalyzer {  // 6
 		    public MyStandardAnalyzer(Version matchVersion) {                 // 6
 		      super(matchVersion);                                            // 6
@@ -144,34 +90,110 @@ public class CreateTestIndex {
 		    }
 		  }
 
+		  /**
+		   * the analyzer the book index is built with, also producing the
+		   * word n-grams of the *_shingles fields
+		   */
+		  public static Analyzer getAnalyzer() {
+		    return new ShingleAnalyzer(new MyStandardAnalyzer(Version.LUCENE_30), BookDocument.MAX_SHINGLE_SIZE);
+		  }
+
 		  //运行生成索引文件
 		  public static void main(String[] args){
 			  try {
-				  CreateTestIndex.getDirectory();
+				  int shards = Integer.getInteger("index.shards", 1);
+				  if (shards > 1) {
+					  CreateTestIndex.createShards(shards);
+				  } else {
+					  CreateTestIndex.getDirectory();
+				  }
 			  } catch (IOException e) {
 				  e.printStackTrace();
 			  }
 		  }
 
 		  public static Directory getDirectory() throws IOException {
+		    int threads = Integer.getInteger("index.threads", Runtime.getRuntime().availableProcessors());
+		    double ramBufferSizeMB = Double.parseDouble(System.getProperty("index.ramBufferMB",
+		                                                String.valueOf(IndexWriter.DEFAULT_RAM_BUFFER_SIZE_MB)));
+		    boolean incremental = Boolean.getBoolean("index.incremental");
+		    return getDirectory(threads, ramBufferSizeMB, incremental);
+		  }
+
+		  public static Directory getDirectory(int threads, double ramBufferSizeMB) throws IOException {
+		    return getDirectory(threads, ramBufferSizeMB, false);
+		  }
+
+		  // incremental only re-indexes files that changed since the last run, see IndexManifest
+		  public static Directory getDirectory(int threads, double ramBufferSizeMB, boolean incremental)
+		      throws IOException {
 
 		    String dataDir = _DIR + File.separator + "data";
-		    String indexDir = _DIR + File.separator + "index";
-		    List<File> results = new ArrayList<File>();
-		    findFiles(results, new File(dataDir));
-		    System.out.println(results.size() + " books to index");
-		    Directory dir = FSDirectory.open(new File(indexDir));
+		    File indexDir = new File(_DIR + File.separator + "index");
+		    Directory dir = DirectoryFactory.openForWriting(indexDir);
+		    boolean create = !incremental || !IndexReader.indexExists(dir);
+		    IndexManifest manifest = create ? new IndexManifest() : IndexManifest.load(indexDir);
 		    IndexWriter w = new IndexWriter(dir,
-		                                    new MyStandardAnalyzer(Version.LUCENE_30),
-		                                    true,
+		                                    getAnalyzer(),
+		                                    create,
 		                                    IndexWriter.MaxFieldLength.UNLIMITED);
-		    for(File file : results) {
-		      Document doc = getDocument(dataDir, file);
-		      w.addDocument(doc);
-		    }
+		    w.setRAMBufferSizeMB(ramBufferSizeMB);
+		    IndexPipeline.Stats stats = new IndexPipeline(dataDir)
+		        .setThreads(threads)
+		        .setManifest(manifest, !create)
+		        .run(w);
+		    System.out.println(stats + " with " + threads + " threads");
 		   
 		    w.close();
+		    manifest.store(indexDir);
+		    syncColumns(dir, indexDir, create);
 		    dir.close();
 		    return dir;
 		  }
+
+		  // display field columns of -Dindex.columns next to the index, see ColumnStore
+		  private static void syncColumns(Directory dir, File indexDir, boolean create) throws IOException {
+		    String[] fields = ColumnStore.getDefaultFields();
+		    if (fields.length == 0) {
+		      return;
+		    }
+		    ColumnStore store = ColumnStore.open(indexDir, fields);
+		    if (create) {
+		      store.clear();
+		    }
+		    IndexReader reader = IndexReader.open(dir, true);
+		    try {
+		      System.out.println("wrote " + store.sync(reader) + " columns of " + Arrays.asList(fields));
+		    } finally {
+		      reader.close();
+		    }
+		  }
+
+		  public static void createShards(int shards) throws IOException {
+		    int threads = Integer.getInteger("index.threads", Runtime.getRuntime().availableProcessors());
+		    double ramBufferSizeMB = Double.parseDouble(System.getProperty("index.ramBufferMB",
+		                                                String.valueOf(IndexWriter.DEFAULT_RAM_BUFFER_SIZE_MB)));
+		    boolean incremental = Boolean.getBoolean("index.incremental");
+		    createShards(shards, ShardRouter.getDefault(), threads, ramBufferSizeMB, incremental);
+		  }
+
+		  // same as getDirectory, but into index/shard-0 .. shard-(shards - 1), see ShardedWriter
+		  public static void createShards(int shards, ShardRouter router, int threads, double ramBufferSizeMB,
+		                                  boolean incremental) throws IOException {
+
+		    String dataDir = _DIR + File.separator + "data";
+		    File indexDir = new File(_DIR + File.separator + "index");
+		    boolean create = !incremental || !ShardedWriter.exists(indexDir, shards);
+		    IndexManifest manifest = create ? new IndexManifest() : IndexManifest.load(indexDir);
+		    ShardedWriter w = ShardedWriter.open(indexDir, shards, router, getAnalyzer(), create);
+		    w.setRAMBufferSizeMB(ramBufferSizeMB);
+		    IndexPipeline.Stats stats = new IndexPipeline(dataDir)
+		        .setThreads(threads)
+		        .setManifest(manifest, !create)
+		        .run(w);
+		    System.out.println(stats + " with " + threads + " threads into " + shards + " shards by " + router);
+
+		    w.close();
+		    manifest.store(indexDir);
+		  }
 }
@@ -0,0 +1,164 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+/**
+ * Opens index directories with a configurable backend instead of a
+ * hard-coded FSDirectory.open, and optionally warms them before use.
+ *
+ * The backend is chosen with -Dindex.directory=fs|mmap|nio|simple|ram and
+ * warming is switched on with -Dindex.warm=true.
+ */
+public class DirectoryFactory {
+
+	public enum Type {
+		/** whatever FSDirectory.open picks for the platform */
+		FS,
+		/** memory-mapped files */
+		MMAP,
+		/** positional reads through FileChannel, no lock between readers */
+		NIO,
+		/** RandomAccessFile, synchronized seek + read */
+		SIMPLE,
+		/** a heap copy of the index, read-only with respect to the files on disk */
+		RAM
+	}
+
+	// term dictionary and index, postings, positions, norms and compound files holding all of them
+	private static final Set<String> WARM_EXTENSIONS = new HashSet<String>(
+			Arrays.asList("tis", "tii", "frq", "prx", "nrm", "cfs"));
+
+	public static Type getDefaultType() {
+		return Type.valueOf(System.getProperty("index.directory", "fs").toUpperCase(Locale.ENGLISH));
+	}
+
+	public static boolean isWarmEnabled() {
+		return Boolean.getBoolean("index.warm");
+	}
+
+	/**
+	 * Opens the directory with the configured backend, warming it if configured.
+	 */
+	public static Directory open(File path) throws IOException {
+		Directory dir = open(path, getDefaultType());
+		if (isWarmEnabled()) {
+			WarmupStats stats = warm(dir);
+			System.out.println("warmed " + path + ": " + stats);
+		}
+		return dir;
+	}
+
+	public static Directory open(File path, Type type) throws IOException {
+		switch (type) {
+		case MMAP:
+			return new MMapDirectory(path);
+		case NIO:
+			return new NIOFSDirectory(path);
+		case SIMPLE:
+			return new SimpleFSDirectory(path);
+		case RAM:
+			Directory fs = FSDirectory.open(path);
+			try {
+				return new RAMDirectory(fs);
+			} finally {
+				fs.close();
+			}
+		default:
+			return FSDirectory.open(path);
+		}
+	}
+
+	/**
+	 * Opens a directory an IndexWriter can write to. A RAM copy would lose
+	 * everything written, so RAM falls back to the platform default.
+	 */
+	public static Directory openForWriting(File path) throws IOException {
+		Type type = getDefaultType();
+		return open(path, type == Type.RAM ? Type.FS : type);
+	}
+
+	/**
+	 * Reads the term dictionary, postings and norms files once from start to
+	 * end, so the OS page cache (and for mmap the page tables) hold them
+	 * before the first query arrives. A RAMDirectory is already in memory
+	 * and is skipped.
+	 */
+	public static WarmupStats warm(Directory dir) throws IOException {
+		long start = System.nanoTime();
+		int files = 0;
+		long bytes = 0;
+		if (!(dir instanceof RAMDirectory)) {
+			byte[] buffer = new byte[64 * 1024];
+			for (String name : dir.listAll()) {
+				if (!isWarmed(name)) {
+					continue;
+				}
+				IndexInput in = dir.openInput(name);
+				try {
+					long length = in.length();
+					for (long read = 0; read < length; ) {
+						int chunk = (int) Math.min(buffer.length, length - read);
+						in.readBytes(buffer, 0, chunk);
+						read += chunk;
+					}
+					bytes += length;
+					files++;
+				} finally {
+					in.close();
+				}
+			}
+		}
+		return new WarmupStats(files, bytes, System.nanoTime() - start);
+	}
+
+	private static boolean isWarmed(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot == -1) {
+			return false;
+		}
+		String extension = name.substring(dot + 1);
+		// separate norms of a segment with deletions are named _n_m.sN
+		return WARM_EXTENSIONS.contains(extension) || extension.matches("s\\d+");
+	}
+
+	public static class WarmupStats {
+		private final int files;
+		private final long bytes;
+		private final long elapsedNanos;
+
+		WarmupStats(int files, long bytes, long elapsedNanos) {
+			this.files = files;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getFiles() {
+			return files;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedNanos / 1000000;
+		}
+
+		public String toString() {
+			return String.format("%d files, %d bytes in %d ms", files, bytes, getElapsedMillis());
+		}
+	}
+}
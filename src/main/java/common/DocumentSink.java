@@ -0,0 +1,22 @@
+package common;
+
+import java.io.IOException;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+
+/**
+ * Where {@link IndexPipeline} sends the documents it builds: a single
+ * IndexWriter ({@link IndexWriterSink}) or several shards
+ * ({@link ShardedWriter}). Implementations must be thread safe.
+ */
+public interface DocumentSink {
+	void addDocument(Document doc) throws IOException;
+
+	/**
+	 * deletes the documents containing term and adds doc
+	 */
+	void updateDocument(Term term, Document doc) throws IOException;
+
+	void deleteDocuments(Term term) throws IOException;
+}
@@ -0,0 +1,208 @@
+package common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * How each field of a book document is stored and indexed, loaded from a
+ * properties file instead of being hard-coded in {@link BookDocument}.
+ *
+ * The bundled book-schema.properties describes the fields as they always
+ * were; -Dindex.schema names a replacement, either a file or a classpath
+ * resource. Every setting of a field is optional:
+ *
+ * <pre>
+ * title.store=yes                                 (no)
+ * title.index=analyzed                            (analyzed) no, not_analyzed
+ * title.norms=true                                (true)
+ * title.termVector=with_positions_offsets         (no) yes, with_positions, with_offsets
+ * title.omitTermFreqAndPositions=false            (false)
+ * pubmonth.numeric=true                           (false)
+ * pubmonth.precisionStep=4                        (4)
+ * </pre>
+ *
+ * A field that is neither stored nor indexed is disabled and left out of
+ * the documents.
+ */
+public class FieldSchema {
+	public static final String DEFAULT_RESOURCE = "book-schema.properties";
+
+	private static FieldSchema defaultSchema;
+
+	private final Map<String, FieldSpec> fields;
+
+	public FieldSchema(Properties props) {
+		Map<String, Properties> byField = new TreeMap<String, Properties>();
+		for (String key : props.stringPropertyNames()) {
+			int dot = key.lastIndexOf('.');
+			if (dot <= 0) {
+				throw new IllegalArgumentException("expected <field>.<setting>: " + key);
+			}
+			String field = key.substring(0, dot);
+			Properties settings = byField.get(field);
+			if (settings == null) {
+				settings = new Properties();
+				byField.put(field, settings);
+			}
+			settings.setProperty(key.substring(dot + 1), props.getProperty(key).trim());
+		}
+		Map<String, FieldSpec> fields = new TreeMap<String, FieldSpec>();
+		for (Map.Entry<String, Properties> entry : byField.entrySet()) {
+			fields.put(entry.getKey(), new FieldSpec(entry.getKey(), entry.getValue()));
+		}
+		this.fields = Collections.unmodifiableMap(fields);
+	}
+
+	/**
+	 * the schema named by -Dindex.schema, or the bundled one
+	 */
+	public static synchronized FieldSchema getDefault() {
+		if (defaultSchema == null) {
+			try {
+				defaultSchema = load(System.getProperty("index.schema", DEFAULT_RESOURCE));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return defaultSchema;
+	}
+
+	/**
+	 * Loads a schema from a file, or else from a resource relative to this class.
+	 */
+	public static FieldSchema load(String location) throws IOException {
+		File file = new File(location);
+		InputStream in = file.isFile() ? new FileInputStream(file) : FieldSchema.class.getResourceAsStream(location);
+		if (in == null) {
+			throw new IOException("no schema file or resource " + location);
+		}
+		try {
+			Properties props = new Properties();
+			props.load(in);
+			return new FieldSchema(props);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * all fields of the schema, sorted, including disabled ones
+	 */
+	public Set<String> getFieldNames() {
+		return fields.keySet();
+	}
+
+	public FieldSpec get(String name) {
+		FieldSpec spec = fields.get(name);
+		if (spec == null) {
+			throw new IllegalArgumentException("field " + name + " is not in the schema");
+		}
+		return spec;
+	}
+
+	public boolean isEnabled(String name) {
+		return get(name).isEnabled();
+	}
+
+	/**
+	 * A reusable text field with an empty value, null if the field is disabled.
+	 */
+	public Field newField(String name) {
+		FieldSpec spec = get(name);
+		if (!spec.isEnabled()) {
+			return null;
+		}
+		if (spec.numeric) {
+			throw new IllegalArgumentException("field " + name + " is numeric");
+		}
+		Field field = new Field(name, "", spec.store, spec.index, spec.termVector);
+		field.setOmitTermFreqAndPositions(spec.omitTermFreqAndPositions);
+		return field;
+	}
+
+	/**
+	 * A reusable numeric field, null if the field is disabled.
+	 */
+	public NumericField newNumericField(String name) {
+		FieldSpec spec = get(name);
+		if (!spec.isEnabled()) {
+			return null;
+		}
+		if (!spec.numeric) {
+			throw new IllegalArgumentException("field " + name + " is not numeric");
+		}
+		return new NumericField(name, spec.precisionStep, spec.store, spec.index != Field.Index.NO);
+	}
+
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		for (FieldSpec spec : fields.values()) {
+			buffer.append(spec).append('\n');
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * the settings of one field
+	 */
+	public static class FieldSpec {
+		public final String name;
+		public final Field.Store store;
+		public final Field.Index index;
+		public final Field.TermVector termVector;
+		public final boolean omitTermFreqAndPositions;
+		public final boolean numeric;
+		public final int precisionStep;
+
+		FieldSpec(String name, Properties settings) {
+			this.name = name;
+			store = yesNo(settings, "store", false) ? Field.Store.YES : Field.Store.NO;
+			String index = setting(settings, "index", "analyzed");
+			if (!index.equals("no") && !index.equals("analyzed") && !index.equals("not_analyzed")) {
+				throw new IllegalArgumentException(name + ".index must be no, analyzed or not_analyzed: " + index);
+			}
+			this.index = Field.Index.toIndex(!index.equals("no"), index.equals("analyzed"),
+					!yesNo(settings, "norms", true));
+			termVector = Field.TermVector.valueOf(setting(settings, "termVector", "no").toUpperCase(Locale.ENGLISH));
+			omitTermFreqAndPositions = yesNo(settings, "omitTermFreqAndPositions", false);
+			numeric = yesNo(settings, "numeric", false);
+			precisionStep = Integer.parseInt(setting(settings, "precisionStep",
+					String.valueOf(NumericUtils.PRECISION_STEP_DEFAULT)));
+			for (String setting : settings.stringPropertyNames()) {
+				if (!setting.matches("store|index|norms|termVector|omitTermFreqAndPositions|numeric|precisionStep")) {
+					throw new IllegalArgumentException("unknown setting " + name + "." + setting);
+				}
+			}
+		}
+
+		private static String setting(Properties settings, String key, String defaultValue) {
+			return settings.getProperty(key, defaultValue).toLowerCase(Locale.ENGLISH);
+		}
+
+		private static boolean yesNo(Properties settings, String key, boolean defaultValue) {
+			String value = setting(settings, key, String.valueOf(defaultValue));
+			return value.equals("yes") || value.equals("true");
+		}
+
+		public boolean isEnabled() {
+			return store == Field.Store.YES || index != Field.Index.NO;
+		}
+
+		public String toString() {
+			return name + ": " + (numeric ? "numeric/" + precisionStep + " " : "") + store + " " + index + " "
+					+ termVector + (omitTermFreqAndPositions ? " OMIT_TF" : "");
+		}
+	}
+}
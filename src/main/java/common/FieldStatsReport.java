@@ -0,0 +1,257 @@
+package common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SerialMergeScheduler;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * Breaks the index size and the indexing CPU time of a sample of books down
+ * by field and by kind of data, to see what a {@link FieldSchema} costs and
+ * what is worth dropping.
+ *
+ * Each field is measured by indexing the sample with only that field, into
+ * a RAMDirectory on the calling thread, and subtracting an index of the same
+ * number of empty documents. The CPU times are rough; use a sample of some
+ * thousand books. Sizes are those of the optimized,
+ * non-compound index files.
+ *
+ * FieldStatsReport [data-dir | -generate count]
+ */
+public class FieldStatsReport {
+	// data kinds by index file extension
+	private static final Map<String, String> KINDS = new LinkedHashMap<String, String>();
+	static {
+		KINDS.put("fdt", "stored");
+		KINDS.put("fdx", "stored");
+		KINDS.put("tis", "terms");
+		KINDS.put("tii", "terms");
+		KINDS.put("frq", "postings");
+		KINDS.put("prx", "positions");
+		KINDS.put("nrm", "norms");
+		KINDS.put("tvx", "vectors");
+		KINDS.put("tvd", "vectors");
+		KINDS.put("tvf", "vectors");
+	}
+
+	private static final String ALL_FIELDS = "*";
+
+	private final FieldSchema schema;
+	private final Analyzer analyzer;
+	private final boolean shingles;
+	private final List<String[]> books = new ArrayList<String[]>();
+
+	public FieldStatsReport(FieldSchema schema, Analyzer analyzer, boolean shingles) {
+		this.schema = schema;
+		this.analyzer = analyzer;
+		this.shingles = shingles;
+	}
+
+	public synchronized void add(String category, String isbn, String title, String author, String url,
+			String subject, String pubmonth) {
+		books.add(new String[] {category, isbn, title, author, url, subject, pubmonth});
+	}
+
+	public void add(String category, Properties props) {
+		add(category,
+				props.getProperty("isbn"),
+				props.getProperty("title"),
+				props.getProperty("author"),
+				props.getProperty("url"),
+				props.getProperty("subject"),
+				props.getProperty("pubmonth"));
+	}
+
+	/**
+	 * Measures every enabled field of the schema that occurs in the sample.
+	 */
+	public List<FieldStats> run() throws IOException {
+		measure(ALL_FIELDS); // warms up the JIT so the first field is not charged for it
+		FieldStats empty = measure(null);
+		List<FieldStats> stats = new ArrayList<FieldStats>();
+		for (String field : schema.getFieldNames()) {
+			if (schema.isEnabled(field)) {
+				FieldStats fieldStats = measure(field);
+				if (fieldStats.instances > 0) {
+					stats.add(fieldStats.minus(empty));
+				}
+			}
+		}
+		return stats;
+	}
+
+	private FieldStats measure(String field) throws IOException {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		BookDocument template = new BookDocument(schema, shingles);
+		RAMDirectory dir = new RAMDirectory();
+		long start = threads.getCurrentThreadCpuTime();
+		IndexWriter writer = new IndexWriter(dir, analyzer, true, IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setUseCompoundFile(false);
+		writer.setMergeScheduler(new SerialMergeScheduler());
+		long instances = 0;
+		List<String[]> books;
+		synchronized (this) {
+			books = new ArrayList<String[]>(this.books);
+		}
+		for (String[] book : books) {
+			Document doc = template.fill(book[0], book[1], book[2], book[3], book[4], book[5], book[6]);
+			Document single = new Document();
+			for (Object fieldable : doc.getFields()) {
+				if (((Fieldable) fieldable).name().equals(field) || field == ALL_FIELDS) {
+					single.add((Fieldable) fieldable);
+					instances++;
+				}
+			}
+			writer.addDocument(single);
+		}
+		writer.optimize();
+		writer.close();
+		long cpu = threads.getCurrentThreadCpuTime() - start;
+
+		FieldStats stats = new FieldStats(field, instances, cpu);
+		for (String file : dir.listAll()) {
+			if (file.startsWith("segments")) {
+				continue;
+			}
+			String kind = KINDS.get(file.substring(file.lastIndexOf('.') + 1));
+			stats.add(kind == null ? "other" : kind, dir.fileLength(file));
+		}
+		dir.close();
+		return stats;
+	}
+
+	/**
+	 * Prints one line per field, largest first, with the share of the total.
+	 */
+	public static void print(List<FieldStats> stats) {
+		List<FieldStats> sorted = new ArrayList<FieldStats>(stats);
+		Collections.sort(sorted);
+		long total = 0;
+		for (FieldStats fieldStats : sorted) {
+			total += fieldStats.getBytes();
+		}
+		for (FieldStats fieldStats : sorted) {
+			System.out.println(String.format("%5.1f%%  %s", 100.0 * fieldStats.getBytes() / Math.max(1, total),
+					fieldStats));
+		}
+		System.out.println(String.format("total %d bytes", total));
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final FieldStatsReport report = new FieldStatsReport(FieldSchema.getDefault(), CreateTestIndex.getAnalyzer(),
+				BookDocument.isShinglesEnabled());
+		if (args.length == 2 && args[0].equals("-generate")) {
+			new BookCorpusGenerator(42).generate(0, Long.parseLong(args[1]), new BookCorpusGenerator.BookSink() {
+				public void book(String category, String isbn, String title, String author, String url,
+						String subject, String pubmonth) {
+					report.add(category, isbn, title, author, url, subject, pubmonth);
+				}
+			});
+		} else {
+			final String dataDir = args.length == 1 ? args[0] : CreateTestIndex._DIR + File.separator + "data";
+			new CorpusWalker(new File(dataDir), 1).walk(new CorpusWalker.Visitor() {
+				public void visit(File file) throws IOException {
+					Properties props = new Properties();
+					InputStream in = new FileInputStream(file);
+					try {
+						props.load(in);
+					} finally {
+						in.close();
+					}
+					report.add(CreateTestIndex.getCategory(dataDir, file), props);
+				}
+			});
+		}
+		print(report.run());
+	}
+
+	/**
+	 * index bytes by kind of data and indexing CPU time of one field
+	 */
+	public static class FieldStats implements Comparable<FieldStats> {
+		private final String field;
+		private final long instances;
+		private final long cpuNanos;
+		private final Map<String, Long> bytes = new LinkedHashMap<String, Long>();
+
+		FieldStats(String field, long instances, long cpuNanos) {
+			this.field = field;
+			this.instances = instances;
+			this.cpuNanos = cpuNanos;
+		}
+
+		void add(String kind, long length) {
+			Long old = bytes.get(kind);
+			bytes.put(kind, old == null ? length : old + length);
+		}
+
+		FieldStats minus(FieldStats empty) {
+			FieldStats result = new FieldStats(field, instances, Math.max(0, cpuNanos - empty.cpuNanos));
+			for (Map.Entry<String, Long> entry : bytes.entrySet()) {
+				Long base = empty.bytes.get(entry.getKey());
+				result.add(entry.getKey(), Math.max(0, entry.getValue() - (base == null ? 0 : base)));
+			}
+			return result;
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		/**
+		 * number of field instances in the sample, e.g. one per author
+		 */
+		public long getInstances() {
+			return instances;
+		}
+
+		public long getBytes() {
+			long total = 0;
+			for (long length : bytes.values()) {
+				total += length;
+			}
+			return total;
+		}
+
+		/**
+		 * bytes of one kind of data: stored, terms, postings, positions, norms, vectors or other
+		 */
+		public long getBytes(String kind) {
+			Long length = bytes.get(kind);
+			return length == null ? 0 : length;
+		}
+
+		public long getCpuMillis() {
+			return cpuNanos / 1000000;
+		}
+
+		public int compareTo(FieldStats other) {
+			return Long.compare(other.getBytes(), getBytes());
+		}
+
+		public String toString() {
+			StringBuilder kinds = new StringBuilder();
+			for (Map.Entry<String, Long> entry : bytes.entrySet()) {
+				if (entry.getValue() > 0) {
+					kinds.append(kinds.length() == 0 ? "" : ", ").append(entry.getKey()).append(' ').append(entry.getValue());
+				}
+			}
+			return String.format("%s: %d bytes (%s), %d ms cpu", field, getBytes(), kinds, getCpuMillis());
+		}
+	}
+}
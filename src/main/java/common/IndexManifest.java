@@ -0,0 +1,134 @@
+package common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which source file produced which book, so a re-index only has to
+ * touch files that changed since the last run. Each entry maps the path of a
+ * .properties file (relative to the data directory) to its last modified
+ * time, the MD5 of its content and the isbn it was indexed under.
+ *
+ * The manifest lives inside the index directory, so wiping the index also
+ * wipes the manifest. Lucene ignores files it does not recognise.
+ */
+public class IndexManifest {
+	public static final String FILE_NAME = "books.manifest";
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	public static IndexManifest load(File indexDir) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+		File file = new File(indexDir, FILE_NAME);
+		if (!file.exists()) {
+			return manifest;
+		}
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		for (String path : props.stringPropertyNames()) {
+			String[] parts = props.getProperty(path).split(",", 3);
+			if (parts.length != 3) {
+				throw new IOException("corrupt manifest entry for " + path + " in " + file);
+			}
+			manifest.entries.put(path, new Entry(Long.parseLong(parts[0]), parts[1], parts[2]));
+		}
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest next to the index. Call this only after the writer
+	 * committed, otherwise the manifest describes documents the index lost.
+	 */
+	public void store(File indexDir) throws IOException {
+		Properties props = new Properties();
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			Entry entry = e.getValue();
+			props.setProperty(e.getKey(), entry.mtime + "," + entry.hash + "," + entry.isbn);
+		}
+		File tmp = new File(indexDir, FILE_NAME + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			props.store(out, "source files of the book index");
+		} finally {
+			out.close();
+		}
+		File file = new File(indexDir, FILE_NAME);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("could not delete " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("could not rename " + tmp + " to " + file);
+		}
+	}
+
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	public void put(String path, Entry entry) {
+		entries.put(path, entry);
+	}
+
+	public Entry remove(String path) {
+		return entries.remove(path);
+	}
+
+	public Set<String> paths() {
+		return entries.keySet();
+	}
+
+	public Set<String> isbns() {
+		Set<String> isbns = new HashSet<String>();
+		for (Entry entry : entries.values()) {
+			isbns.add(entry.isbn);
+		}
+		return isbns;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public static String md5(byte[] content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest(content)) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	public static class Entry {
+		public final long mtime;
+		public final String hash;
+		public final String isbn;
+
+		public Entry(long mtime, String hash, String isbn) {
+			this.mtime = mtime;
+			this.hash = hash;
+			this.isbn = isbn;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+/**
+ * Staged indexing pipeline: a {@link CorpusWalker} streams the data directory
+ * into a bounded queue of files, a pool of workers parses each file with
+ * {@link CreateTestIndex#getReusableDocument(String, File, InputStream)} and hands the document to
+ * the shared {@link IndexWriter}, or to a {@link DocumentSink} such as a
+ * {@link ShardedWriter}.
+ *
+ * IndexWriter is thread safe and inverts a document in the calling thread, so
+ * the workers add documents themselves instead of going through a second
+ * queue and a single writer thread. Each worker refills its own
+ * {@link BookDocument}, and progress is printed every few thousand documents
+ * rather than per book.
+ *
+ * With an {@link IndexManifest} the pipeline re-indexes incrementally: files
+ * whose modification time or content did not change are skipped, changed
+ * files replace their book by isbn and books whose file disappeared are
+ * deleted, so the work done scales with the churn rather than the corpus.
+ */
+public class IndexPipeline {
+	private static final File END = new File("");
+
+	private final String rootDir;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int discoveryThreads = 2;
+	private int queueCapacity = 1024;
+	private long progressInterval = 10000;
+	private IndexManifest manifest;
+	private boolean incremental;
+
+	private final AtomicLong docCount = new AtomicLong();
+	private final AtomicLong unchangedCount = new AtomicLong();
+	private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> retired = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private long start;
+
+	public IndexPipeline(String rootDir) {
+		this.rootDir = rootDir;
+	}
+
+	/**
+	 * number of parse/index workers, defaults to the number of cores
+	 */
+	public IndexPipeline setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be >= 1: " + threads);
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * number of threads listing directories, defaults to 2
+	 */
+	public IndexPipeline setDiscoveryThreads(int discoveryThreads) {
+		if (discoveryThreads < 1) {
+			throw new IllegalArgumentException("discoveryThreads must be >= 1: " + discoveryThreads);
+		}
+		this.discoveryThreads = discoveryThreads;
+		return this;
+	}
+
+	/**
+	 * capacity of the queue between discovery and the workers
+	 */
+	public IndexPipeline setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity must be >= 1: " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * print a progress line every this many documents, 0 to stay quiet
+	 */
+	public IndexPipeline setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+		return this;
+	}
+
+	/**
+	 * Records every indexed file in the manifest. When incremental is true the
+	 * writer is assumed to already hold the books the manifest describes, and
+	 * only the difference between the manifest and the data directory is
+	 * applied; otherwise the manifest should be empty and every file is added.
+	 */
+	public IndexPipeline setManifest(IndexManifest manifest, boolean incremental) {
+		this.manifest = manifest;
+		this.incremental = incremental;
+		return this;
+	}
+
+	/**
+	 * Indexes every .properties file below the root directory into the writer.
+	 * The writer is neither committed nor closed.
+	 */
+	public Stats run(IndexWriter writer) throws IOException {
+		return run(new IndexWriterSink(writer));
+	}
+
+	/**
+	 * Same as {@link #run(IndexWriter)} for any thread safe sink.
+	 */
+	public Stats run(final DocumentSink writer) throws IOException {
+		final BlockingQueue<File> files = new ArrayBlockingQueue<File>(queueCapacity);
+		start = System.nanoTime();
+
+		Thread producer = new Thread("index-discovery") {
+			public void run() {
+				try {
+					new CorpusWalker(new File(rootDir), discoveryThreads).walk(new CorpusWalker.Visitor() {
+						public void visit(File file) throws IOException, InterruptedException {
+							discovered(files, file);
+						}
+					});
+				} catch (Throwable t) {
+					fail(t);
+				} finally {
+					for (int i = 0; i < threads; i++) {
+						try {
+							files.put(END);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+				}
+			}
+		};
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			workers.add(new Thread("index-worker-" + i) {
+				public void run() {
+					try {
+						File file;
+						while ((file = files.take()) != END) {
+							if (failure.get() != null) {
+								continue; // keep draining so the producer can finish
+							}
+							try {
+								index(writer, file);
+							} catch (Throwable t) {
+								fail(t);
+							}
+						}
+					} catch (InterruptedException e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		producer.start();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		try {
+			producer.join();
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while indexing " + rootDir);
+		}
+
+		Throwable t = failure.get();
+		long deleted = 0;
+		if (t == null && manifest != null) {
+			try {
+				deleted = deleteRemoved(writer);
+			} catch (Throwable e) {
+				t = e;
+			}
+		}
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t != null) {
+			IOException ioe = new IOException("indexing " + rootDir + " failed");
+			ioe.initCause(t);
+			throw ioe;
+		}
+		return new Stats(docCount.get(), unchangedCount.get(), deleted, System.nanoTime() - start);
+	}
+
+	private void index(DocumentSink writer, File file) throws IOException {
+		if (manifest == null) {
+			InputStream in = new FileInputStream(file);
+			try {
+				writer.addDocument(CreateTestIndex.getReusableDocument(rootDir, file, in));
+			} finally {
+				in.close();
+			}
+			indexed();
+			return;
+		}
+
+		String path = relativePath(file);
+		long mtime = file.lastModified(); // before reading, so a concurrent edit is seen next run
+		byte[] content = readFully(file);
+		String hash = IndexManifest.md5(content);
+		IndexManifest.Entry old = manifest.get(path);
+		if (old != null && old.hash.equals(hash)) {
+			// touched but not changed
+			manifest.put(path, new IndexManifest.Entry(mtime, hash, old.isbn));
+			unchangedCount.incrementAndGet();
+			return;
+		}
+
+		Document doc = CreateTestIndex.getReusableDocument(rootDir, file, new ByteArrayInputStream(content));
+		String isbn = doc.get("isbn");
+		if (incremental) {
+			writer.updateDocument(new Term("isbn", isbn), doc);
+		} else {
+			writer.addDocument(doc);
+		}
+		if (old != null && !old.isbn.equals(isbn)) {
+			retired.add(old.isbn);
+		}
+		manifest.put(path, new IndexManifest.Entry(mtime, hash, isbn));
+		indexed();
+	}
+
+	private void indexed() {
+		long count = docCount.incrementAndGet();
+		if (progressInterval > 0 && count % progressInterval == 0) {
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%d docs indexed (%.1f docs/sec)", count, count / seconds));
+		}
+	}
+
+	/**
+	 * Deletes books whose file is gone. An isbn is only deleted if no other
+	 * file still carries it, which covers books that moved to a new category.
+	 */
+	private long deleteRemoved(DocumentSink writer) throws IOException {
+		for (String path : new ArrayList<String>(manifest.paths())) {
+			if (!seen.contains(path)) {
+				retired.add(manifest.remove(path).isbn);
+			}
+		}
+		Set<String> live = manifest.isbns();
+		long deleted = 0;
+		for (String isbn : retired) {
+			if (!live.contains(isbn)) {
+				writer.deleteDocuments(new Term("isbn", isbn));
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	private String relativePath(File file) {
+		return file.getPath().substring(rootDir.length()).replace(File.separatorChar, '/');
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private void discovered(BlockingQueue<File> files, File file) throws IOException, InterruptedException {
+		if (failure.get() != null) {
+			throw new IOException("indexing " + rootDir + " aborted"); // stops the walk, first failure wins
+		}
+		if (manifest != null) {
+			String path = relativePath(file);
+			seen.add(path);
+			IndexManifest.Entry entry = manifest.get(path);
+			if (incremental && entry != null && entry.mtime == file.lastModified()) {
+				unchangedCount.incrementAndGet();
+				return;
+			}
+		}
+		files.put(file);
+	}
+
+	private void fail(Throwable t) {
+		failure.compareAndSet(null, t);
+	}
+
+	/**
+	 * Outcome of a pipeline run.
+	 */
+	public static class Stats {
+		private final long docs;
+		private final long unchanged;
+		private final long deleted;
+		private final long elapsedNanos;
+
+		Stats(long docs, long unchanged, long deleted, long elapsedNanos) {
+			this.docs = docs;
+			this.unchanged = unchanged;
+			this.deleted = deleted;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * documents added or replaced
+		 */
+		public long getDocs() {
+			return docs;
+		}
+
+		/**
+		 * files skipped because they did not change since the last run
+		 */
+		public long getUnchanged() {
+			return unchanged;
+		}
+
+		/**
+		 * books deleted because their file disappeared
+		 */
+		public long getDeleted() {
+			return deleted;
+		}
+
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+
+		public double getDocsPerSecond() {
+			return elapsedNanos == 0 ? 0 : docs * 1e9 / elapsedNanos;
+		}
+
+		public String toString() {
+			return String.format("%d docs in %d ms (%.1f docs/sec), %d unchanged, %d deleted",
+					docs, getElapsedMillis(), getDocsPerSecond(), unchanged, deleted);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package common;
+
+import java.io.IOException;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+/**
+ * Sends documents to one IndexWriter.
+ */
+public class IndexWriterSink implements DocumentSink {
+	private final IndexWriter writer;
+
+	public IndexWriterSink(IndexWriter writer) {
+		this.writer = writer;
+	}
+
+	public void addDocument(Document doc) throws IOException {
+		writer.addDocument(doc);
+	}
+
+	public void updateDocument(Term term, Document doc) throws IOException {
+		writer.updateDocument(term, doc);
+	}
+
+	public void deleteDocuments(Term term) throws IOException {
+		writer.deleteDocuments(term);
+	}
+}
@@ -0,0 +1,181 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * A directory of files derived from the segments of one index, kept next to
+ * it: every file name starts with the name of its segment and a dot, e.g.
+ * _3.title.off.
+ *
+ * Files are written under a temporary name unique to the writer and renamed
+ * into place once complete, so readers never see a partial file and two
+ * threads writing the same file do not get in each other's way. They are
+ * read through a memory mapping, which stays valid after the file is closed.
+ * A file still mapped on Windows cannot be deleted; {@link #prune} tries
+ * again the next time.
+ */
+public class SegmentFiles {
+	private static final String TMP = ".tmp";
+
+	private final File dir;
+
+	public SegmentFiles(File dir) {
+		this.dir = dir;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * the file of a segment, e.g. file("_3", "title.off")
+	 */
+	public File file(String segment, String suffix) {
+		return new File(dir, segment + "." + suffix);
+	}
+
+	/**
+	 * A new empty file to write the contents of target to before
+	 * {@link #rename}ing it into place.
+	 */
+	public File createTemp(File target) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("could not create " + dir);
+		}
+		return File.createTempFile(target.getName() + ".", TMP, dir);
+	}
+
+	/**
+	 * Moves a complete temporary file into place, replacing the target if it
+	 * exists; the temporary file is deleted if that fails.
+	 */
+	public void rename(File tmp, File target) throws IOException {
+		if (tmp.renameTo(target)) {
+			return;
+		}
+		// not atomic where renaming does not replace an existing file
+		target.delete();
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("could not rename " + tmp + " to " + target);
+		}
+	}
+
+	/**
+	 * Deletes the files of all segments that are not part of the reader,
+	 * along with temporary files left behind for them.
+	 *
+	 * @return the number of files deleted
+	 */
+	public int prune(IndexReader reader) {
+		Set<String> live = new HashSet<String>();
+		for (IndexReader segment : segments(reader)) {
+			if (segment instanceof SegmentReader) {
+				live.add(((SegmentReader) segment).getSegmentName());
+			}
+		}
+		String[] files = dir.list();
+		if (files == null) {
+			return 0;
+		}
+		int deleted = 0;
+		for (String file : files) {
+			int dot = file.indexOf('.');
+			if ((dot == -1 || !live.contains(file.substring(0, dot))) && new File(dir, file).delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Removes all files.
+	 */
+	public void clear() {
+		String[] files = dir.list();
+		if (files != null) {
+			for (String file : files) {
+				new File(dir, file).delete();
+			}
+		}
+	}
+
+	public static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static List<IndexReader> segments(IndexReader reader) {
+		List<IndexReader> subReaders = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subReaders, reader);
+		return subReaders;
+	}
+
+	/**
+	 * the segment name of a segment reader, null for any other reader
+	 */
+	public static String segmentName(IndexReader segment) {
+		return segment instanceof SegmentReader ? ((SegmentReader) segment).getSegmentName() : null;
+	}
+
+	/**
+	 * Tells segments of the same name apart, e.g. _0 of an index and of the
+	 * index that was later created from scratch in the same directory, by
+	 * the modification time and length of their field infos, written once
+	 * when the segment is created, on their own or in the compound file.
+	 */
+	public static class Generation {
+		public final long modified;
+		public final long length;
+
+		public Generation(long modified, long length) {
+			this.modified = modified;
+			this.length = length;
+		}
+
+		/**
+		 * the generation of a segment reader, null for any other reader
+		 */
+		public static Generation of(IndexReader segment) throws IOException {
+			if (!(segment instanceof SegmentReader)) {
+				return null;
+			}
+			SegmentReader reader = (SegmentReader) segment;
+			Directory dir = reader.directory();
+			String name = reader.getSegmentName() + ".cfs";
+			if (!dir.fileExists(name)) {
+				name = reader.getSegmentName() + ".fnm";
+			}
+			return new Generation(dir.fileModified(name), dir.fileLength(name));
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Generation)) {
+				return false;
+			}
+			Generation other = (Generation) o;
+			return modified == other.modified && length == other.length;
+		}
+
+		public int hashCode() {
+			return (int) (modified ^ (modified >>> 32)) * 31 + (int) (length ^ (length >>> 32));
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package common;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+
+/**
+ * Decides which shard of a {@link ShardedWriter} a book goes to.
+ */
+public abstract class ShardRouter {
+
+	/**
+	 * the shard, from 0 to shards - 1, that holds the document
+	 */
+	public abstract int shard(Document doc, int shards);
+
+	/**
+	 * The only shard that can hold documents containing the term, or -1 if
+	 * they may be in any shard and a delete has to go to all of them.
+	 */
+	public int shard(Term term, int shards) {
+		return -1;
+	}
+
+	/**
+	 * Routes by the hash of a field value, e.g. isbn to spread books evenly
+	 * or category to keep a category in one shard. Documents without the
+	 * field go to shard 0.
+	 */
+	public static ShardRouter byField(final String field) {
+		return new ShardRouter() {
+			public int shard(Document doc, int shards) {
+				return hash(doc.get(field), shards);
+			}
+
+			public int shard(Term term, int shards) {
+				return term.field().equals(field) ? hash(term.text(), shards) : -1;
+			}
+
+			public String toString() {
+				return "byField(" + field + ")";
+			}
+		};
+	}
+
+	/**
+	 * routes by the field named by -Dindex.shardKey, isbn by default
+	 */
+	public static ShardRouter getDefault() {
+		return byField(System.getProperty("index.shardKey", "isbn"));
+	}
+
+	// String.hashCode is specified, so a book maps to the same shard on every JVM
+	private static int hash(String value, int shards) {
+		return value == null ? 0 : (value.hashCode() & Integer.MAX_VALUE) % shards;
+	}
+}
@@ -0,0 +1,195 @@
+package common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Partitions books over several indexes, one IndexWriter per shard,
+ * according to a {@link ShardRouter}. Every shard writer is thread safe, so
+ * the pipeline workers index into all shards at the same time, and each
+ * shard flushes and merges on its own.
+ *
+ * On disk the shards are the directories shard-0, shard-1, ... below the
+ * index directory. Routing depends on the number of shards, so changing it
+ * requires rebuilding the index.
+ */
+public class ShardedWriter implements DocumentSink, Closeable {
+	public static final String SHARD_PREFIX = "shard-";
+
+	private final IndexWriter[] writers;
+	private final ShardRouter router;
+	private final Directory[] directories; // opened here, null if the caller owns them
+
+	public ShardedWriter(IndexWriter[] writers, ShardRouter router) {
+		this(writers, router, null);
+	}
+
+	private ShardedWriter(IndexWriter[] writers, ShardRouter router, Directory[] directories) {
+		if (writers.length < 1) {
+			throw new IllegalArgumentException("no shards");
+		}
+		this.writers = writers;
+		this.router = router;
+		this.directories = directories;
+	}
+
+	/**
+	 * Opens or creates the given number of shards below indexDir. Creating
+	 * also empties shards left over from a run with more shards.
+	 */
+	public static ShardedWriter open(File indexDir, int shards, ShardRouter router, Analyzer analyzer,
+			boolean create) throws IOException {
+		IndexWriter[] writers = new IndexWriter[shards];
+		Directory[] directories = new Directory[shards];
+		for (int i = 0; i < shards; i++) {
+			directories[i] = DirectoryFactory.openForWriting(shardDir(indexDir, i));
+			writers[i] = new IndexWriter(directories[i], analyzer, create || !IndexReader.indexExists(directories[i]),
+					IndexWriter.MaxFieldLength.UNLIMITED);
+		}
+		if (create) {
+			for (File stale : shardDirs(indexDir)) {
+				if (shardNumber(stale) >= shards) {
+					Directory dir = DirectoryFactory.openForWriting(stale);
+					new IndexWriter(dir, analyzer, true, IndexWriter.MaxFieldLength.UNLIMITED).close();
+					dir.close();
+				}
+			}
+		}
+		return new ShardedWriter(writers, router, directories);
+	}
+
+	/**
+	 * true if all shards of indexDir hold an index
+	 */
+	public static boolean exists(File indexDir, int shards) throws IOException {
+		for (int i = 0; i < shards; i++) {
+			File dir = shardDir(indexDir, i);
+			if (!dir.isDirectory()) {
+				return false;
+			}
+			Directory directory = DirectoryFactory.open(dir, DirectoryFactory.Type.FS);
+			try {
+				if (!IndexReader.indexExists(directory)) {
+					return false;
+				}
+			} finally {
+				directory.close();
+			}
+		}
+		return true;
+	}
+
+	public static File shardDir(File indexDir, int shard) {
+		return new File(indexDir, SHARD_PREFIX + shard);
+	}
+
+	/**
+	 * the shard directories below indexDir, in shard order
+	 */
+	public static List<File> shardDirs(File indexDir) {
+		List<File> dirs = new ArrayList<File>();
+		for (File dir = shardDir(indexDir, 0); dir.isDirectory(); dir = shardDir(indexDir, dirs.size())) {
+			dirs.add(dir);
+		}
+		return dirs;
+	}
+
+	private static int shardNumber(File shardDir) {
+		return Integer.parseInt(shardDir.getName().substring(SHARD_PREFIX.length()));
+	}
+
+	public int getShardCount() {
+		return writers.length;
+	}
+
+	public IndexWriter getWriter(int shard) {
+		return writers[shard];
+	}
+
+	/**
+	 * splits the RAM buffer evenly between the shard writers
+	 */
+	public void setRAMBufferSizeMB(double ramBufferSizeMB) {
+		for (IndexWriter writer : writers) {
+			writer.setRAMBufferSizeMB(ramBufferSizeMB / writers.length);
+		}
+	}
+
+	public void addDocument(Document doc) throws IOException {
+		writers[router.shard(doc, writers.length)].addDocument(doc);
+	}
+
+	/**
+	 * Replaces the documents containing term. When the router cannot tell
+	 * where the old version is, it is deleted from the other shards too, so
+	 * a book that moved to another shard is not left behind.
+	 */
+	public void updateDocument(Term term, Document doc) throws IOException {
+		int target = router.shard(doc, writers.length);
+		if (router.shard(term, writers.length) == -1) {
+			for (int i = 0; i < writers.length; i++) {
+				if (i != target) {
+					writers[i].deleteDocuments(term);
+				}
+			}
+		}
+		writers[target].updateDocument(term, doc);
+	}
+
+	public void deleteDocuments(Term term) throws IOException {
+		int shard = router.shard(term, writers.length);
+		if (shard != -1) {
+			writers[shard].deleteDocuments(term);
+		} else {
+			for (IndexWriter writer : writers) {
+				writer.deleteDocuments(term);
+			}
+		}
+	}
+
+	public int numDocs() throws IOException {
+		int numDocs = 0;
+		for (IndexWriter writer : writers) {
+			numDocs += writer.numDocs();
+		}
+		return numDocs;
+	}
+
+	public void commit() throws IOException {
+		for (IndexWriter writer : writers) {
+			writer.commit();
+		}
+	}
+
+	/**
+	 * Closes every shard writer, and the directories if they were opened here.
+	 */
+	public void close() throws IOException {
+		IOException failure = null;
+		for (int i = 0; i < writers.length; i++) {
+			try {
+				writers[i].close();
+				if (directories != null) {
+					directories[i].close();
+				}
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package common;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+
+/**
+ * Analyzes a field named &lt;field&gt;_shingles like &lt;field&gt; and turns
+ * the tokens into word n-grams with a {@link ShingleFilter}; every other
+ * field is left to the wrapped analyzer.
+ */
+public class ShingleAnalyzer extends Analyzer {
+	public static final String SUFFIX = "_shingles";
+
+	private final Analyzer delegate;
+	private final int maxShingleSize;
+
+	public ShingleAnalyzer(Analyzer delegate, int maxShingleSize) {
+		this.delegate = delegate;
+		this.maxShingleSize = maxShingleSize;
+	}
+
+	public static String shingleField(String field) {
+		return field + SUFFIX;
+	}
+
+	private static String baseField(String field) {
+		return field.endsWith(SUFFIX) ? field.substring(0, field.length() - SUFFIX.length()) : null;
+	}
+
+	public TokenStream tokenStream(String field, Reader reader) {
+		String base = baseField(field);
+		if (base == null) {
+			return delegate.tokenStream(field, reader);
+		}
+		return new ShingleFilter(delegate.tokenStream(base, reader), maxShingleSize);
+	}
+
+	public TokenStream reusableTokenStream(String field, Reader reader) throws IOException {
+		String base = baseField(field);
+		if (base == null) {
+			return delegate.reusableTokenStream(field, reader);
+		}
+		// the delegate hands out the same stream per thread, already reset to the new reader
+		TokenStream source = delegate.reusableTokenStream(base, reader);
+		ShingleFilter shingles = (ShingleFilter) getPreviousTokenStream();
+		if (shingles == null || !shingles.wraps(source)) {
+			shingles = new ShingleFilter(source, maxShingleSize);
+			setPreviousTokenStream(shingles);
+		} else {
+			shingles.reset();
+		}
+		return shingles;
+	}
+
+	public int getPositionIncrementGap(String field) {
+		String base = baseField(field);
+		return delegate.getPositionIncrementGap(base == null ? field : base);
+	}
+
+	public void close() {
+		super.close();
+		delegate.close();
+	}
+}
@@ -0,0 +1,109 @@
+package common;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+
+/**
+ * Turns a token stream into its word n-grams of 2 up to maxShingleSize
+ * adjacent tokens, joined by a space: "quick brown fox" gives "quick brown",
+ * "quick brown fox" and "brown fox". The single tokens are not emitted.
+ *
+ * Shingles never span a position gap, such as a removed stop word or the
+ * gap between two values of a field, so a shingle exists exactly where a
+ * PhraseQuery with slop 0 over its words matches.
+ */
+public final class ShingleFilter extends TokenFilter {
+	public static final String SEPARATOR = " ";
+	public static final String TYPE = "shingle";
+
+	private final int maxShingleSize;
+	// the previous tokens of the current run of adjacent positions, oldest first
+	private final String[] window;
+	private final int[] windowStarts;
+	private int windowSize;
+	private final String[] pending;
+	private final int[] pendingStarts;
+	private int pendingCount;
+	private int pendingUpto;
+	private int pendingEnd;
+	private final StringBuilder buffer = new StringBuilder();
+
+	private final TermAttribute termAtt = addAttribute(TermAttribute.class);
+	private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+	private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+	private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+	public ShingleFilter(TokenStream input, int maxShingleSize) {
+		super(input);
+		if (maxShingleSize < 2) {
+			throw new IllegalArgumentException("maxShingleSize must be at least 2: " + maxShingleSize);
+		}
+		this.maxShingleSize = maxShingleSize;
+		window = new String[maxShingleSize - 1];
+		windowStarts = new int[maxShingleSize - 1];
+		pending = new String[maxShingleSize - 1];
+		pendingStarts = new int[maxShingleSize - 1];
+	}
+
+	public boolean incrementToken() throws IOException {
+		while (pendingUpto == pendingCount) {
+			if (!input.incrementToken()) {
+				return false;
+			}
+			next(termAtt.term(), offsetAtt.startOffset(), offsetAtt.endOffset(), posIncAtt.getPositionIncrement());
+		}
+		clearAttributes();
+		termAtt.setTermBuffer(pending[pendingUpto]);
+		offsetAtt.setOffset(pendingStarts[pendingUpto], pendingEnd);
+		posIncAtt.setPositionIncrement(pendingUpto == 0 ? 1 : 0);
+		typeAtt.setType(TYPE);
+		pendingUpto++;
+		return true;
+	}
+
+	/**
+	 * queues the shingles ending with this token, shortest first
+	 */
+	private void next(String term, int start, int end, int positionIncrement) {
+		if (positionIncrement != 1) {
+			windowSize = 0;
+		}
+		pendingCount = 0;
+		pendingUpto = 0;
+		pendingEnd = end;
+		for (int n = 1; n <= windowSize; n++) {
+			buffer.setLength(0);
+			for (int i = windowSize - n; i < windowSize; i++) {
+				buffer.append(window[i]).append(SEPARATOR);
+			}
+			pending[pendingCount] = buffer.append(term).toString();
+			pendingStarts[pendingCount] = windowStarts[windowSize - n];
+			pendingCount++;
+		}
+		if (windowSize == window.length) {
+			System.arraycopy(window, 1, window, 0, windowSize - 1);
+			System.arraycopy(windowStarts, 1, windowStarts, 0, windowSize - 1);
+			windowSize--;
+		}
+		window[windowSize] = term;
+		windowStarts[windowSize] = start;
+		windowSize++;
+	}
+
+	boolean wraps(TokenStream source) {
+		return input == source;
+	}
+
+	public void reset() throws IOException {
+		super.reset();
+		windowSize = 0;
+		pendingCount = 0;
+		pendingUpto = 0;
+	}
+}
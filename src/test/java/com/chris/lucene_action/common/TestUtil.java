@@ -3,22 +3,26 @@ package com.chris.lucene_action.common;
 import java.io.File;
 import java.io.IOException;
 
-import org.apache.lucene.document.Document;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+
+import com.chris.lucene_action.search.HitCounter;
+import com.chris.lucene_action.search.HitRenderer;
+
+import common.DirectoryFactory;
 
 public class TestUtil {
 	public final static String _DIR = System.getProperty("user.dir");
 	
 		public static boolean hitsIncludeTitle(IndexSearcher searcher, TopDocs hits, String title) 
 				throws IOException {
+			HitRenderer renderer = new HitRenderer(searcher);
 			for(ScoreDoc match:hits.scoreDocs) {
-				if(title.equals(searcher.doc(match.doc).get("title"))) {
+				if(title.equals(renderer.get(match.doc, "title"))) {
 					return true;
 				}
 			}
@@ -27,11 +31,11 @@ public class TestUtil {
 		}
 
 		  public static int hitCount(IndexSearcher searcher, Query query) throws IOException {
-		    return searcher.search(query, 1).totalHits;
+		    return HitCounter.count(searcher, query);
 		  }
 
 		  public static int hitCount(IndexSearcher searcher, Query query, Filter filter) throws IOException {
-		    return searcher.search(query, filter, 1).totalHits;
+		    return HitCounter.count(searcher, query, filter);
 		  }
 
 		  public static void dumpHits(IndexSearcher searcher, TopDocs hits)
@@ -40,15 +44,15 @@ public class TestUtil {
 		      System.out.println("No hits");
 		    }
 
+		    HitRenderer renderer = new HitRenderer(searcher);
 		    for (ScoreDoc match : hits.scoreDocs) {
-		      Document doc = searcher.doc(match.doc);
-		      System.out.println(match.score + ":" + doc.get("title"));
+		      System.out.println(match.score + ":" + renderer.get(match.doc, "title"));
 		    }
 		  }
 		  
 		  public static Directory getBookIndexDirectory() throws IOException {
-		    // The build.xml ant script sets this property for us:
-		    return FSDirectory.open(new File(_DIR + File.separator + "index"));
+		    // -Dindex.directory and -Dindex.warm pick the backend, see DirectoryFactory
+		    return DirectoryFactory.open(new File(_DIR + File.separator + "index"));
 		  }
 
 		  public static void rmDir(File dir) throws IOException {
@@ -0,0 +1,56 @@
+package com.chris.lucene_action.index;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class BookCorpusGeneratorTest extends TestCase {
+
+	private static List<String> books(BookCorpusGenerator generator, long from, long to) throws IOException {
+		final List<String> books = new ArrayList<String>();
+		generator.generate(from, to, new BookCorpusGenerator.BookSink() {
+			public void book(String category, String isbn, String title, String author, String url,
+					String subject, String pubmonth) {
+				books.add(category + "|" + isbn + "|" + title + "|" + author + "|" + url + "|" + subject + "|" + pubmonth);
+			}
+		});
+		return books;
+	}
+
+	public void testSameSeedSameBooks() throws IOException {
+		List<String> all = books(new BookCorpusGenerator(7), 0, 100);
+		assertEquals(all, books(new BookCorpusGenerator(7), 0, 100));
+		// a book only depends on the seed and its number
+		assertEquals(all.subList(40, 60), books(new BookCorpusGenerator(7), 40, 60));
+		assertFalse(all.equals(books(new BookCorpusGenerator(8), 0, 100)));
+	}
+
+	public void testIndexedBooks() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		new BookCorpusGenerator(7).index(writer, 1000, 3);
+		assertEquals(1000, writer.numDocs());
+		writer.close();
+
+		IndexSearcher searcher = new IndexSearcher(dir);
+		int technology = TestUtil.hitCount(searcher, new PrefixQuery(new Term("category", "/technology")));
+		assertTrue("most frequent category name", technology > 100);
+		searcher.close();
+		dir.close();
+	}
+}
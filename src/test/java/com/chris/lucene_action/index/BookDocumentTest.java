@@ -0,0 +1,124 @@
+package com.chris.lucene_action.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.lucene.document.DateTools;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.BookDocument;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+/**
+ * A BookDocument refilled book after book must equal a fresh one per book
+ */
+public class BookDocumentTest extends TestCase {
+
+	public void testReusedEqualsFreshOverDataTree() throws Exception {
+		String rootDir = TestUtil._DIR + File.separator + "data";
+		List<File> files = new ArrayList<File>();
+		collect(new File(rootDir), files);
+		assertFalse(files.isEmpty());
+
+		for (File file : files) {
+			Properties props = load(file);
+			Document expected = CreateTestIndex.getDocument(rootDir, file);
+			InputStream in = new FileInputStream(file);
+			try {
+				// the calling thread's document, refilled for every file
+				Document reused = CreateTestIndex.getReusableDocument(rootDir, file, in);
+				assertSameFields(file.getPath(), expected, reused);
+				assertAuthors(props.getProperty("author"), reused);
+				assertDay(props.getProperty("pubmonth"), reused);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	public void testAuthorLists() throws Exception {
+		// consecutive fills grow and shrink the author fields of the reused document
+		String[] authors = { "a,b,c", "", "a", "a,,b", ",a", "a,b,,", ",,,", "a,b,c,d,e", "a," };
+		String[] pubmonths = { "201005", "199912", "200001", "201002", "197001" };
+		BookDocument reused = new BookDocument(false);
+		for (int i = 0; i < authors.length; i++) {
+			String pubmonth = pubmonths[i % pubmonths.length];
+			Document actual = reused.fill("/technology", "" + i, "Title " + i, authors[i],
+					"http://example.com", "subject", pubmonth);
+			Document expected = new BookDocument(false).fill("/technology", "" + i, "Title " + i, authors[i],
+					"http://example.com", "subject", pubmonth);
+			assertSameFields(authors[i], expected, actual);
+			assertAuthors(authors[i], actual);
+			assertDay(pubmonth, actual);
+		}
+	}
+
+	// same fields in the same order, with the same values and flags
+	private static void assertSameFields(String message, Document expected, Document actual) {
+		List<Fieldable> expectedFields = expected.getFields();
+		List<Fieldable> actualFields = actual.getFields();
+		assertEquals(message, expectedFields.size(), actualFields.size());
+		for (int i = 0; i < expectedFields.size(); i++) {
+			Fieldable e = expectedFields.get(i);
+			Fieldable a = actualFields.get(i);
+			String name = message + " " + e.name();
+			assertEquals(name, e.name(), a.name());
+			assertEquals(name, e.isStored(), a.isStored());
+			assertEquals(name, e.isIndexed(), a.isIndexed());
+			assertEquals(name, e.isTokenized(), a.isTokenized());
+			assertEquals(name, e.getOmitNorms(), a.getOmitNorms());
+			assertEquals(name, e.isTermVectorStored(), a.isTermVectorStored());
+			if (e instanceof NumericField) {
+				assertEquals(name, ((NumericField) e).getNumericValue(), ((NumericField) a).getNumericValue());
+			} else {
+				assertEquals(name, e.stringValue(), a.stringValue());
+			}
+		}
+	}
+
+	// the authors as author.split(",") yields them
+	private static void assertAuthors(String author, Document doc) {
+		assertEquals(author, Arrays.asList(author.split(",")), Arrays.asList(doc.getValues("author")));
+	}
+
+	// days since the epoch as DateTools computes them
+	private static void assertDay(String pubmonth, Document doc) throws Exception {
+		int day = (int) (DateTools.stringToDate(pubmonth).getTime() / (1000 * 3600 * 24));
+		assertEquals(pubmonth, day, ((NumericField) doc.getFieldable("pubmonthAsDay")).getNumericValue());
+	}
+
+	private static Properties load(File file) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+
+	private static void collect(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		Arrays.sort(children);
+		for (File child : children) {
+			if (child.isDirectory()) {
+				collect(child, files);
+			} else if (child.getName().endsWith(".properties")) {
+				files.add(child);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.chris.lucene_action.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.search.HitRenderer;
+
+import common.BookCorpusGenerator;
+import common.ColumnStore;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class ColumnStoreTest extends TestCase {
+	private static final String[] FIELDS = {"isbn", "title", "url", "category"};
+
+	private File storeDir;
+	private Directory dir;
+	private IndexWriter writer;
+
+	protected void setUp() throws Exception {
+		storeDir = File.createTempFile("columns", "");
+		storeDir.delete();
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(200); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(11).index(writer, 1000, 2);
+		writer.commit();
+	}
+
+	protected void tearDown() throws Exception {
+		writer.close();
+		dir.close();
+		new ColumnStore(storeDir).clear();
+		storeDir.delete();
+	}
+
+	public void testSameValuesAsStoredFields() throws IOException {
+		ColumnStore store = new ColumnStore(storeDir, FIELDS);
+		IndexReader reader = IndexReader.open(dir, true);
+		int segments = reader.getSequentialSubReaders().length;
+		assertTrue(segments > 1);
+		assertEquals(segments * FIELDS.length, store.sync(reader));
+		assertEquals(0, store.sync(reader));
+		assertEquals(2 * segments * FIELDS.length, storeDir.list().length);
+
+		IndexSearcher searcher = new IndexSearcher(reader);
+		HitRenderer stored = new HitRenderer(searcher);
+		HitRenderer columns = new HitRenderer(searcher, store);
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			for (String field : FIELDS) {
+				assertEquals(stored.get(doc, field), columns.get(doc, field));
+			}
+		}
+		assertEquals(stored.get(0, "subject"), columns.get(0, "subject"));
+
+		IndexReader segment = reader.getSequentialSubReaders()[0];
+		ColumnStore.Column title = store.getColumn(segment, "title");
+		assertSame(title, store.getColumn(segment, "title"));
+		assertEquals(segment.maxDoc(), title.size());
+		assertEquals(segment.document(0).get("title").getBytes("UTF-8").length, title.getBytes(0).remaining());
+		assertNull(store.getColumn(segment, "subject"));
+		reader.close();
+	}
+
+	public void testMergesAndDeletions() throws IOException {
+		ColumnStore store = new ColumnStore(storeDir, FIELDS);
+		IndexReader reader = IndexReader.open(dir, true);
+		store.sync(reader);
+		Set<String> before = new HashSet<String>(Arrays.asList(storeDir.list()));
+
+		// deleted documents keep their columns until their segment is merged away
+		writer.deleteDocuments(new Term("subject", "junit"));
+		writer.commit();
+		IndexReader deleted = reader.reopen();
+		assertTrue(deleted.hasDeletions());
+		assertEquals(0, store.sync(deleted));
+
+		writer.optimize();
+		writer.commit();
+		IndexReader optimized = deleted.reopen();
+		assertEquals(1, optimized.getSequentialSubReaders().length);
+		assertEquals(FIELDS.length, store.sync(optimized));
+		Set<String> after = new HashSet<String>(Arrays.asList(storeDir.list()));
+		assertEquals(2 * FIELDS.length, after.size());
+		after.retainAll(before);
+		assertTrue(after.isEmpty());
+
+		HitRenderer stored = new HitRenderer(new IndexSearcher(optimized));
+		HitRenderer columns = new HitRenderer(new IndexSearcher(optimized), store);
+		for (int doc = 0; doc < optimized.maxDoc(); doc++) {
+			assertEquals(stored.get(doc, "title"), columns.get(doc, "title"));
+		}
+
+		// a segment written after the last sync is read from the stored fields
+		new BookCorpusGenerator(12).index(writer, 10, 1);
+		writer.commit();
+		IndexReader added = optimized.reopen();
+		IndexReader newSegment = added.getSequentialSubReaders()[1];
+		assertNull(store.getColumn(newSegment, "title"));
+		columns = new HitRenderer(new IndexSearcher(added), store);
+		assertEquals(newSegment.document(0).get("title"), columns.get(optimized.maxDoc(), "title"));
+
+		added.close();
+		optimized.close();
+		deleted.close();
+		reader.close();
+	}
+
+	public void testIndexCreatedAgain() throws IOException {
+		ColumnStore store = new ColumnStore(storeDir, FIELDS);
+		IndexReader reader = IndexReader.open(dir, true);
+		store.sync(reader);
+		String name = ((SegmentReader) reader.getSequentialSubReaders()[0]).getSegmentName();
+		reader.close();
+
+		// the same segment names and sizes, other books
+		writer.close();
+		dir.close();
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(200);
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(13).index(writer, 1000, 2);
+		writer.commit();
+		IndexReader recreated = IndexReader.open(dir, true);
+		IndexReader segment = recreated.getSequentialSubReaders()[0];
+		assertEquals(name, ((SegmentReader) segment).getSegmentName());
+		assertNull(store.getColumn(segment, "title"));
+		assertEquals(recreated.getSequentialSubReaders().length * FIELDS.length, store.sync(recreated));
+
+		HitRenderer stored = new HitRenderer(new IndexSearcher(recreated));
+		HitRenderer columns = new HitRenderer(new IndexSearcher(recreated), store);
+		for (int doc = 0; doc < recreated.maxDoc(); doc++) {
+			assertEquals(stored.get(doc, "title"), columns.get(doc, "title"));
+		}
+		recreated.close();
+	}
+}
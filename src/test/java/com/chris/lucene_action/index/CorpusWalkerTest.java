@@ -0,0 +1,121 @@
+package com.chris.lucene_action.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.CorpusWalker;
+
+import junit.framework.TestCase;
+
+/**
+ * The parallel CorpusWalker over a nested temp tree
+ */
+public class CorpusWalkerTest extends TestCase {
+	private File root;
+	private Set<String> expected;
+
+	protected void setUp() throws Exception {
+		root = File.createTempFile("corpus", "");
+		root.delete();
+		expected = new HashSet<String>();
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 4; j++) {
+				File dir = new File(root, "category" + i + "/sub" + j + (j % 2 == 0 ? "/deeper" : ""));
+				dir.mkdirs();
+				for (int k = 0; k < 6; k++) {
+					File book = new File(dir, "book" + k + ".properties");
+					book.createNewFile();
+					expected.add(book.getPath());
+				}
+				new File(dir, "notes.txt").createNewFile();
+			}
+		}
+		new File(root, "empty/nested").mkdirs();
+		File top = new File(root, "top.properties");
+		top.createNewFile();
+		expected.add(top.getPath());
+	}
+
+	protected void tearDown() throws Exception {
+		delete(root);
+	}
+
+	public void testEveryFileVisitedOnce() throws Exception {
+		for (int threads = 1; threads <= 8; threads *= 2) {
+			final List<String> visited = new CopyOnWriteArrayList<String>();
+			new CorpusWalker(root, threads).walk(new CorpusWalker.Visitor() {
+				public void visit(File file) {
+					visited.add(file.getPath());
+				}
+			});
+			assertEquals(expected.size(), visited.size());
+			assertEquals(expected, new HashSet<String>(visited));
+		}
+	}
+
+	public void testEmptyTree() throws Exception {
+		File empty = new File(root, "empty");
+		final AtomicInteger visited = new AtomicInteger();
+		new CorpusWalker(empty, 4).walk(new CorpusWalker.Visitor() {
+			public void visit(File file) {
+				visited.incrementAndGet();
+			}
+		});
+		assertEquals(0, visited.get());
+	}
+
+	public void testFailingVisitorStopsWalk() throws Exception {
+		final AtomicInteger visited = new AtomicInteger();
+		try {
+			new CorpusWalker(root, 4).walk(new CorpusWalker.Visitor() {
+				public void visit(File file) throws IOException {
+					if (visited.incrementAndGet() == 10) {
+						throw new IOException("visitor failed");
+					}
+				}
+			});
+			fail("visitor failure swallowed");
+		} catch (IOException e) {
+			assertEquals("visitor failed", e.getMessage());
+		}
+		assertTrue(visited.get() < expected.size());
+
+		try {
+			new CorpusWalker(root, 4).walk(new CorpusWalker.Visitor() {
+				public void visit(File file) {
+					throw new IllegalStateException("unchecked");
+				}
+			});
+			fail("unchecked visitor failure swallowed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	public void testMissingRoot() throws Exception {
+		try {
+			new CorpusWalker(new File(root, "missing"), 2).walk(new CorpusWalker.Visitor() {
+				public void visit(File file) {
+				}
+			});
+			fail("missing root walked");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
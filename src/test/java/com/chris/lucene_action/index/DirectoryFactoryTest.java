@@ -0,0 +1,125 @@
+package com.chris.lucene_action.index;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.DirectoryFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * The index.directory backends of DirectoryFactory over a small index on disk
+ */
+public class DirectoryFactoryTest extends TestCase {
+	private File path;
+	private String oldType;
+
+	protected void setUp() throws Exception {
+		oldType = System.getProperty("index.directory");
+		path = File.createTempFile("index", "");
+		path.delete();
+		Directory dir = FSDirectory.open(path);
+		IndexWriter writer = new IndexWriter(dir, new SimpleAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setUseCompoundFile(false);
+		for (int i = 0; i < 20; i++) {
+			Document doc = new Document();
+			doc.add(new Field("name", "chris " + i, Field.Store.YES, Field.Index.ANALYZED));
+			writer.addDocument(doc);
+		}
+		writer.close();
+		dir.close();
+	}
+
+	protected void tearDown() throws Exception {
+		if (oldType == null) {
+			System.clearProperty("index.directory");
+		} else {
+			System.setProperty("index.directory", oldType);
+		}
+		TestUtil.rmDir(path);
+	}
+
+	public void testEveryBackendOpensIndex() throws IOException {
+		assertBackend("fs", FSDirectory.class);
+		assertBackend("mmap", MMapDirectory.class);
+		assertBackend("nio", NIOFSDirectory.class);
+		assertBackend("simple", SimpleFSDirectory.class);
+		assertBackend("ram", RAMDirectory.class);
+	}
+
+	public void testUnknownBackendRejected() throws IOException {
+		System.setProperty("index.directory", "tape");
+		try {
+			DirectoryFactory.open(path);
+			fail("unknown backend accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testRamWritesToDisk() throws IOException {
+		System.setProperty("index.directory", "ram");
+		Directory dir = DirectoryFactory.openForWriting(path);
+		try {
+			assertTrue(dir instanceof FSDirectory);
+			assertEquals(path.getCanonicalFile(), ((FSDirectory) dir).getFile().getCanonicalFile());
+		} finally {
+			dir.close();
+		}
+	}
+
+	public void testWarmReportsFilesAndBytes() throws IOException {
+		int files = 0;
+		long bytes = 0;
+		for (File file : path.listFiles()) {
+			String name = file.getName();
+			if (name.endsWith(".tis") || name.endsWith(".tii") || name.endsWith(".frq")
+					|| name.endsWith(".prx") || name.endsWith(".nrm")) {
+				files++;
+				bytes += file.length();
+			}
+		}
+		assertEquals(5, files);
+
+		Directory dir = DirectoryFactory.open(path, DirectoryFactory.Type.SIMPLE);
+		DirectoryFactory.WarmupStats stats = DirectoryFactory.warm(dir);
+		assertEquals(files, stats.getFiles());
+		assertEquals(bytes, stats.getBytes());
+		dir.close();
+
+		dir = DirectoryFactory.open(path, DirectoryFactory.Type.RAM);
+		stats = DirectoryFactory.warm(dir);
+		assertEquals("already in memory", 0, stats.getFiles());
+		assertEquals(0, stats.getBytes());
+		dir.close();
+	}
+
+	private void assertBackend(String type, Class<? extends Directory> expected) throws IOException {
+		System.setProperty("index.directory", type);
+		Directory dir = DirectoryFactory.open(path);
+		try {
+			assertTrue(type + ": " + dir.getClass(), expected.isInstance(dir));
+			IndexSearcher searcher = new IndexSearcher(dir, true);
+			assertEquals(type, 20, TestUtil.hitCount(searcher, new TermQuery(new Term("name", "chris"))));
+			searcher.close();
+		} finally {
+			dir.close();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.chris.lucene_action.index;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+
+import common.BookCorpusGenerator;
+import common.BookDocument;
+import common.CreateTestIndex;
+import common.FieldSchema;
+import common.FieldStatsReport;
+
+import junit.framework.TestCase;
+
+public class FieldSchemaTest extends TestCase {
+
+	private static Document book(BookDocument template) {
+		return template.fill("/technology/computers/programming", "1933988177", "Lucene in Action, Second Edition",
+				"Michael McCandless,Erik Hatcher,Otis Gospodnetic", "http://www.manning.com/hatcher3",
+				"lucene search java", "201005");
+	}
+
+	// store, index, tokenize, omitNorms, termVector with positions and offsets
+	private static void assertField(Document doc, String name, boolean stored, boolean indexed, boolean tokenized,
+			boolean omitNorms, boolean vectors) {
+		Fieldable[] fields = doc.getFieldables(name);
+		assertTrue(name, fields.length > 0);
+		for (Fieldable field : fields) {
+			assertEquals(name, stored, field.isStored());
+			assertEquals(name, indexed, field.isIndexed());
+			assertEquals(name, tokenized, field.isTokenized());
+			assertEquals(name, omitNorms, field.getOmitNorms());
+			assertEquals(name, vectors, field.isTermVectorStored());
+			assertEquals(name, vectors, field.isStorePositionWithTermVector());
+			assertEquals(name, vectors, field.isStoreOffsetWithTermVector());
+		}
+	}
+
+	public void testDefaultSchemaKeepsFields() {
+		Document doc = book(new BookDocument(FieldSchema.getDefault(), false));
+		assertField(doc, "isbn", true, true, false, false, false);
+		assertField(doc, "category", true, true, false, false, false);
+		assertField(doc, "title", true, true, true, false, true);
+		assertField(doc, "title2", true, true, false, true, true);
+		assertField(doc, "author", true, true, false, false, true);
+		assertField(doc, "url", true, true, false, true, false);
+		assertField(doc, "subject", true, true, true, false, true);
+		assertField(doc, "contents", false, true, true, false, true);
+		assertEquals(3, doc.getFieldables("author").length);
+		assertEquals(4, doc.getFieldables("contents").length);
+
+		NumericField pubmonth = (NumericField) doc.getFieldable("pubmonth");
+		assertTrue(pubmonth.isStored());
+		assertTrue(pubmonth.isIndexed());
+		assertEquals(4, FieldSchema.getDefault().get("pubmonth").precisionStep);
+		assertFalse(doc.getFieldable("pubmonthAsDay").isStored());
+		assertNull(doc.getFieldable("title_shingles"));
+	}
+
+	public void testDisabledFieldsLeftOut() {
+		Properties props = new Properties();
+		for (String field : FieldSchema.getDefault().getFieldNames()) {
+			props.setProperty(field + ".index", "analyzed");
+		}
+		props.setProperty("url.index", "no");
+		props.setProperty("title.termVector", "with_offsets");
+		props.setProperty("pubmonth.numeric", "true");
+		props.setProperty("pubmonth.precisionStep", "8");
+		props.setProperty("pubmonthAsDay.numeric", "true");
+		FieldSchema schema = new FieldSchema(props);
+		assertFalse(schema.isEnabled("url"));
+
+		Document doc = book(new BookDocument(schema, true));
+		assertNull(doc.getFieldable("url"));
+		assertTrue(doc.getFieldable("title").isStoreOffsetWithTermVector());
+		assertFalse(doc.getFieldable("title").isStorePositionWithTermVector());
+		assertTrue(doc.getFieldable("pubmonth") instanceof NumericField);
+		assertEquals(8, schema.get("pubmonth").precisionStep);
+		assertEquals(4, doc.getFieldables("contents_shingles").length);
+
+		props.setProperty("title.stored", "yes");
+		try {
+			new FieldSchema(props);
+			fail("unknown setting");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	public void testReport() throws IOException {
+		FieldStatsReport full = report(FieldSchema.getDefault());
+		FieldStatsReport lean = report(FieldSchema.load("book-schema-lean.properties"));
+		List<FieldStatsReport.FieldStats> fullStats = full.run();
+		List<FieldStatsReport.FieldStats> leanStats = lean.run();
+		assertEquals(10, fullStats.size());
+
+		long fullBytes = 0;
+		long fullVectors = 0;
+		for (FieldStatsReport.FieldStats stats : fullStats) {
+			assertTrue(stats.getField(), stats.getBytes() > 0);
+			fullBytes += stats.getBytes();
+			fullVectors += stats.getBytes("vectors");
+		}
+		long leanBytes = 0;
+		for (FieldStatsReport.FieldStats stats : leanStats) {
+			assertEquals(stats.getField(), 0, stats.getBytes("vectors"));
+			leanBytes += stats.getBytes();
+		}
+		// no vectors, and title2 is not stored
+		assertTrue(leanBytes < fullBytes - fullVectors);
+	}
+
+	private static FieldStatsReport report(FieldSchema schema) throws IOException {
+		final FieldStatsReport report = new FieldStatsReport(schema, CreateTestIndex.getAnalyzer(), false);
+		new BookCorpusGenerator(7).generate(0, 500, new BookCorpusGenerator.BookSink() {
+			public void book(String category, String isbn, String title, String author, String url,
+					String subject, String pubmonth) {
+				report.add(category, isbn, title, author, url, subject, pubmonth);
+			}
+		});
+		return report;
+	}
+}
@@ -0,0 +1,118 @@
+package com.chris.lucene_action.index;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.IndexManifest;
+import common.IndexPipeline;
+
+import junit.framework.TestCase;
+
+/**
+ * Incremental re-indexing through IndexPipeline and IndexManifest
+ */
+public class IncrementalIndexTest extends TestCase {
+	private File dataDir;
+	private Directory directory;
+	private IndexManifest manifest;
+
+	protected void setUp() throws Exception {
+		dataDir = File.createTempFile("books", "");
+		dataDir.delete();
+		new File(dataDir, "health").mkdirs();
+		new File(dataDir, "technology").mkdirs();
+		writeBook("health/a.properties", "1", "Healthy Living");
+		writeBook("technology/b.properties", "2", "Lucene in Action");
+		writeBook("technology/c.properties", "3", "Ant in Action");
+
+		directory = new RAMDirectory();
+		manifest = new IndexManifest();
+		IndexPipeline.Stats stats = run(true);
+		assertEquals(3, stats.getDocs());
+	}
+
+	protected void tearDown() throws Exception {
+		directory.close();
+		delete(dataDir);
+	}
+
+	public void testUnchangedFilesAreSkipped() throws IOException {
+		IndexPipeline.Stats stats = run(false);
+		assertEquals(0, stats.getDocs());
+		assertEquals(3, stats.getUnchanged());
+		assertEquals(3, numDocs());
+	}
+
+	public void testChangedAndRemovedFiles() throws IOException {
+		writeBook("technology/b.properties", "2", "Lucene in Action, Second Edition");
+		new File(dataDir, "technology/b.properties").setLastModified(System.currentTimeMillis() + 10000);
+		assertTrue(new File(dataDir, "technology/c.properties").delete());
+
+		IndexPipeline.Stats stats = run(false);
+		assertEquals(1, stats.getDocs());
+		assertEquals(1, stats.getDeleted());
+		assertEquals(2, numDocs());
+
+		IndexSearcher searcher = new IndexSearcher(directory);
+		assertEquals(1, TestUtil.hitCount(searcher, new TermQuery(new Term("isbn", "2"))));
+		assertEquals(0, TestUtil.hitCount(searcher, new TermQuery(new Term("isbn", "3"))));
+		searcher.close();
+	}
+
+	public void testMovedFileKeepsBook() throws IOException {
+		File from = new File(dataDir, "health/a.properties");
+		assertTrue(from.renameTo(new File(dataDir, "technology/a.properties")));
+
+		IndexPipeline.Stats stats = run(false);
+		assertEquals(1, stats.getDocs());
+		assertEquals(0, stats.getDeleted());
+		assertEquals(3, numDocs());
+	}
+
+	private IndexPipeline.Stats run(boolean create) throws IOException {
+		IndexWriter writer = new IndexWriter(directory, new SimpleAnalyzer(), create,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		IndexPipeline.Stats stats = new IndexPipeline(dataDir.getPath())
+				.setThreads(2)
+				.setManifest(manifest, !create)
+				.run(writer);
+		writer.close();
+		return stats;
+	}
+
+	private int numDocs() throws IOException {
+		IndexReader reader = IndexReader.open(directory);
+		int numDocs = reader.numDocs();
+		reader.close();
+		return numDocs;
+	}
+
+	private void writeBook(String path, String isbn, String title) throws IOException {
+		FileWriter writer = new FileWriter(new File(dataDir, path));
+		writer.write("isbn=" + isbn + "\ntitle=" + title + "\nauthor=chris\nurl=http://example.com\n"
+				+ "subject=test\npubmonth=201001\n");
+		writer.close();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
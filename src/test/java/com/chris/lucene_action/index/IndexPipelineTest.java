@@ -0,0 +1,140 @@
+package com.chris.lucene_action.index;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+
+import common.DocumentSink;
+import common.IndexPipeline;
+
+import junit.framework.TestCase;
+
+/**
+ * IndexPipeline with several workers over a generated data tree
+ */
+public class IndexPipelineTest extends TestCase {
+	private static final int BOOKS = 300;
+
+	private File dataDir;
+
+	protected void setUp() throws Exception {
+		dataDir = File.createTempFile("books", "");
+		dataDir.delete();
+		for (int i = 0; i < BOOKS; i++) {
+			writeBook("category" + i % 3 + "/sub" + i % 7, i, "201001");
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		delete(dataDir);
+	}
+
+	public void testEveryBookIndexedOnce() throws IOException {
+		RecordingSink sink = new RecordingSink();
+		IndexPipeline.Stats stats = pipeline().run(sink);
+		assertEquals(BOOKS, stats.getDocs());
+		assertEquals(BOOKS, sink.isbns.size());
+		Set<String> distinct = new HashSet<String>(sink.isbns);
+		assertEquals(BOOKS, distinct.size());
+		for (int i = 0; i < BOOKS; i++) {
+			assertTrue(distinct.contains("" + i));
+		}
+	}
+
+	public void testFailingSinkFailsRun() {
+		final AtomicInteger added = new AtomicInteger();
+		try {
+			pipeline().run(new RecordingSink() {
+				public void addDocument(Document doc) throws IOException {
+					if (added.incrementAndGet() == 10) {
+						throw new IOException("disk full");
+					}
+				}
+			});
+			fail("sink failure swallowed");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+	}
+
+	public void testUnparsableFileFailsRun() throws IOException {
+		writeBook("category0", BOOKS, "not a month");
+		try {
+			pipeline().run(new RecordingSink());
+			fail("unparsable pubmonth indexed");
+		} catch (NumberFormatException e) {
+			// expected
+		}
+	}
+
+	public void testEmptyTree() throws IOException {
+		delete(dataDir);
+		assertTrue(dataDir.mkdirs());
+		IndexPipeline.Stats stats = pipeline().run(new RecordingSink());
+		assertEquals(0, stats.getDocs());
+		assertEquals(0.0, stats.getDocsPerSecond());
+	}
+
+	public void testDocsPerSecond() throws IOException {
+		IndexPipeline.Stats stats = pipeline().run(new RecordingSink());
+		double docsPerSecond = stats.getDocsPerSecond();
+		assertTrue(docsPerSecond > 0);
+		// the rate is computed from nanos, the elapsed time is truncated to millis
+		long millis = stats.getElapsedMillis();
+		assertTrue(millis == 0 || docsPerSecond <= BOOKS * 1000.0 / millis);
+		assertTrue(docsPerSecond >= BOOKS * 1000.0 / (millis + 1));
+		assertTrue(stats.toString(), stats.toString().contains(BOOKS + " docs in " + millis + " ms"));
+	}
+
+	private IndexPipeline pipeline() {
+		return new IndexPipeline(dataDir.getPath())
+				.setThreads(4)
+				.setDiscoveryThreads(3)
+				.setQueueCapacity(2)
+				.setProgressInterval(0);
+	}
+
+	private static class RecordingSink implements DocumentSink {
+		final List<String> isbns = new CopyOnWriteArrayList<String>();
+
+		public void addDocument(Document doc) throws IOException {
+			// the document is refilled by the worker's next book
+			isbns.add(doc.get("isbn"));
+		}
+
+		public void updateDocument(Term term, Document doc) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		public void deleteDocuments(Term term) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private void writeBook(String dir, int isbn, String pubmonth) throws IOException {
+		File parent = new File(dataDir, dir);
+		parent.mkdirs();
+		FileWriter writer = new FileWriter(new File(parent, isbn + ".properties"));
+		writer.write("isbn=" + isbn + "\ntitle=Book " + isbn + "\nauthor=chris\nurl=http://example.com\n"
+				+ "subject=test\npubmonth=" + pubmonth + "\n");
+		writer.close();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
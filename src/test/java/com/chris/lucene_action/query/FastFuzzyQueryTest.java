@@ -0,0 +1,115 @@
+package com.chris.lucene_action.query;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+import com.chris.lucene_action.search.BKTreeIndex;
+import com.chris.lucene_action.search.FastFuzzyQuery;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+/**
+ * FastFuzzyQuery must rewrite to exactly what FuzzyQuery rewrites to
+ */
+public class FastFuzzyQueryTest extends TestCase {
+
+	public void testSameAsWildcardQueryTest() throws IOException {
+		Directory directory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		for (String word : new String[] {"wuzzy", "fuzzy"}) {
+			Document doc = new Document();
+			doc.add(new Field("contents", word, Field.Store.YES, Field.Index.ANALYZED));
+			writer.addDocument(doc);
+		}
+		writer.close();
+
+		IndexSearcher searcher = new IndexSearcher(directory);
+		BKTreeIndex index = new BKTreeIndex("contents");
+		Query query = new FastFuzzyQuery(new Term("contents", "wuzza"), index);
+		TopDocs docs = searcher.search(query, 10);
+
+		assertEquals(2, docs.totalHits);
+		assertTrue(docs.scoreDocs[0].score != docs.scoreDocs[1].score);
+		assertTrue(index.ramBytesUsed() > 0);
+		searcher.close();
+	}
+
+	public void testMatchesFuzzyQueryOnBooks() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		BKTreeIndex index = new BKTreeIndex("contents", "title");
+		index.warm(searcher);
+
+		String[] texts = {"lucine", "actoin", "junit", "ant", "mindstorm", "programing", "a", "tao", "extreme"};
+		float[] similarities = {0.3f, 0.5f, 0.7f};
+		int[] prefixes = {0, 1, 2};
+		for (String field : new String[] {"contents", "title", "subject"}) {
+			for (String text : texts) {
+				for (float similarity : similarities) {
+					for (int prefix : prefixes) {
+						Term term = new Term(field, text);
+						String message = field + ":" + text + "~" + similarity + "/" + prefix;
+						FuzzyQuery expected = new FuzzyQuery(term, similarity, prefix);
+						FuzzyQuery actual = new FastFuzzyQuery(term, similarity, prefix, index);
+						assertEquals(message, searcher.rewrite(expected), searcher.rewrite(actual));
+						assertSameHits(message, searcher.search(expected, 100), searcher.search(actual, 100));
+					}
+				}
+			}
+		}
+
+		searcher.close();
+		dir.close();
+	}
+
+	public void testMatchesFuzzyQueryOnGeneratedBooks() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(500); // several segments
+		new BookCorpusGenerator(13).setVocabularySize(5000).index(writer, 3000, 2);
+		writer.close();
+
+		IndexSearcher searcher = new IndexSearcher(dir);
+		BKTreeIndex index = new BKTreeIndex("contents");
+		TermEnum terms = searcher.getIndexReader().terms(new Term("contents", ""));
+		int checked = 0;
+		for (int i = 0; terms.term() != null && "contents".equals(terms.term().field()); i++, terms.next()) {
+			if (i % 97 == 0) {
+				Term term = terms.term();
+				assertEquals(term.text(), searcher.rewrite(new FuzzyQuery(term, 0.6f)),
+						searcher.rewrite(new FastFuzzyQuery(term, 0.6f, 0, index)));
+				checked++;
+			}
+		}
+		terms.close();
+		assertTrue(checked > 10);
+
+		searcher.close();
+		dir.close();
+	}
+
+	private static void assertSameHits(String message, TopDocs expected, TopDocs actual) {
+		assertEquals(message, expected.totalHits, actual.totalHits);
+		for (int i = 0; i < expected.scoreDocs.length; i++) {
+			assertEquals(message, expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+			assertEquals(message, expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0f);
+		}
+	}
+}
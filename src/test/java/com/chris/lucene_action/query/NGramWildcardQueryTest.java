@@ -0,0 +1,92 @@
+package com.chris.lucene_action.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+import com.chris.lucene_action.search.NGramIndex;
+import com.chris.lucene_action.search.NGramWildcardQuery;
+
+/**
+ * NGramWildcardQuery must match exactly what WildcardQuery matches
+ */
+public class NGramWildcardQueryTest extends TestCase {
+
+	public void testSameAsWildcardQueryTest() throws IOException {
+		Directory directory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		for (String word : new String[] {"wild", "child", "mild", "mildew"}) {
+			Document doc = new Document();
+			doc.add(new Field("contents", word, Field.Store.YES, Field.Index.ANALYZED));
+			writer.addDocument(doc);
+		}
+		writer.close();
+
+		IndexSearcher searcher = new IndexSearcher(directory);
+		NGramIndex grams = new NGramIndex("contents");
+		grams.warm(searcher);
+		Query query = new NGramWildcardQuery(new Term("contents", "?ild*"), grams);
+		TopDocs docs = searcher.search(query, 10);
+
+		assertEquals(3, docs.totalHits);
+		assertEquals("same score", docs.scoreDocs[0].score, docs.scoreDocs[1].score, 0.0);
+		assertEquals("same score", docs.scoreDocs[1].score, docs.scoreDocs[2].score, 0.0);
+		assertTrue(grams.ramBytesUsed() > 0);
+		searcher.close();
+	}
+
+	public void testMatchesWildcardQueryOnBooks() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		NGramIndex grams = new NGramIndex("contents", "subject");
+
+		String[] patterns = {"?ild*", "*ing", "*uni*", "j*t", "*a*", "?", "*ction", "lu?ene", "*$*"};
+		for (String field : new String[] {"contents", "subject", "title"}) {
+			for (String pattern : patterns) {
+				Term term = new Term(field, pattern);
+				assertSameHits(field + ":" + pattern, searcher, new WildcardQuery(term),
+						new NGramWildcardQuery(term, grams));
+			}
+		}
+
+		searcher.close();
+		dir.close();
+	}
+
+	public void testRequiredGrams() {
+		NGramIndex grams = new NGramIndex("contents");
+		assertEquals(Arrays.asList("ild"), grams.requiredGrams("?ild*"));
+		assertEquals(Arrays.asList("$lu", "ene", "ne$"), grams.requiredGrams("lu?ene"));
+		assertEquals(Arrays.asList("$ju"), grams.requiredGrams("ju*"));
+		assertTrue(grams.requiredGrams("*a*").isEmpty());
+	}
+
+	private static void assertSameHits(String message, IndexSearcher searcher, MultiTermQuery expected,
+			MultiTermQuery actual) throws IOException {
+		expected.setRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_QUERY_REWRITE);
+		actual.setRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_QUERY_REWRITE);
+		TopDocs expectedDocs = searcher.search(expected, 1000);
+		TopDocs actualDocs = searcher.search(actual, 1000);
+		assertEquals(message, expectedDocs.totalHits, actualDocs.totalHits);
+		for (int i = 0; i < expectedDocs.scoreDocs.length; i++) {
+			assertEquals(message, expectedDocs.scoreDocs[i].doc, actualDocs.scoreDocs[i].doc);
+			assertEquals(message, expectedDocs.scoreDocs[i].score, actualDocs.scoreDocs[i].score, 0.0f);
+		}
+		assertEquals(message, searcher.rewrite(expected), searcher.rewrite(actual));
+	}
+}
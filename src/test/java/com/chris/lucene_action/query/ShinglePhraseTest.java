@@ -0,0 +1,192 @@
+package com.chris.lucene_action.query;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.search.ShinglePhraseRewriter;
+
+import common.BookDocument;
+import common.CreateTestIndex;
+
+/**
+ * exact phrases answered from the *_shingles fields must match the same books as PhraseQuery
+ */
+public class ShinglePhraseTest extends TestCase {
+	private Analyzer analyzer;
+	private Directory dir;
+	private IndexSearcher searcher;
+	private List<Properties> books = new ArrayList<Properties>();
+
+	protected void setUp() throws Exception {
+		analyzer = CreateTestIndex.getAnalyzer();
+		dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, analyzer, true, IndexWriter.MaxFieldLength.UNLIMITED);
+		String dataDir = CreateTestIndex._DIR + File.separator + "data";
+		BookDocument template = new BookDocument(true);
+		for (File file : findBooks(new File(dataDir), new ArrayList<File>())) {
+			Properties props = template.properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+			books.add((Properties) props.clone());
+			writer.addDocument(template.fill(CreateTestIndex.getCategory(dataDir, file), props));
+		}
+		writer.close();
+		searcher = new IndexSearcher(dir);
+	}
+
+	protected void tearDown() throws IOException {
+		searcher.close();
+		dir.close();
+	}
+
+	private static List<File> findBooks(File dir, List<File> books) {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				findBooks(file, books);
+			} else if (file.getName().endsWith(".properties")) {
+				books.add(file);
+			}
+		}
+		return books;
+	}
+
+	public void testShingles() throws IOException {
+		List<String> shingles = new ArrayList<String>();
+		TokenStream stream = analyzer.tokenStream("field_shingles",
+				new StringReader("the quick brown fox jumped over the lazy dog"));
+		TermAttribute term = stream.addAttribute(TermAttribute.class);
+		while (stream.incrementToken()) {
+			shingles.add(term.term());
+		}
+		// "the" is a stop word, no shingle spans its hole
+		assertEquals("[quick brown, brown fox, quick brown fox, fox jumped, brown fox jumped, "
+				+ "jumped over, fox jumped over, lazy dog]", shingles.toString());
+	}
+
+	public void testSameMatchesAsPhraseQuery() throws IOException {
+		ShinglePhraseRewriter rewriter = new ShinglePhraseRewriter(BookDocument.MAX_SHINGLE_SIZE, "title", "contents");
+		int rewritten = 0;
+		for (Properties book : books) {
+			for (String text : new String[] {book.getProperty("title"), book.getProperty("subject")}) {
+				for (String field : new String[] {"title", "contents"}) {
+					for (PhraseQuery phrase : phrases(field, text)) {
+						Query query = rewriter.rewrite(phrase);
+						if (query instanceof TermQuery) {
+							rewritten++;
+						}
+						assertEquals(phrase.toString(), docs(phrase), docs(query));
+					}
+				}
+			}
+		}
+		assertTrue(rewritten > 100);
+
+		PhraseQuery reversed = phrase("contents", "action", "lucene");
+		assertEquals(docs(reversed), docs(rewriter.rewrite(reversed)));
+		PhraseQuery acrossValues = phrase("contents", "action", "erik");
+		assertEquals(docs(acrossValues), docs(rewriter.rewrite(acrossValues)));
+	}
+
+	public void testOnlyExactAdjacentPhrasesRewritten() {
+		ShinglePhraseRewriter rewriter = new ShinglePhraseRewriter(3, "title");
+
+		PhraseQuery sloppy = phrase("title", "lucene", "action");
+		sloppy.setSlop(1);
+		assertSame(sloppy, rewriter.rewrite(sloppy));
+
+		PhraseQuery hole = new PhraseQuery();
+		hole.add(new Term("title", "lucene"), 0);
+		hole.add(new Term("title", "action"), 2);
+		assertSame(hole, rewriter.rewrite(hole));
+
+		PhraseQuery tooLong = phrase("title", "a", "b", "c", "d");
+		assertSame(tooLong, rewriter.rewrite(tooLong));
+
+		PhraseQuery otherField = phrase("subject", "lucene", "action");
+		assertSame(otherField, rewriter.rewrite(otherField));
+
+		BooleanQuery bq = new BooleanQuery();
+		bq.add(phrase("title", "lucene", "action"), BooleanClause.Occur.MUST);
+		bq.add(sloppy, BooleanClause.Occur.SHOULD);
+		BooleanQuery result = (BooleanQuery) rewriter.rewrite(bq);
+		assertEquals(new TermQuery(new Term("title_shingles", "lucene action")), result.getClauses()[0].getQuery());
+		assertSame(sloppy, result.getClauses()[1].getQuery());
+		assertTrue(bq.getClauses()[0].getQuery() instanceof PhraseQuery);
+	}
+
+	private static PhraseQuery phrase(String field, String... words) {
+		PhraseQuery query = new PhraseQuery();
+		for (String word : words) {
+			query.add(new Term(field, word));
+		}
+		return query;
+	}
+
+	/**
+	 * every 2 and 3 word phrase of the analyzed text, at the analyzed positions
+	 */
+	private List<PhraseQuery> phrases(String field, String text) throws IOException {
+		List<String> words = new ArrayList<String>();
+		List<Integer> positions = new ArrayList<Integer>();
+		TokenStream stream = analyzer.tokenStream(field, new StringReader(text));
+		TermAttribute term = stream.addAttribute(TermAttribute.class);
+		PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+		int position = -1;
+		while (stream.incrementToken()) {
+			position += posInc.getPositionIncrement();
+			words.add(term.term());
+			positions.add(position);
+		}
+		List<PhraseQuery> phrases = new ArrayList<PhraseQuery>();
+		for (int size = 2; size <= 3; size++) {
+			for (int start = 0; start + size <= words.size(); start++) {
+				PhraseQuery query = new PhraseQuery();
+				for (int i = start; i < start + size; i++) {
+					query.add(new Term(field, words.get(i)), positions.get(i) - positions.get(start));
+				}
+				phrases.add(query);
+			}
+		}
+		return phrases;
+	}
+
+	private Set<Integer> docs(Query query) throws IOException {
+		Set<Integer> docs = new HashSet<Integer>();
+		TopDocs hits = searcher.search(query, 1000);
+		for (ScoreDoc hit : hits.scoreDocs) {
+			docs.add(hit.doc);
+		}
+		return docs;
+	}
+}
@@ -0,0 +1,164 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class AggregationCollectorTest extends TestCase {
+
+	public void testBookIndex() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		IntColumnCache columns = new IntColumnCache("pubmonth");
+		columns.warm(searcher);
+		AggregationCollector months = new AggregationCollector(columns, "pubmonth").histogram(1)
+				.range("2010", 201001, 201012);
+		searcher.search(new MatchAllDocsQuery(), months);
+
+		assertEquals(searcher.maxDoc(), months.getCount());
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int doc = 0; doc < searcher.maxDoc(); doc++) {
+			int pubmonth = Integer.parseInt(searcher.doc(doc).get("pubmonth"));
+			min = Math.min(min, pubmonth);
+			max = Math.max(max, pubmonth);
+		}
+		assertEquals(min, months.getMin());
+		assertEquals(max, months.getMax());
+		for (Map.Entry<Long, Long> month : months.getHistogram().entrySet()) {
+			int pubmonth = month.getKey().intValue();
+			assertEquals(TestUtil.hitCount(searcher, NumericRangeQuery.newIntRange("pubmonth", pubmonth, pubmonth, true, true)),
+					month.getValue().intValue());
+		}
+		assertEquals(Integer.valueOf(TestUtil.hitCount(searcher, NumericRangeQuery.newIntRange("pubmonth", 201001, 201012, true, true))),
+				months.getRanges().get("2010"));
+		assertTrue(columns.ramBytesUsed() > 0);
+		searcher.close();
+		dir.close();
+	}
+
+	public void testHistogramMatchesRangeQueries() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(300); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(21).index(writer, 1500, 2);
+		writer.commit();
+		writer.deleteDocuments(new Term("subject", "junit"));
+		writer.close();
+		IndexSearcher searcher = new IndexSearcher(dir, true);
+		assertTrue(searcher.getIndexReader().hasDeletions());
+
+		Query query = new TermQuery(new Term("subject", "lucene"));
+		IntColumnCache columns = new IntColumnCache();
+		TopScoreDocCollector topDocs = TopScoreDocCollector.create(10, true);
+		AggregationCollector years = new AggregationCollector(columns, "pubmonth", topDocs).histogram(100)
+				.range("seventies", null, 197912)
+				.range("2000s", 200001, 200912)
+				.range("from 2005", 200501, null);
+		searcher.search(query, years);
+
+		int hits = searcher.search(query, 1).totalHits;
+		assertEquals(hits, topDocs.getTotalHits());
+		assertEquals(hits, years.getCount());
+		SortedMap<Long, Long> histogram = years.getHistogram();
+		assertTrue(histogram.size() > 10);
+		long total = 0;
+		for (int year = 1970; year <= 2020; year++) {
+			Long count = histogram.get(year * 100L);
+			int expected = count(searcher, query, year * 100, year * 100 + 99);
+			assertEquals(String.valueOf(year), expected, count == null ? 0 : count.intValue());
+			total += expected;
+		}
+		assertEquals(hits, total);
+		assertEquals(years.getMin() / 100 * 100, histogram.firstKey().intValue());
+		assertEquals(years.getMax() / 100 * 100, histogram.lastKey().intValue());
+		Map<String, Integer> ranges = years.getRanges();
+		assertEquals(count(searcher, query, Integer.MIN_VALUE, 197912), ranges.get("seventies").intValue());
+		assertEquals(count(searcher, query, 200001, 200912), ranges.get("2000s").intValue());
+		assertEquals(count(searcher, query, 200501, Integer.MAX_VALUE), ranges.get("from 2005").intValue());
+
+		searcher.close();
+		dir.close();
+	}
+
+	public void testColumns() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		addBook(writer, 0);
+		addBook(writer, -7);
+		addBook(writer, null);
+		writer.commit();
+
+		IntColumnCache columns = new IntColumnCache("pubmonth");
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexReader segment = reader.getSequentialSubReaders()[0];
+		IntColumn column = columns.getColumn(segment, "pubmonth");
+		assertTrue(column.hasValue(0));
+		assertEquals(0, column.get(0));
+		assertEquals(-7, column.get(1));
+		assertFalse(column.hasValue(2));
+		assertEquals(-7, column.getMin());
+		assertEquals(0, column.getMax());
+
+		AggregationCollector aggregation = new AggregationCollector(columns, "pubmonth").histogram(5);
+		new IndexSearcher(reader).search(new MatchAllDocsQuery(), aggregation);
+		assertEquals(2, aggregation.getCount());
+		assertEquals(-7, aggregation.getSum());
+		assertEquals(Long.valueOf(1), aggregation.getHistogram().get(-10L));
+		assertEquals(Long.valueOf(1), aggregation.getHistogram().get(0L));
+
+		// an unchanged segment keeps its column across a reopen
+		addBook(writer, 201001);
+		writer.commit();
+		IndexReader newReader = reader.reopen();
+		assertSame(column, columns.getColumn(newReader.getSequentialSubReaders()[0], "pubmonth"));
+
+		writer.close();
+		newReader.close();
+		reader.close();
+		dir.close();
+	}
+
+	private static int count(IndexSearcher searcher, Query query, int from, int to) throws IOException {
+		BooleanQuery both = new BooleanQuery();
+		both.add(query, BooleanClause.Occur.MUST);
+		both.add(NumericRangeQuery.newIntRange("pubmonth", from, to, true, true), BooleanClause.Occur.MUST);
+		return TestUtil.hitCount(searcher, both);
+	}
+
+	private static void addBook(IndexWriter writer, Integer pubmonth) throws IOException {
+		Document doc = new Document();
+		doc.add(new Field("title", "book", Field.Store.YES, Field.Index.ANALYZED));
+		if (pubmonth != null) {
+			doc.add(new NumericField("pubmonth").setIntValue(pubmonth));
+		}
+		writer.addDocument(doc);
+	}
+}
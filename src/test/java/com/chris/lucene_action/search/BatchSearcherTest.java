@@ -0,0 +1,159 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class BatchSearcherTest extends TestCase {
+	private Directory dir;
+	private IndexSearcher searcher;
+
+	protected void setUp() throws Exception {
+		dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(400); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(9).setVocabularySize(1000).setYears(2000, 2009).index(writer, 2000, 2);
+		writer.commit();
+		writer.deleteDocuments(new Term("subject", "junit"));
+		writer.close();
+		searcher = new IndexSearcher(dir, true);
+		assertTrue(searcher.getIndexReader().hasDeletions());
+	}
+
+	protected void tearDown() throws Exception {
+		searcher.close();
+		dir.close();
+	}
+
+	public void testCountsMatchHitCounter() throws IOException, ParseException {
+		List<Query> queries = new ArrayList<Query>();
+		// every subject term, plus some that are not in the index
+		TermEnum terms = searcher.getIndexReader().terms(new Term("subject", ""));
+		for (; terms.term() != null && terms.term().field().equals("subject"); terms.next()) {
+			queries.add(new TermQuery(terms.term()));
+			queries.add(new TermQuery(new Term("subject", terms.term().text() + "x")));
+		}
+		terms.close();
+		queries.add(new TermQuery(new Term("subject", "junit")));
+		queries.add(new TermQuery(new Term("aaa", "none")));
+		queries.add(new TermQuery(new Term("zzz", "none")));
+		TermQuery boosted = new TermQuery(new Term("subject", "lucene"));
+		boosted.setBoost(3);
+		queries.add(boosted);
+		for (int year = 2000; year <= 2009; year++) {
+			for (int month = 1; month <= 12; month++) {
+				int pubmonth = year * 100 + month;
+				queries.add(NumericRangeQuery.newIntRange("pubmonth", pubmonth, pubmonth, true, true));
+			}
+			queries.add(NumericRangeQuery.newIntRange("pubmonth", year * 100, year * 100 + 99, false, false));
+		}
+		queries.add(NumericRangeQuery.newIntRange("pubmonth", 200303, null, true, true));
+		queries.add(NumericRangeQuery.newIntRange("pubmonth", 200506, 200506, true, false));
+		queries.add(NumericRangeQuery.newIntRange("pubmonth", null, 200412, true, false));
+		queries.add(NumericRangeQuery.newIntRange("pubmonth", null, null, true, true));
+		queries.add(new PrefixQuery(new Term("category", "/technology")));
+		queries.add(new QueryParser(Version.LUCENE_30, "contents", CreateTestIndex.getAnalyzer())
+				.parse("lucene OR ant"));
+		// duplicates
+		queries.addAll(new ArrayList<Query>(queries.subList(0, 20)));
+		assertTrue(queries.size() > 200);
+
+		int[] counts = new BatchSearcher(searcher).count(queries);
+		assertEquals(queries.size(), counts.length);
+		int total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			assertEquals(queries.get(i).toString(), HitCounter.count(searcher, queries.get(i)), counts[i]);
+			total += counts[i];
+		}
+		assertTrue(total > 0);
+	}
+
+	public void testSameTopDocsAsSearch() throws IOException, ParseException {
+		QueryParser parser = new QueryParser(Version.LUCENE_30, "contents", CreateTestIndex.getAnalyzer());
+		List<Query> queries = Arrays.asList(
+				new TermQuery(new Term("subject", "lucene")),
+				parser.parse("lucene OR ant OR junit"),
+				NumericRangeQuery.newIntRange("pubmonth", 200301, 200312, true, true),
+				parser.parse("+title:action pubmonth:[200000 TO 200999]"),
+				new TermQuery(new Term("subject", "lucene")),
+				new TermQuery(new Term("subject", "nosuchterm")));
+		TopDocs[] results = new BatchSearcher(searcher).search(queries, 20);
+		assertEquals(queries.size(), results.length);
+		assertSame(results[0], results[4]);
+		for (int i = 0; i < results.length; i++) {
+			TopDocs expected = searcher.search(queries.get(i), 20);
+			String message = queries.get(i).toString();
+			assertEquals(message, expected.totalHits, results[i].totalHits);
+			assertEquals(message, expected.scoreDocs.length, results[i].scoreDocs.length);
+			for (int j = 0; j < expected.scoreDocs.length; j++) {
+				assertEquals(message, expected.scoreDocs[j].doc, results[i].scoreDocs[j].doc);
+				assertEquals(message, expected.scoreDocs[j].score, results[i].scoreDocs[j].score, 0.0f);
+			}
+		}
+	}
+
+	public void testHugeNIsClampedToMaxDoc() throws IOException {
+		Query query = new TermQuery(new Term("subject", "lucene"));
+		TopDocs[] results = new BatchSearcher(searcher).search(Arrays.asList(query), Integer.MAX_VALUE);
+		assertEquals(searcher.search(query, Integer.MAX_VALUE).totalHits, results[0].scoreDocs.length);
+	}
+
+	public void testMultiValuedRangeCountsMatchHitCounter() throws IOException {
+		Directory multi = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(multi, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(10);
+		writer.setMergeFactor(100);
+		for (int i = 0; i < 50; i++) {
+			Document doc = new Document();
+			// up to three years per document, some of them in the same decade
+			for (int j = 0; j <= i % 3; j++) {
+				doc.add(new NumericField("year", Field.Store.NO, true).setIntValue(1990 + (i + 4 * j) % 30));
+			}
+			writer.addDocument(doc);
+		}
+		writer.close();
+		IndexSearcher multiSearcher = new IndexSearcher(multi, true);
+		try {
+			List<Query> queries = new ArrayList<Query>();
+			for (int decade = 1990; decade < 2020; decade += 10) {
+				queries.add(NumericRangeQuery.newIntRange("year", decade, decade + 9, true, true));
+			}
+			queries.add(NumericRangeQuery.newIntRange("year", null, null, true, true));
+			int[] counts = new BatchSearcher(multiSearcher).count(queries);
+			for (int i = 0; i < counts.length; i++) {
+				assertEquals(queries.get(i).toString(), HitCounter.count(multiSearcher, queries.get(i)), counts[i]);
+			}
+			assertEquals(50, counts[counts.length - 1]);
+		} finally {
+			multiSearcher.close();
+			multi.close();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class ConcurrentIndexSearcherTest extends TestCase {
+	private Directory dir;
+	private IndexReader reader;
+	private ExecutorService executor;
+
+	protected void setUp() throws Exception {
+		dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(300); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(17).setVocabularySize(2000).index(writer, 3000, 2);
+		writer.deleteDocuments(new Term("subject", "junit"));
+		writer.close();
+		reader = IndexReader.open(dir, true);
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	protected void tearDown() throws Exception {
+		executor.shutdown();
+		reader.close();
+		dir.close();
+	}
+
+	public void testSameHitsAsIndexSearcher() throws IOException {
+		BooleanQuery booleanQuery = new BooleanQuery();
+		booleanQuery.add(new TermQuery(new Term("subject", "search")), BooleanClause.Occur.MUST);
+		booleanQuery.add(NumericRangeQuery.newIntRange("pubmonth", 199001, 201012, true, true),
+				BooleanClause.Occur.MUST);
+		BooleanQuery disjunction = new BooleanQuery();
+		disjunction.add(new TermQuery(new Term("subject", "lucene")), BooleanClause.Occur.SHOULD);
+		disjunction.add(new TermQuery(new Term("title", "action")), BooleanClause.Occur.SHOULD);
+		Query[] queries = {booleanQuery, disjunction, new TermQuery(new Term("subject", "java"))};
+
+		IndexSearcher expected = new IndexSearcher(reader);
+		assertTrue(expected.getIndexReader().getSequentialSubReaders().length > 4);
+		for (int threads = 1; threads <= 4; threads++) {
+			ConcurrentIndexSearcher actual = new ConcurrentIndexSearcher(reader, executor, threads);
+			for (Query query : queries) {
+				for (int n : new int[] {1, 10, 1000}) {
+					assertSameHits(query + " n=" + n + " threads=" + threads,
+							expected.search(query, n), actual.search(query, n));
+				}
+			}
+		}
+	}
+
+	public void testFilter() throws IOException {
+		FilterCache cache = new FilterCache(10);
+		Query query = new TermQuery(new Term("subject", "search"));
+		IndexSearcher expected = new IndexSearcher(reader);
+		ConcurrentIndexSearcher actual = new ConcurrentIndexSearcher(reader, executor, 4);
+		assertSameHits("category", expected.search(query, cache.categoryPrefix("/technology"), 50),
+				actual.search(query, cache.categoryPrefix("/technology"), 50));
+		assertSameHits("pubmonth", expected.search(query, cache.pubmonthRange(200001, 200912), 50),
+				actual.search(query, cache.pubmonthRange(200001, 200912), 50));
+	}
+
+	public void testSlices() throws IOException {
+		ConcurrentIndexSearcher searcher = new ConcurrentIndexSearcher(reader, executor, 3);
+		assertEquals(3, searcher.getSlices().length);
+		boolean[] seen = new boolean[reader.getSequentialSubReaders().length];
+		for (int[] slice : searcher.getSlices()) {
+			for (int segment : slice) {
+				assertFalse(seen[segment]);
+				seen[segment] = true;
+			}
+		}
+		for (boolean segment : seen) {
+			assertTrue(segment);
+		}
+
+		searcher.setMaxThreadsPerQuery(1);
+		assertEquals(1, searcher.getMaxThreadsPerQuery());
+		assertEquals(1, searcher.getSlices().length);
+		try {
+			searcher.setMaxThreadsPerQuery(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void assertSameHits(String message, TopDocs expected, TopDocs actual) {
+		assertTrue(message, expected.totalHits > 0);
+		assertEquals(message, expected.totalHits, actual.totalHits);
+		assertEquals(message, expected.getMaxScore(), actual.getMaxScore(), 0.0f);
+		assertEquals(message, expected.scoreDocs.length, actual.scoreDocs.length);
+		for (int i = 0; i < expected.scoreDocs.length; i++) {
+			assertEquals(message, expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+			assertEquals(message, expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0f);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class FacetCollectorTest extends TestCase {
+
+	public void testBookIndex() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		FacetIndex index = FacetIndex.forBooks();
+		FacetCollector facets = new FacetCollector(index);
+		searcher.search(new MatchAllDocsQuery(), facets);
+
+		assertEquals(searcher.maxDoc(), facets.getHitCount());
+		int programming = TestUtil.hitCount(searcher,
+				new PrefixQuery(new Term("category", "/technology/computers/programming")));
+		assertEquals(programming, facets.getCount("category", "/technology/computers/programming"));
+		assertTrue(facets.getCount("category", "/technology") >= programming);
+		assertEquals(0, facets.getCount("category", "/technology/comp"));
+
+		Map<String, Integer> top = facets.getChildren("category", "");
+		int total = 0;
+		for (Map.Entry<String, Integer> entry : top.entrySet()) {
+			assertEquals("", FacetIndex.parent(entry.getKey()));
+			total += entry.getValue();
+		}
+		assertEquals(searcher.maxDoc(), total);
+		assertEquals(top.get("/technology"), facets.getChildren("category", "").values().iterator().next());
+
+		assertSameCounts(searcher, null, index, facets);
+		assertTrue(index.ramBytesUsed() > 0);
+		searcher.close();
+		dir.close();
+	}
+
+	public void testGeneratedBooksWithDeletions() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(300); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(3).setAuthorNames(200).index(writer, 1500, 2);
+		writer.commit();
+		writer.deleteDocuments(new Term("subject", "junit"));
+		writer.close();
+		IndexSearcher searcher = new IndexSearcher(dir, true);
+		assertTrue(searcher.getIndexReader().hasDeletions());
+		assertTrue(searcher.getIndexReader().getSequentialSubReaders().length > 1);
+
+		FacetIndex index = FacetIndex.forBooks();
+		index.warm(searcher);
+		Query query = new TermQuery(new Term("subject", "lucene"));
+		TopScoreDocCollector topDocs = TopScoreDocCollector.create(10, true);
+		FacetCollector facets = new FacetCollector(index, topDocs);
+		searcher.search(query, facets);
+
+		TopDocs expected = searcher.search(query, 10);
+		assertEquals(expected.totalHits, facets.getHitCount());
+		assertEquals(expected.totalHits, topDocs.getTotalHits());
+		assertEquals(expected.scoreDocs[0].doc, topDocs.topDocs().scoreDocs[0].doc);
+		assertSameCounts(searcher, query, index, facets);
+
+		searcher.close();
+		dir.close();
+	}
+
+	// every category node and author against a query per value
+	private static void assertSameCounts(IndexSearcher searcher, Query query, FacetIndex index,
+			FacetCollector facets) throws IOException {
+		IndexReader reader = searcher.getIndexReader();
+		int checked = 0;
+		for (String field : index.getFields()) {
+			TermEnum terms = reader.terms(new Term(field, ""));
+			for (; terms.term() != null && terms.term().field().equals(field); terms.next()) {
+				for (String value = terms.term().text(); value.length() > 0; ) {
+					BooleanQuery facet = new BooleanQuery();
+					facet.add(new TermQuery(new Term(field, value)), BooleanClause.Occur.SHOULD);
+					if (index.isHierarchical(field)) {
+						facet.add(new PrefixQuery(new Term(field, value + FacetIndex.SEPARATOR)),
+								BooleanClause.Occur.SHOULD);
+					}
+					Query expected = facet;
+					if (query != null) {
+						BooleanQuery both = new BooleanQuery();
+						both.add(query, BooleanClause.Occur.MUST);
+						both.add(facet, BooleanClause.Occur.MUST);
+						expected = both;
+					}
+					assertEquals(field + ":" + value, HitCounter.count(searcher, expected),
+							facets.getCount(field, value));
+					checked++;
+					value = index.isHierarchical(field) ? FacetIndex.parent(value) : "";
+				}
+			}
+			terms.close();
+		}
+		assertTrue(checked > 10);
+	}
+}
@@ -0,0 +1,149 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixFilter;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.OpenBitSet;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import junit.framework.TestCase;
+
+public class FilterCacheTest extends TestCase {
+
+	public void testSameResultsAsQueries() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		FilterCache cache = new FilterCache(10);
+
+		String prefix = "/technology/computers/programming";
+		int expected = TestUtil.hitCount(searcher, new PrefixQuery(new Term("category", prefix)));
+		assertEquals(expected, TestUtil.hitCount(searcher, new MatchAllDocsQuery(), cache.categoryPrefix(prefix)));
+
+		TermQuery junit = new TermQuery(new Term("subject", "junit"));
+		assertEquals(2, TestUtil.hitCount(searcher, junit, cache.categoryPrefix(prefix)));
+
+		expected = TestUtil.hitCount(searcher, NumericRangeQuery.newIntRange("pubmonth", 200605, 200609, true, true));
+		assertEquals(expected, TestUtil.hitCount(searcher, new MatchAllDocsQuery(), cache.pubmonthRange(200605, 200609)));
+
+		assertSame(cache.categoryPrefix(prefix), cache.get(new PrefixFilter(new Term("category", prefix))));
+		assertEquals(2, cache.size());
+		assertTrue(cache.ramBytesUsed() > 0);
+
+		searcher.close();
+		dir.close();
+	}
+
+	public void testOnlyNewSegmentsBuiltAfterReopen() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		addBook(writer, "/technology/computers", 201001);
+		addBook(writer, "/health", 201002);
+		writer.commit();
+
+		FilterCache cache = new FilterCache(10);
+		FilterCache.CachedFilter technology = cache.categoryPrefix("/technology");
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexSearcher searcher = new IndexSearcher(reader);
+		assertEquals(1, TestUtil.hitCount(searcher, new MatchAllDocsQuery(), technology));
+		IndexReader segment = reader.getSequentialSubReaders()[0];
+		OpenBitSet bits = technology.getBits(segment);
+		assertEquals(1, technology.getSegmentCount());
+
+		addBook(writer, "/technology/ai", 201003);
+		writer.commit();
+		IndexReader newReader = reader.reopen();
+		searcher = new IndexSearcher(newReader);
+		assertEquals(2, TestUtil.hitCount(searcher, new MatchAllDocsQuery(), technology));
+		assertEquals(2, technology.getSegmentCount());
+		assertSame("unchanged segment reuses its bitset", bits, technology.getBits(newReader.getSequentialSubReaders()[0]));
+
+		reader.close();
+		newReader.close();
+		writer.close();
+		dir.close();
+	}
+
+	public void testDeletionsAfterBuildAreSkipped() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		addBook(writer, "/technology/computers", 201001);
+		addBook(writer, "/technology/ai", 201002);
+		writer.commit();
+
+		FilterCache.CachedFilter technology = new FilterCache(10).categoryPrefix("/technology");
+		IndexReader reader = IndexReader.open(dir, true);
+		assertEquals(2, new IndexSearcher(reader).search(new ConstantScoreQuery(technology), 10).totalHits);
+
+		writer.deleteDocuments(new Term("category", "/technology/ai"));
+		writer.commit();
+		IndexReader newReader = reader.reopen();
+		IndexReader segment = newReader.getSequentialSubReaders()[0];
+		assertEquals("bitset built before the delete", 2, technology.getBits(segment).cardinality());
+		assertEquals(1, new IndexSearcher(newReader).search(new ConstantScoreQuery(technology), 10).totalHits);
+
+		reader.close();
+		newReader.close();
+		writer.close();
+		dir.close();
+	}
+
+	public void testOldReaderAfterNewReaderBuilt() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		addBook(writer, "/technology/computers", 201001);
+		addBook(writer, "/technology/ai", 201002);
+		addBook(writer, "/technology/networks", 201003);
+		addBook(writer, "/technology/databases", 201004);
+		writer.commit();
+		IndexReader reader = IndexReader.open(dir, true);
+
+		writer.deleteDocuments(new Term("category", "/technology/ai"));
+		writer.commit();
+		IndexReader newReader = reader.reopen();
+
+		// the new reader builds the bitset of the shared core first
+		FilterCache.CachedFilter technology = new FilterCache(10).categoryPrefix("/technology");
+		assertEquals(3, new IndexSearcher(newReader).search(new ConstantScoreQuery(technology), 10).totalHits);
+		assertEquals(4, new IndexSearcher(reader).search(new ConstantScoreQuery(technology), 10).totalHits);
+		assertEquals(3, new IndexSearcher(newReader).search(new ConstantScoreQuery(technology), 10).totalHits);
+		assertEquals(1, technology.getSegmentCount());
+
+		reader.close();
+		newReader.close();
+		writer.close();
+		dir.close();
+	}
+
+	public void testLeastRecentlyUsedFilterEvicted() {
+		FilterCache cache = new FilterCache(2);
+		FilterCache.CachedFilter health = cache.categoryPrefix("/health");
+		cache.categoryPrefix("/technology");
+		cache.categoryPrefix("/health");
+		cache.categoryPrefix("/philosophy");
+		assertEquals(2, cache.size());
+		assertSame(health, cache.categoryPrefix("/health"));
+	}
+
+	private void addBook(IndexWriter writer, String category, int pubmonth) throws IOException {
+		Document doc = new Document();
+		doc.add(new Field("category", category, Field.Store.YES, Field.Index.NOT_ANALYZED));
+		doc.add(new NumericField("pubmonth").setIntValue(pubmonth));
+		writer.addDocument(doc);
+	}
+}
@@ -0,0 +1,104 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.PrefixFilter;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class HitCounterTest extends TestCase {
+
+	public void testBookIndex() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		assertEquals(searcher.maxDoc(), HitCounter.count(searcher, new MatchAllDocsQuery()));
+		assertEquals(2, HitCounter.count(searcher, new TermQuery(new Term("subject", "junit"))));
+		assertEquals(0, HitCounter.count(searcher, new TermQuery(new Term("subject", "nosuchterm"))));
+		searcher.close();
+		dir.close();
+	}
+
+	public void testSameCountsAsSearch() throws IOException, ParseException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(400); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(5).setVocabularySize(2000).index(writer, 2000, 2);
+		writer.commit();
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexSearcher before = new IndexSearcher(reader);
+		// deletions in some segments only
+		writer.deleteDocuments(new Term("subject", "ant"));
+		writer.close();
+		IndexSearcher after = new IndexSearcher(reader.reopen());
+		assertTrue(after.getIndexReader().hasDeletions());
+
+		QueryParser parser = new QueryParser(Version.LUCENE_30, "contents", CreateTestIndex.getAnalyzer());
+		Query[] queries = {
+				new MatchAllDocsQuery(),
+				new TermQuery(new Term("subject", "junit")),
+				new TermQuery(new Term("subject", "ant")),
+				new PrefixQuery(new Term("category", "/technology")),
+				new WildcardQuery(new Term("contents", "?ild*")),
+				parser.parse("lucene OR ant OR junit"),
+				parser.parse("+lucene -junit"),
+				parser.parse("\"lucene action\"")};
+		FilterCache cache = new FilterCache(10);
+		Filter[] filters = {
+				null,
+				cache.categoryPrefix("/technology"),
+				cache.pubmonthRange(199001, 200912),
+				new PrefixFilter(new Term("category", "/technology")),
+				NumericRangeFilter.newIntRange("pubmonth", 199001, 200912, true, true),
+				new QueryWrapperFilter(new TermQuery(new Term("subject", "nosuchterm")))};
+
+		for (IndexSearcher searcher : new IndexSearcher[] {before, after}) {
+			for (Query query : queries) {
+				for (Filter filter : filters) {
+					String message = query + " " + filter;
+					assertEquals(message, searcher.search(query, filter, 1).totalHits,
+							HitCounter.count(searcher, query, filter));
+				}
+			}
+		}
+
+		before.close();
+		after.getIndexReader().close();
+		reader.close();
+		dir.close();
+	}
+
+	public void testCountingCollector() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		HitCounter.CountingCollector collector = new HitCounter.CountingCollector();
+		Query query = new PrefixQuery(new Term("category", "/technology"));
+		searcher.search(query, collector);
+		assertEquals(searcher.search(query, 1).totalHits, collector.getCount());
+		searcher.close();
+		dir.close();
+	}
+}
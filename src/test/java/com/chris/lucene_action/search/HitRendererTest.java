@@ -0,0 +1,73 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import junit.framework.TestCase;
+
+public class HitRendererTest extends TestCase {
+
+	public void testSameTitlesAsFullDocuments() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		StoredFieldColumns columns = new StoredFieldColumns();
+		HitRenderer plain = new HitRenderer(searcher);
+		HitRenderer cached = new HitRenderer(searcher, columns, "title");
+
+		TopDocs hits = searcher.search(new MatchAllDocsQuery(), 100);
+		List<String> titles = plain.get(hits, "title");
+		assertEquals(titles, cached.get(hits, "title"));
+		for (int i = 0; i < hits.scoreDocs.length; i++) {
+			assertEquals(searcher.doc(hits.scoreDocs[i].doc).get("title"), titles.get(i));
+		}
+		assertTrue(columns.ramBytesUsed() > 0);
+
+		searcher.close();
+		dir.close();
+	}
+
+	public void testDocumentLoadsOnlyRequestedFields() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexSearcher searcher = new IndexSearcher(dir);
+		HitRenderer renderer = new HitRenderer(searcher);
+
+		TopDocs hits = searcher.search(new TermQuery(new Term("subject", "junit")), 10);
+		assertTrue(hits.totalHits > 0);
+		int doc = hits.scoreDocs[0].doc;
+		Document full = searcher.doc(doc);
+		Document partial = renderer.document(doc, "title", "author");
+		for (Object field : partial.getFields()) {
+			String name = ((Fieldable) field).name();
+			assertTrue(name, name.equals("title") || name.equals("author"));
+		}
+		assertEquals(full.get("title"), partial.get("title"));
+		assertEquals(full.getValues("author").length, partial.getValues("author").length);
+		assertNull(partial.get("isbn"));
+
+		searcher.close();
+		dir.close();
+	}
+
+	public void testColumnsSharedPerSegment() throws IOException {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexReader reader = IndexReader.open(dir, true);
+		StoredFieldColumns columns = new StoredFieldColumns();
+		IndexReader segment = reader.getSequentialSubReaders()[0];
+		assertSame(columns.getColumn(segment, "title"), columns.getColumn(segment, "title"));
+		assertEquals(segment.maxDoc(), columns.getColumn(segment, "title").length);
+		reader.close();
+		dir.close();
+	}
+}
@@ -0,0 +1,228 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import junit.framework.TestCase;
+
+public class IngestionServiceTest extends TestCase {
+	private Directory dir;
+	private IndexWriter writer;
+	private SearcherManager manager;
+
+	protected void setUp() throws Exception {
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		manager = new SearcherManager(writer);
+	}
+
+	protected void tearDown() throws Exception {
+		manager.close();
+		writer.close();
+		dir.close();
+	}
+
+	private static Document book(String isbn, String title) {
+		Document doc = new Document();
+		doc.add(new Field("isbn", isbn, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+		doc.add(new Field("title", title, Field.Store.YES, Field.Index.ANALYZED));
+		return doc;
+	}
+
+	private int count(String field, String text) throws IOException {
+		IndexSearcher searcher = manager.acquire();
+		try {
+			return TestUtil.hitCount(searcher, new TermQuery(new Term(field, text)));
+		} finally {
+			manager.release(searcher);
+		}
+	}
+
+	public void testUpdatesAreAppliedInOrder() throws IOException {
+		IngestionService service = new IngestionService(writer, manager, 100).setRefreshInterval(60000);
+		// queued before start, so the applier takes them as one batch
+		for (int i = 0; i < 10; i++) {
+			service.addDocument(book("" + i, "lucene"));
+		}
+		service.updateDocument(new Term("isbn", "3"), book("3", "ant"));
+		service.updateDocument(new Term("isbn", "3"), book("3", "junit"));
+		service.deleteDocuments(new Term("isbn", "4"));
+		service.updateDocument(new Term("isbn", "4"), book("4", "junit"));
+		service.deleteDocuments(new Term("isbn", "5"));
+		service.start();
+		service.refresh();
+
+		assertEquals(7, count("title", "lucene"));
+		assertEquals(0, count("title", "ant"));
+		assertEquals(2, count("title", "junit"));
+		assertEquals(0, count("isbn", "5"));
+		IngestionService.Stats stats = service.getStats();
+		assertEquals(15, stats.getApplied());
+		assertEquals(15, stats.getVisible());
+		assertEquals(0, stats.getCommitted());
+		assertEquals(1, stats.getBatches());
+		assertEquals(2, stats.getSkipped());
+		assertEquals(0, stats.getLagMillis());
+
+		service.close();
+		assertEquals(15, service.getStats().getCommitted());
+		IndexReader committed = IndexReader.open(dir, true);
+		assertEquals(9, committed.numDocs());
+		committed.close();
+		try {
+			service.addDocument(book("11", "lucene"));
+			fail();
+		} catch (IllegalStateException e) {
+			// AlreadyClosedException
+		}
+	}
+
+	public void testBackpressure() throws IOException {
+		IngestionService service = new IngestionService(writer, manager, 2).setOfferTimeout(20);
+		service.addDocument(book("1", "lucene"));
+		service.addDocument(book("2", "lucene"));
+		try {
+			service.addDocument(book("3", "lucene"));
+			fail("queue is full until the service starts");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(2, service.getStats().getQueued());
+		service.start();
+		service.addDocument(book("3", "lucene"));
+		service.refresh();
+		assertEquals(3, count("title", "lucene"));
+		service.close();
+	}
+
+	public void testScheduledRefreshAndCommit() throws Exception {
+		IngestionService service = new IngestionService(writer, manager, 1000)
+				.setMaxBatchSize(10)
+				.setRefreshInterval(20)
+				.setCommitInterval(50)
+				.start();
+		for (int i = 0; i < 100; i++) {
+			service.addDocument(book("" + i, "lucene"));
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		while (service.getStats().getCommitted() < 100 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		IngestionService.Stats stats = service.getStats();
+		assertEquals(100, stats.getVisible());
+		assertEquals(100, stats.getCommitted());
+		assertTrue(stats.getBatches() >= 10);
+		assertTrue(stats.getRefreshes() > 0);
+		assertTrue(stats.getCommits() > 0);
+		assertTrue(stats.getMaxRefreshLagMillis() >= stats.getLastRefreshLagMillis());
+		assertEquals(100, count("title", "lucene"));
+		IndexReader committed = IndexReader.open(dir, true);
+		assertEquals(100, committed.numDocs());
+		committed.close();
+		service.close();
+	}
+
+	public void testNothingAcceptedIsLostOnClose() throws Exception {
+		final IngestionService service = new IngestionService(writer, manager, 10).start();
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			producers[p] = new Thread() {
+				public void run() {
+					try {
+						while (true) {
+							service.addDocument(book("" + accepted.get(), "lucene"));
+							accepted.incrementAndGet();
+						}
+					} catch (AlreadyClosedException e) {
+						// closed
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			producers[p].start();
+		}
+		Thread.sleep(50);
+		service.close();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertTrue(accepted.get() > 0);
+		assertEquals(accepted.get(), service.getStats().getEnqueued());
+		assertEquals(accepted.get(), service.getStats().getCommitted());
+		assertEquals(accepted.get(), count("title", "lucene"));
+	}
+
+	public void testFailedOperationsAreNotCounted() throws IOException {
+		IngestionService service = new IngestionService(writer, manager, 100);
+		for (int i = 0; i < 3; i++) {
+			service.addDocument(book("" + i, "lucene"));
+		}
+		Document broken = book("3", "lucene");
+		broken.add(new Field("contents", new TokenStream() {
+			public boolean incrementToken() {
+				throw new IllegalStateException("broken analyzer");
+			}
+		}));
+		service.addDocument(broken);
+		service.addDocument(book("4", "lucene"));
+		service.start();
+		try {
+			service.refresh();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("broken analyzer", e.getMessage());
+		}
+		assertEquals(5, service.getStats().getEnqueued());
+		assertEquals(3, service.getStats().getApplied());
+		try {
+			service.close();
+			fail();
+		} catch (IllegalStateException e) {
+			// the failure is reported again
+		}
+		assertEquals(3, service.getStats().getApplied());
+	}
+
+	public void testScheduledRefreshFailureIsReported() throws Exception {
+		manager.addRefreshListener(new SearcherManager.RefreshListener() {
+			public void afterRefresh(IndexSearcher newSearcher) {
+				throw new IllegalStateException("broken listener");
+			}
+		});
+		IngestionService service = new IngestionService(writer, manager, 100).setRefreshInterval(10).start();
+		service.addDocument(book("1", "lucene"));
+		long deadline = System.currentTimeMillis() + 10000;
+		try {
+			while (System.currentTimeMillis() < deadline) {
+				service.addDocument(book("2", "lucene"));
+				Thread.sleep(10);
+			}
+			fail("refresh failure not reported");
+		} catch (IllegalStateException e) {
+			assertEquals("broken listener", e.getMessage());
+		}
+		try {
+			service.close();
+			fail();
+		} catch (IllegalStateException e) {
+			// the failure is reported again
+		}
+	}
+}
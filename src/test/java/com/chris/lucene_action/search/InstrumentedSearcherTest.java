@@ -0,0 +1,153 @@
+package com.chris.lucene_action.search;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Version;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class InstrumentedSearcherTest extends TestCase {
+
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileNanos(0.99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMaxNanos());
+		assertEquals(500500.0, histogram.getMeanNanos(), 0.1);
+		assertWithin(500000, histogram.getPercentileNanos(0.5));
+		assertWithin(990000, histogram.getPercentileNanos(0.99));
+		assertEquals(1000000, histogram.getPercentileNanos(0.999));
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+	}
+
+	public void testBuckets() {
+		for (long v = 0; v < 100000; v++) {
+			int bucket = LatencyHistogram.bucket(v);
+			assertTrue(v <= LatencyHistogram.upperBound(bucket));
+			assertTrue(bucket == 0 || v > LatencyHistogram.upperBound(bucket - 1));
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+	}
+
+	public void testPhases() throws Exception {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexReader reader = IndexReader.open(dir, true);
+		SearchMetrics metrics = new SearchMetrics();
+		InstrumentedSearcher searcher = new InstrumentedSearcher(reader, metrics);
+		IndexSearcher plain = new IndexSearcher(reader);
+
+		QueryParser parser = new QueryParser(Version.LUCENE_30, "contents", CreateTestIndex.getAnalyzer());
+		TermQuery junit = (TermQuery) searcher.parse(parser, "junit");
+		TopDocs docs = searcher.search(junit, 10);
+		assertEquals(plain.search(junit, 10).totalHits, docs.totalHits);
+		for (ScoreDoc hit : docs.scoreDocs) {
+			searcher.doc(hit.doc);
+		}
+		searcher.search(new TermQuery(new Term("subject", "ant")), null, 10,
+				new Sort(new SortField("title2", SortField.STRING)));
+
+		QueryStats term = metrics.getStats("TermQuery");
+		assertEquals(2, term.getCount());
+		assertEquals(2, term.getCollect().getCount());
+		assertEquals(1, term.getParse().getCount());
+		assertEquals(docs.scoreDocs.length, term.getFetchCount());
+		assertEquals(0, term.getRewrittenTerms());
+		assertTrue(term.getTotal().getMaxNanos() > 0);
+
+		WildcardQuery wildcard = new WildcardQuery(new Term("title", "*t*"));
+		assertEquals(plain.search(wildcard, 10).totalHits, searcher.search(wildcard, 10).totalHits);
+		QueryStats stats = metrics.getStats("WildcardQuery");
+		assertEquals(1, stats.getCount());
+		assertEquals(1, stats.getRewrite().getCount());
+		assertTrue(stats.getRewrittenTerms() > 0);
+		assertEquals(2, term.getCount());
+
+		// explain is not a search, nor does it time a later search(Weight, ...)
+		PrefixQuery prefix = new PrefixQuery(new Term("title", "a"));
+		searcher.explain(prefix, docs.scoreDocs[0].doc);
+		searcher.search(junit.weight(searcher), null, 10);
+		assertEquals(0, metrics.getStats("PrefixQuery").getCount());
+		assertEquals(0, metrics.getStats("PrefixQuery").getRewrite().getCount());
+		assertEquals(2, term.getCount());
+
+		plain.close();
+		reader.close();
+		dir.close();
+	}
+
+	public void testMBeans() throws Exception {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexReader reader = IndexReader.open(dir, true);
+		SearchMetrics metrics = new SearchMetrics();
+		InstrumentedSearcher searcher = new InstrumentedSearcher(reader, metrics);
+		searcher.search(new TermQuery(new Term("subject", "junit")), 10);
+		metrics.registerMBeans("books");
+		try {
+			// types seen after registration are registered too
+			searcher.search(new WildcardQuery(new Term("title", "*t*")), 10);
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName term = metrics.objectName("TermQuery");
+			assertEquals(1L, server.getAttribute(term, "Count"));
+			assertTrue(server.isRegistered(metrics.objectName("WildcardQuery")));
+			assertTrue((Long) server.getAttribute(metrics.objectName("WildcardQuery"), "RewrittenTerms") > 0);
+			assertTrue((Long) server.getAttribute(term, "P99Micros") >= (Long) server.getAttribute(term, "P50Micros"));
+			server.invoke(term, "reset", null, null);
+			assertEquals(0L, server.getAttribute(term, "Count"));
+		} finally {
+			metrics.unregisterMBeans();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.objectName("TermQuery")));
+		reader.close();
+		dir.close();
+	}
+
+	public void testAnonymousQueryType() throws Exception {
+		Directory dir = TestUtil.getBookIndexDirectory();
+		IndexReader reader = IndexReader.open(dir, true);
+		SearchMetrics metrics = new SearchMetrics();
+		metrics.registerMBeans("anonymous");
+		try {
+			InstrumentedSearcher searcher = new InstrumentedSearcher(reader, metrics);
+			TermQuery query = new TermQuery(new Term("subject", "lucene")) {
+			};
+			searcher.search(query, 10);
+			String type = query.getClass().getName();
+			assertEquals(type, InstrumentedSearcher.queryType(query));
+			assertEquals(1, metrics.getStats(type).getCount());
+			assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.objectName(type)));
+		} finally {
+			metrics.unregisterMBeans();
+			reader.close();
+			dir.close();
+		}
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected * 1.125);
+	}
+
+}
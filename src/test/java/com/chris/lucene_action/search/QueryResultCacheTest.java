@@ -0,0 +1,130 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import junit.framework.TestCase;
+
+public class QueryResultCacheTest extends TestCase {
+	private Directory dir;
+	private IndexWriter writer;
+	private SearcherManager manager;
+
+	protected void setUp() throws Exception {
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		for (int i = 0; i < 10; i++) {
+			addDoc(i % 2 == 0 ? "junit" : "ant");
+		}
+		manager = new SearcherManager(writer);
+	}
+
+	protected void tearDown() throws Exception {
+		manager.close();
+		writer.close();
+		dir.close();
+	}
+
+	private void addDoc(String subject) throws IOException {
+		Document doc = new Document();
+		doc.add(new Field("subject", subject, Field.Store.NO, Field.Index.ANALYZED));
+		writer.addDocument(doc);
+	}
+
+	private TopDocs search(QueryResultCache cache, String subject) throws IOException {
+		IndexSearcher searcher = manager.acquire();
+		try {
+			return cache.search(searcher, new TermQuery(new Term("subject", subject)), 10);
+		} finally {
+			manager.release(searcher);
+		}
+	}
+
+	public void testHitsAndMisses() throws IOException {
+		QueryResultCache cache = new QueryResultCache(100, 1 << 20);
+		TopDocs first = search(cache, "junit");
+		assertEquals(5, first.totalHits);
+		assertSame(first, search(cache, "junit"));
+		search(cache, "ant");
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.size());
+	}
+
+	public void testInvalidatedOnReopen() throws IOException {
+		QueryResultCache cache = new QueryResultCache(100, 1 << 20);
+		manager.addRefreshListener(cache);
+		assertEquals(5, search(cache, "junit").totalHits);
+
+		addDoc("junit");
+		assertTrue(manager.maybeReopen());
+		assertEquals(0, cache.size());
+		assertEquals(6, search(cache, "junit").totalHits);
+		assertEquals(0, cache.getHits());
+	}
+
+	public void testResultOfOtherReaderNotServed() throws IOException {
+		QueryResultCache cache = new QueryResultCache(100, 1 << 20);
+		assertEquals(5, search(cache, "junit").totalHits);
+		addDoc("junit");
+		manager.maybeReopen(); // not registered as listener
+		assertEquals(6, search(cache, "junit").totalHits);
+	}
+
+	public void testLruEviction() throws IOException {
+		QueryResultCache cache = new QueryResultCache(2, 1 << 20);
+		search(cache, "junit");
+		search(cache, "ant");
+		search(cache, "junit"); // ant is now least recently used
+		search(cache, "mock");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		search(cache, "junit");
+		assertEquals(2, cache.getHits());
+	}
+
+	public void testMemoryBound() throws IOException {
+		IndexSearcher searcher = manager.acquire();
+		try {
+			Query query = new TermQuery(new Term("subject", "junit"));
+			long size = QueryResultCache.sizeOf(searcher.search(query, 10));
+			QueryResultCache cache = new QueryResultCache(100, size + size / 2);
+			cache.search(searcher, query, 10);
+			cache.search(searcher, new TermQuery(new Term("subject", "ant")), 10);
+			assertEquals(1, cache.size());
+			assertTrue(cache.ramBytesUsed() <= size + size / 2);
+		} finally {
+			manager.release(searcher);
+		}
+	}
+
+	public void testClosedReaderNotKeptReachable() throws Exception {
+		QueryResultCache cache = new QueryResultCache(100, 1 << 20);
+		writer.commit();
+		IndexReader reader = IndexReader.open(dir, true);
+		cache.search(new IndexSearcher(reader), new TermQuery(new Term("subject", "junit")), 10);
+		assertEquals(1, cache.size());
+		reader.close();
+		reader = null;
+		// not attached to a manager, the entry goes away with the reader
+		long deadline = System.currentTimeMillis() + 10000;
+		while (cache.size() > 0 && System.currentTimeMillis() < deadline) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.ramBytesUsed());
+	}
+}
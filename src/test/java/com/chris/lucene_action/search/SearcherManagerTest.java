@@ -0,0 +1,192 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.chris.lucene_action.common.TestUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Near-real-time searchers shared through SearcherManager, instead of
+ * reopening and swapping readers by hand as in SearchTest.NearRealTimeTest
+ */
+public class SearcherManagerTest extends TestCase {
+	private Directory dir;
+	private IndexWriter writer;
+	private SearcherManager manager;
+
+	protected void setUp() throws Exception {
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, new SimpleAnalyzer(), IndexWriter.MaxFieldLength.UNLIMITED);
+		for (int i = 0; i < 10; i++) {
+			addDoc(i);
+		}
+		manager = new SearcherManager(writer);
+	}
+
+	protected void tearDown() throws Exception {
+		manager.close();
+		writer.close();
+		dir.close();
+	}
+
+	private void addDoc(int id) throws IOException {
+		Document doc = new Document();
+		doc.add(new Field("id", "" + id, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+		doc.add(new Field("name", "chris", Field.Store.NO, Field.Index.ANALYZED));
+		writer.addDocument(doc);
+	}
+
+	private int count(IndexSearcher searcher) throws IOException {
+		return TestUtil.hitCount(searcher, new TermQuery(new Term("name", "chris")));
+	}
+
+	public void testReopenSeesUncommittedChanges() throws IOException {
+		IndexSearcher searcher = manager.acquire();
+		try {
+			assertEquals(10, count(searcher));
+		} finally {
+			manager.release(searcher);
+		}
+
+		assertFalse(manager.maybeReopen());
+		writer.deleteDocuments(new Term("id", "0"));
+		addDoc(10);
+		addDoc(11);
+		assertTrue(manager.maybeReopen());
+
+		searcher = manager.acquire();
+		try {
+			assertEquals(11, count(searcher));
+		} finally {
+			manager.release(searcher);
+		}
+
+		writer.deleteDocuments(new Term("id", "1"));
+		assertTrue("deletes alone", manager.maybeReopen());
+		searcher = manager.acquire();
+		try {
+			assertEquals(10, count(searcher));
+		} finally {
+			manager.release(searcher);
+		}
+	}
+
+	public void testOldReaderClosedOnLastRelease() throws IOException {
+		IndexSearcher old = manager.acquire();
+		IndexReader oldReader = old.getIndexReader();
+
+		addDoc(10);
+		assertTrue(manager.maybeReopen());
+		// still in use, so still open
+		assertEquals(10, count(old));
+		assertEquals(1, oldReader.getRefCount());
+
+		manager.release(old);
+		assertEquals(0, oldReader.getRefCount());
+	}
+
+	public void testWarmerRunsBeforePublish() throws IOException {
+		final int[] warmed = new int[1];
+		SearcherManager warmedManager = new SearcherManager(writer, new SearcherManager.SearcherWarmer() {
+			public void warm(IndexSearcher searcher) throws IOException {
+				warmed[0] = count(searcher);
+			}
+		});
+		addDoc(10);
+		warmedManager.maybeReopen();
+		assertEquals(11, warmed[0]);
+		warmedManager.close();
+	}
+
+	public void testFailedWarmClosesReader() throws IOException {
+		final IndexReader[] warmed = new IndexReader[1];
+		SearcherManager failing = new SearcherManager(writer, new SearcherManager.SearcherWarmer() {
+			public void warm(IndexSearcher searcher) throws IOException {
+				if (warmed[0] == null && searcher.maxDoc() > 10) {
+					warmed[0] = searcher.getIndexReader();
+					throw new IllegalStateException("warmer failed");
+				}
+			}
+		});
+		addDoc(10);
+		try {
+			failing.maybeReopen();
+			fail("warmer exception swallowed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(0, warmed[0].getRefCount());
+		IndexSearcher searcher = failing.acquire();
+		try {
+			assertEquals(10, count(searcher));
+		} finally {
+			failing.release(searcher);
+		}
+		assertTrue(failing.maybeReopen());
+		failing.close();
+	}
+
+	public void testScheduledReopen() throws Exception {
+		manager.startReopenThread(10);
+		addDoc(10);
+		long deadline = System.currentTimeMillis() + 5000;
+		int count;
+		do {
+			Thread.sleep(10);
+			IndexSearcher searcher = manager.acquire();
+			try {
+				count = count(searcher);
+			} finally {
+				manager.release(searcher);
+			}
+		} while (count != 11 && System.currentTimeMillis() < deadline);
+		assertEquals(11, count);
+	}
+
+	public void testScheduledReopenSurvivesFailingListener() throws Exception {
+		final AtomicInteger refreshes = new AtomicInteger();
+		manager.addRefreshListener(new SearcherManager.RefreshListener() {
+			public void afterRefresh(IndexSearcher searcher) {
+				if (refreshes.incrementAndGet() == 1) {
+					throw new IllegalStateException("listener failed");
+				}
+			}
+		});
+		manager.startReopenThread(10);
+		addDoc(10);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (refreshes.get() < 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		addDoc(11);
+		while (refreshes.get() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, refreshes.get());
+	}
+
+	public void testAcquireAfterClose() throws IOException {
+		manager.close();
+		try {
+			manager.acquire();
+			fail("closed manager handed out a searcher");
+		} catch (AlreadyClosedException e) {
+			// expected
+		}
+		manager = new SearcherManager(writer);
+	}
+}
@@ -0,0 +1,253 @@
+package com.chris.lucene_action.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.OpenBitSet;
+
+import com.chris.lucene_action.search.FilterCache.CachedFilter;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class SegmentCacheStoreTest extends TestCase {
+	private File storeDir;
+	private Directory dir;
+	private IndexWriter writer;
+
+	protected void setUp() throws Exception {
+		storeDir = File.createTempFile("caches", "");
+		storeDir.delete();
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(300); // several segments
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(13).index(writer, 1000, 2);
+		writer.commit();
+	}
+
+	protected void tearDown() throws Exception {
+		writer.close();
+		dir.close();
+		new SegmentCacheStore(storeDir).clear();
+		storeDir.delete();
+	}
+
+	public void testRestartMapsWhatWasBuilt() throws IOException {
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexSearcher searcher = new IndexSearcher(reader);
+		int segments = reader.getSequentialSubReaders().length;
+		assertTrue(segments > 1);
+
+		SegmentCacheStore store = new SegmentCacheStore(storeDir);
+		new IntColumnCache("pubmonth").setStore(store).warm(searcher);
+		FacetIndex.forBooks().setStore(store).warm(searcher);
+		CachedFilter filter = new FilterCache(10, store).categoryPrefix("/technology");
+		for (IndexReader segment : reader.getSequentialSubReaders()) {
+			filter.getBits(segment);
+		}
+		assertEquals(0, store.getReads());
+		assertEquals(4 * segments, store.getWrites());
+		assertEquals(4 * segments, storeDir.list().length);
+
+		// as after a restart: new caches over a new store instance
+		SegmentCacheStore restarted = new SegmentCacheStore(storeDir);
+		IntColumnCache columns = new IntColumnCache("pubmonth").setStore(restarted);
+		FacetIndex facets = FacetIndex.forBooks().setStore(restarted);
+		CachedFilter restartedFilter = new FilterCache(10, restarted).categoryPrefix("/technology");
+		IntColumnCache built = new IntColumnCache();
+		FilterCache builtFilters = new FilterCache(10);
+		for (IndexReader segment : reader.getSequentialSubReaders()) {
+			IntColumn mapped = columns.getColumn(segment, "pubmonth");
+			IntColumn expected = built.getColumn(segment, "pubmonth");
+			assertTrue(mapped.isMapped());
+			assertFalse(expected.isMapped());
+			assertEquals(expected.size(), mapped.size());
+			assertEquals(expected.getMin(), mapped.getMin());
+			assertEquals(expected.getMax(), mapped.getMax());
+			for (int doc = 0; doc < segment.maxDoc(); doc++) {
+				assertEquals(expected.hasValue(doc), mapped.hasValue(doc));
+				assertEquals(expected.get(doc), mapped.get(doc));
+			}
+			OpenBitSet bits = restartedFilter.getBits(segment);
+			assertEquals(builtFilters.categoryPrefix("/technology").getBits(segment), bits);
+			assertTrue(bits.cardinality() > 0);
+		}
+
+		FacetCollector mapped = new FacetCollector(facets);
+		searcher.search(new MatchAllDocsQuery(), mapped);
+		FacetCollector expected = new FacetCollector(FacetIndex.forBooks());
+		searcher.search(new MatchAllDocsQuery(), expected);
+		for (String field : new String[] {"category", "author"}) {
+			assertEquals(expected.getTop(field, 100), mapped.getTop(field, 100));
+		}
+		assertEquals(expected.getChildren("category", "/technology"), mapped.getChildren("category", "/technology"));
+		assertEquals(4 * segments, restarted.getReads());
+		assertEquals(0, restarted.getWrites());
+		assertTrue(columns.ramBytesUsed() < built.ramBytesUsed());
+		searcher.close();
+	}
+
+	public void testMergedSegmentsArePruned() throws IOException {
+		SegmentCacheStore store = new SegmentCacheStore(storeDir);
+		IntColumnCache columns = new IntColumnCache("pubmonth").setStore(store);
+		IndexReader reader = IndexReader.open(dir, true);
+		columns.warm(new IndexSearcher(reader));
+		int segments = reader.getSequentialSubReaders().length;
+		assertEquals(segments, storeDir.list().length);
+		assertEquals(0, store.prune(reader));
+
+		// deletions keep the files valid
+		writer.deleteDocuments(new Term("subject", "ant"));
+		writer.commit();
+		IndexReader deleted = reader.reopen();
+		SegmentCacheStore restarted = new SegmentCacheStore(storeDir);
+		new IntColumnCache("pubmonth").setStore(restarted).warm(new IndexSearcher(deleted));
+		assertEquals(segments, restarted.getReads());
+
+		writer.optimize();
+		writer.commit();
+		IndexReader optimized = deleted.reopen();
+		new IntColumnCache("pubmonth").setStore(restarted).warm(new IndexSearcher(optimized));
+		assertEquals(1, restarted.getWrites());
+		assertEquals(segments, restarted.prune(optimized));
+		assertEquals(1, storeDir.list().length);
+		reader.close();
+		deleted.close();
+		optimized.close();
+	}
+
+	public void testRecreatedSegmentIsRebuilt() throws Exception {
+		SegmentCacheStore store = new SegmentCacheStore(storeDir);
+		IndexReader reader = IndexReader.open(dir, true);
+		new IntColumnCache("pubmonth").setStore(store).warm(new IndexSearcher(reader));
+		reader.close();
+		writer.close();
+		dir.close();
+
+		// same segment names and sizes, other books
+		Thread.sleep(20);
+		dir = new RAMDirectory();
+		writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+		writer.setMaxBufferedDocs(300);
+		writer.setMergeFactor(100);
+		new BookCorpusGenerator(14).index(writer, 1000, 2);
+		writer.commit();
+		reader = IndexReader.open(dir, true);
+		SegmentCacheStore restarted = new SegmentCacheStore(storeDir);
+		new IntColumnCache("pubmonth").setStore(restarted).warm(new IndexSearcher(reader));
+		assertEquals(0, restarted.getReads());
+		assertEquals(reader.getSequentialSubReaders().length, restarted.getWrites());
+		reader.close();
+	}
+
+	public void testConcurrentFirstUse() throws Exception {
+		final IndexReader reader = IndexReader.open(dir, true);
+		final SegmentCacheStore store = new SegmentCacheStore(storeDir);
+		final int threads = 8;
+		for (int round = 0; round < 5; round++) {
+			store.clear();
+			final CyclicBarrier start = new CyclicBarrier(threads);
+			final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+			Thread[] searchers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				searchers[t] = new Thread() {
+					public void run() {
+						try {
+							// caches of their own, so every thread builds and writes the same files
+							CachedFilter filter = new FilterCache(10, store).categoryPrefix("/technology");
+							IntColumnCache columns = new IntColumnCache().setStore(store);
+							start.await();
+							for (IndexReader segment : reader.getSequentialSubReaders()) {
+								assertTrue(filter.getBits(segment).cardinality() > 0);
+								assertEquals(segment.maxDoc(), columns.getColumn(segment, "pubmonth").size());
+							}
+						} catch (Throwable e) {
+							errors.add(e);
+						}
+					}
+				};
+				searchers[t].start();
+			}
+			for (Thread searcher : searchers) {
+				searcher.join();
+			}
+			assertEquals(errors.toString(), 0, errors.size());
+		}
+		assertEquals(0, store.getFailures());
+		int segments = reader.getSequentialSubReaders().length;
+		assertEquals(2 * segments, storeDir.list().length);
+
+		SegmentCacheStore restarted = new SegmentCacheStore(storeDir);
+		new IntColumnCache("pubmonth").setStore(restarted).warm(new IndexSearcher(reader));
+		assertEquals(segments, restarted.getReads());
+		reader.close();
+	}
+
+	public void testUnusableFilesAreRebuilt() throws IOException {
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexReader segment = reader.getSequentialSubReaders()[0];
+		SegmentCacheStore store = new SegmentCacheStore(storeDir);
+		new IntColumnCache().setStore(store).getColumn(segment, "pubmonth");
+		File file = storeDir.listFiles()[0];
+		RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+		truncated.setLength(truncated.length() / 2);
+		truncated.close();
+
+		SegmentCacheStore restarted = new SegmentCacheStore(storeDir);
+		IntColumn column = new IntColumnCache().setStore(restarted).getColumn(segment, "pubmonth");
+		assertFalse(column.isMapped());
+		assertEquals(0, restarted.getReads());
+		assertEquals(1, restarted.getWrites());
+		assertTrue(new IntColumnCache().setStore(restarted).getColumn(segment, "pubmonth").isMapped());
+
+		// a store that cannot be written to
+		File notADirectory = File.createTempFile("caches", "");
+		try {
+			SegmentCacheStore unwritable = new SegmentCacheStore(notADirectory);
+			IntColumnCache columns = new IntColumnCache().setStore(unwritable);
+			assertEquals(column.get(0), columns.getColumn(segment, "pubmonth").get(0));
+			assertEquals(0, unwritable.getWrites());
+			assertEquals(1, unwritable.getFailures());
+		} finally {
+			notADirectory.delete();
+		}
+		reader.close();
+	}
+
+	public void testFileOfReaderWithMoreDeletionsIsNotUsed() throws IOException {
+		IndexReader reader = IndexReader.open(dir, true);
+		writer.deleteDocuments(new Term("subject", "ant"));
+		writer.commit();
+		IndexReader deleted = reader.reopen();
+		IndexReader segment = deleted.getSequentialSubReaders()[0];
+		assertTrue(segment.hasDeletions());
+		SegmentCacheStore store = new SegmentCacheStore(storeDir);
+		new IntColumnCache().setStore(store).getColumn(segment, "pubmonth");
+
+		SegmentCacheStore restarted = new SegmentCacheStore(storeDir);
+		IntColumnCache columns = new IntColumnCache().setStore(restarted);
+		IntColumn column = columns.getColumn(reader.getSequentialSubReaders()[0], "pubmonth");
+		assertEquals(0, restarted.getReads());
+		for (int doc = 0; doc < segment.maxDoc(); doc++) {
+			assertTrue(column.hasValue(doc));
+		}
+		assertTrue(new IntColumnCache().setStore(restarted).getColumn(segment, "pubmonth").isMapped());
+		deleted.close();
+		reader.close();
+	}
+}
@@ -0,0 +1,68 @@
+package com.chris.lucene_action.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import common.BookCorpusGenerator;
+import common.CreateTestIndex;
+
+import junit.framework.TestCase;
+
+public class SegmentCacheTest extends TestCase {
+
+	/**
+	 * A reopen adding deletions warms the shared core through the new reader;
+	 * searches still running on the old reader must see their live documents.
+	 */
+	public void testValuesForReaderWithFewerDeletions() throws IOException {
+		Directory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true,
+				IndexWriter.MaxFieldLength.UNLIMITED);
+		new BookCorpusGenerator(3).index(writer, 200, 1);
+		writer.optimize();
+		writer.commit();
+		IndexReader before = IndexReader.open(dir, true);
+		IndexReader oldSegment = before.getSequentialSubReaders()[0];
+		String title = oldSegment.document(0).get("title");
+		String isbn = oldSegment.document(0).get("isbn");
+		writer.deleteDocuments(new Term("isbn", isbn));
+		writer.commit();
+		IndexReader after = before.reopen();
+		IndexReader newSegment = after.getSequentialSubReaders()[0];
+		assertSame(oldSegment.getFieldCacheKey(), newSegment.getFieldCacheKey());
+		assertTrue(newSegment.isDeleted(0));
+
+		StoredFieldColumns titles = new StoredFieldColumns("title");
+		IntColumnCache columns = new IntColumnCache("pubmonth");
+		FacetIndex facets = FacetIndex.forBooks();
+		IndexSearcher newSearcher = new IndexSearcher(after);
+		titles.warm(newSearcher);
+		columns.warm(newSearcher);
+		facets.warm(newSearcher);
+		assertNull(titles.getColumn(newSegment, "title")[0]);
+
+		assertEquals(title, titles.getColumn(oldSegment, "title")[0]);
+		assertTrue(columns.getColumn(oldSegment, "pubmonth").hasValue(0));
+		FacetCollector counts = new FacetCollector(facets);
+		new IndexSearcher(before).search(new MatchAllDocsQuery(), counts);
+		int total = 0;
+		for (int count : counts.getChildren("category", "").values()) {
+			total += count;
+		}
+		assertEquals(before.numDocs(), total);
+
+		// the complete columns serve the new reader as well
+		assertEquals(title, titles.getColumn(newSegment, "title")[0]);
+		before.close();
+		after.close();
+		writer.close();
+		dir.close();
+	}
+}
@@ -0,0 +1,193 @@
+package com.chris.lucene_action.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import common.CreateTestIndex;
+import common.IndexPipeline;
+import common.ShardRouter;
+import common.ShardedWriter;
+
+import junit.framework.TestCase;
+
+public class ShardedSearcherTest extends TestCase {
+	private static final String DATA_DIR = CreateTestIndex._DIR + File.separator + "data";
+
+	private ExecutorService executor;
+
+	protected void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	protected void tearDown() {
+		executor.shutdown();
+	}
+
+	private static IndexWriter newWriter(Directory dir) throws IOException {
+		return new IndexWriter(dir, CreateTestIndex.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+	}
+
+	private static ShardedWriter newShardedWriter(Directory[] shards, ShardRouter router) throws IOException {
+		IndexWriter[] writers = new IndexWriter[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new RAMDirectory();
+			writers[i] = newWriter(shards[i]);
+		}
+		return new ShardedWriter(writers, router);
+	}
+
+	private ShardedSearcher newShardedSearcher(Directory[] shards) throws IOException {
+		IndexSearcher[] searchers = new IndexSearcher[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			searchers[i] = new IndexSearcher(shards[i], true);
+		}
+		return new ShardedSearcher(executor, searchers);
+	}
+
+	public void testSameScoresAsSingleIndex() throws IOException, ParseException {
+		Directory single = new RAMDirectory();
+		IndexWriter writer = newWriter(single);
+		new IndexPipeline(DATA_DIR).setThreads(2).run(writer);
+		writer.close();
+
+		Directory[] shards = new Directory[3];
+		ShardedWriter sharded = newShardedWriter(shards, ShardRouter.byField("isbn"));
+		new IndexPipeline(DATA_DIR).setThreads(2).run(sharded);
+		assertEquals(13, sharded.numDocs());
+		sharded.close();
+
+		IndexSearcher searcher = new IndexSearcher(single, true);
+		ShardedSearcher shardedSearcher = newShardedSearcher(shards);
+		assertEquals(3, shardedSearcher.getShardCount());
+		QueryParser parser = new QueryParser(Version.LUCENE_30, "contents", CreateTestIndex.getAnalyzer());
+		Query[] queries = {
+				new TermQuery(new Term("subject", "junit")),
+				new PrefixQuery(new Term("category", "/technology")),
+				parser.parse("lucene OR ant OR junit"),
+				parser.parse("\"tao te ching\" OR mindstorms"),
+				parser.parse("title:action^2 java")};
+		for (Query query : queries) {
+			Map<String, Float> expected = scores(searcher, query);
+			assertFalse(query.toString(), expected.isEmpty());
+			Map<String, Float> actual = scores(shardedSearcher, query);
+			assertEquals(query.toString(), expected.keySet(), actual.keySet());
+			for (String isbn : expected.keySet()) {
+				assertEquals(query + " " + isbn, expected.get(isbn), actual.get(isbn), 1e-6f);
+			}
+		}
+
+		Sort byTitle = new Sort(new SortField("title2", SortField.STRING), new SortField("pubmonth", SortField.INT, true));
+		Query all = new PrefixQuery(new Term("category", "/"));
+		ScoreDoc[] expected = searcher.search(all, null, 10, byTitle).scoreDocs;
+		ScoreDoc[] actual = shardedSearcher.search(all, null, 10, byTitle).scoreDocs;
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(searcher.doc(expected[i].doc).get("isbn"), shardedSearcher.doc(actual[i].doc).get("isbn"));
+		}
+
+		searcher.close();
+		shardedSearcher.close();
+	}
+
+	public void testOpenSkipsEmptiedShards() throws IOException {
+		File indexDir = File.createTempFile("shards", "");
+		indexDir.delete();
+		try {
+			ShardedWriter writer = ShardedWriter.open(indexDir, 3, ShardRouter.byField("isbn"),
+					CreateTestIndex.getAnalyzer(), true);
+			new IndexPipeline(DATA_DIR).setThreads(2).run(writer);
+			writer.close();
+			// fewer shards empty the rest
+			writer = ShardedWriter.open(indexDir, 2, ShardRouter.byField("isbn"), CreateTestIndex.getAnalyzer(), true);
+			new IndexPipeline(DATA_DIR).setThreads(2).run(writer);
+			writer.close();
+			assertEquals(3, ShardedWriter.shardDirs(indexDir).size());
+
+			ShardedSearcher searcher = ShardedSearcher.open(indexDir, executor);
+			assertEquals(2, searcher.getShardCount());
+			assertEquals(13, searcher.maxDoc());
+			searcher.close();
+		} finally {
+			for (File shard : ShardedWriter.shardDirs(indexDir)) {
+				for (File file : shard.listFiles()) {
+					file.delete();
+				}
+				shard.delete();
+			}
+			indexDir.delete();
+		}
+	}
+
+	private static Map<String, Float> scores(Searcher searcher, Query query) throws IOException {
+		Map<String, Float> scores = new HashMap<String, Float>();
+		TopDocs hits = searcher.search(query, 100);
+		for (ScoreDoc hit : hits.scoreDocs) {
+			scores.put(searcher.doc(hit.doc).get("isbn"), hit.score);
+		}
+		return scores;
+	}
+
+	public void testUpdateMovesBookBetweenShards() throws IOException {
+		Directory[] shards = new Directory[4];
+		ShardRouter router = ShardRouter.byField("category");
+		ShardedWriter writer = newShardedWriter(shards, router);
+		String from = "/technology";
+		String to = "/health";
+		for (int i = 0; router.shard(book("1", to), 4) == router.shard(book("1", from), 4); i++) {
+			to = "/health/" + i;
+		}
+
+		writer.addDocument(book("1", from));
+		writer.addDocument(book("2", from));
+		writer.commit();
+		assertEquals(2, writer.getWriter(router.shard(book("1", from), 4)).numDocs());
+
+		writer.updateDocument(new Term("isbn", "1"), book("1", to));
+		writer.commit();
+		assertEquals(1, writer.getWriter(router.shard(book("1", from), 4)).numDocs());
+		assertEquals(1, writer.getWriter(router.shard(book("1", to), 4)).numDocs());
+
+		writer.deleteDocuments(new Term("isbn", "1"));
+		writer.close();
+		ShardedSearcher searcher = newShardedSearcher(shards);
+		assertEquals(1, searcher.search(new PrefixQuery(new Term("category", "/")), 10).totalHits);
+		searcher.close();
+	}
+
+	public void testIsbnRoutesDeletesToOneShard() {
+		ShardRouter router = ShardRouter.byField("isbn");
+		assertEquals(router.shard(book("9781933988177", "/technology"), 5),
+				router.shard(new Term("isbn", "9781933988177"), 5));
+		assertEquals(-1, router.shard(new Term("category", "/technology"), 5));
+	}
+
+	private static Document book(String isbn, String category) {
+		Document doc = new Document();
+		doc.add(new Field("isbn", isbn, Field.Store.YES, Field.Index.NOT_ANALYZED));
+		doc.add(new Field("category", category, Field.Store.YES, Field.Index.NOT_ANALYZED));
+		return doc;
+	}
+}